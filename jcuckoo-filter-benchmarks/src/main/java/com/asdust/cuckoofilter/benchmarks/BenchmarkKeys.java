@@ -0,0 +1,38 @@
+package com.asdust.cuckoofilter.benchmarks;
+
+import java.util.Random;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/9/24 10:20
+ * @desc: 基准测试共用的测试数据
+ */
+final class BenchmarkKeys {
+    /**
+     * 每个基准循环使用的数据个数，为2的整数次幂，用与运算取下标
+     */
+    static final int POOL_SIZE = 1 << 16;
+
+    private BenchmarkKeys() {
+    }
+
+    static String[] randomStrings(int count, int length, Random random) {
+        String[] keys = new String[count];
+        char[] chars = new char[length];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < length; j++) {
+                chars[j] = (char) ('a' + random.nextInt(26));
+            }
+            keys[i] = new String(chars);
+        }
+        return keys;
+    }
+
+    static long[] randomLongs(int count, Random random) {
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = random.nextLong();
+        }
+        return values;
+    }
+}
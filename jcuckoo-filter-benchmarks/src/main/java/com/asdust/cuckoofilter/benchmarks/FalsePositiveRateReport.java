@@ -0,0 +1,42 @@
+package com.asdust.cuckoofilter.benchmarks;
+
+import com.asdust.cuckoofilter.CuckooFilter;
+import com.asdust.cuckoofilter.core.LocalFilterTable;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/9/24 14:00
+ * @desc: 误判率随负载的变化。误判率不是耗时指标，不适合放在JMH中，直接运行main方法输出：
+ * java -cp target/benchmarks.jar com.asdust.cuckoofilter.benchmarks.FalsePositiveRateReport [容量] [查询次数]
+ */
+public class FalsePositiveRateReport {
+
+    private static final double[] LOADS = {0.1, 0.25, 0.5, 0.75, 0.9, 0.95};
+
+    public static void main(String[] args) {
+        int capacity = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+        int probes = args.length > 1 ? Integer.parseInt(args[1]) : 1 << 20;
+        LocalFilterTable table = new LocalFilterTable(capacity);
+        CuckooFilter<String> filter = new CuckooFilter<>(table);
+        long slots = table.getNumBuckets() * 4;
+        System.out.printf("容量：%d，槽个数：%d，查询次数：%d%n", capacity, slots, probes);
+        System.out.println("负载\t槽占用率\t误判率");
+        int inserted = 0;
+        for (double load : LOADS) {
+            int target = (int) (capacity * load);
+            for (; inserted < target; inserted++) {
+                if (!filter.put("member-" + inserted)) {
+                    System.out.printf("写入失败，已写入：%d%n", inserted);
+                    return;
+                }
+            }
+            int falsePositives = 0;
+            for (int i = 0; i < probes; i++) {
+                if (filter.contain("absent-" + i)) {
+                    falsePositives++;
+                }
+            }
+            System.out.printf("%.2f\t%.4f\t%.6f%n", load, (double) inserted / slots, (double) falsePositives / probes);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.asdust.cuckoofilter.benchmarks;
+
+import com.asdust.cuckoofilter.CuckooFilter;
+import com.asdust.cuckoofilter.core.LocalFilterTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/9/24 11:10
+ * @desc: CuckooFilter在不同负载下的写入和查询吞吐量，桶存储使用进程内的LocalFilterTable代替redis，
+ * 测量的是过滤器本身的开销，不包括网络往返。*Concurrent方法使用与CPU核数相同的线程数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterThroughputBenchmark {
+
+    private static final int CAPACITY = 1 << 20;
+
+    /**
+     * 预先写入的元素个数占容量的比例
+     */
+    @Param({"0.25", "0.5", "0.75", "0.9"})
+    private double load;
+
+    private CuckooFilter<String> filter;
+
+    private String[] members;
+
+    private String[] absent;
+
+    @Setup
+    public void setup() {
+        filter = new CuckooFilter<>(new LocalFilterTable(CAPACITY));
+        int count = (int) (CAPACITY * load);
+        members = new String[count];
+        for (int i = 0; i < count; i++) {
+            members[i] = "member-" + i;
+            filter.put(members[i]);
+        }
+        absent = new String[BenchmarkKeys.POOL_SIZE];
+        for (int i = 0; i < absent.length; i++) {
+            absent[i] = "absent-" + i;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = ThreadLocalRandom.current().nextInt();
+
+        int next() {
+            return next++ & Integer.MAX_VALUE;
+        }
+    }
+
+    @Benchmark
+    public boolean containHit(Cursor cursor) {
+        return filter.contain(members[cursor.next() % members.length]);
+    }
+
+    @Benchmark
+    public boolean containMiss(Cursor cursor) {
+        return filter.contain(absent[cursor.next() & (BenchmarkKeys.POOL_SIZE - 1)]);
+    }
+
+    /**
+     * 写入一个新元素后再删除，保持负载不变，结果为一次写入加一次删除的吞吐量
+     */
+    @Benchmark
+    public boolean putAndDelete(Cursor cursor) {
+        String item = absent[cursor.next() & (BenchmarkKeys.POOL_SIZE - 1)];
+        return filter.put(item) & filter.delete(item);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean containHitConcurrent(Cursor cursor) {
+        return containHit(cursor);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean containMissConcurrent(Cursor cursor) {
+        return containMiss(cursor);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean putAndDeleteConcurrent(Cursor cursor) {
+        return putAndDelete(cursor);
+    }
+}
@@ -0,0 +1,69 @@
+package com.asdust.cuckoofilter.benchmarks;
+
+import com.asdust.cuckoofilter.utils.HashUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/9/24 10:30
+ * @desc: HashUtils.hash对不同长度字符串、long和字节数组的耗时
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    @Param({"8", "32", "128"})
+    private int keyLength;
+
+    @Param({"Murmur3_128", "Murmur3_32", "xxHash64"})
+    private HashUtils.Algorithm algorithm;
+
+    private String[] keys;
+
+    private long[] longs;
+
+    private byte[] bytes;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        keys = BenchmarkKeys.randomStrings(BenchmarkKeys.POOL_SIZE, keyLength, random);
+        longs = BenchmarkKeys.randomLongs(BenchmarkKeys.POOL_SIZE, random);
+        bytes = new byte[BenchmarkKeys.POOL_SIZE + keyLength];
+        random.nextBytes(bytes);
+    }
+
+    @Benchmark
+    public long hashString() {
+        return HashUtils.hash(keys[next++ & (BenchmarkKeys.POOL_SIZE - 1)], algorithm);
+    }
+
+    @Benchmark
+    public long hashLong() {
+        return HashUtils.hash(longs[next++ & (BenchmarkKeys.POOL_SIZE - 1)], algorithm);
+    }
+
+    @Benchmark
+    public long hashBytes() {
+        return HashUtils.hash(bytes, next++ & (BenchmarkKeys.POOL_SIZE - 1), keyLength, algorithm);
+    }
+}
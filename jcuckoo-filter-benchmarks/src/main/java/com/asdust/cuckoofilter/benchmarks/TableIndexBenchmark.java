@@ -0,0 +1,73 @@
+package com.asdust.cuckoofilter.benchmarks;
+
+import com.asdust.cuckoofilter.core.LocalFilterTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/9/24 10:45
+ * @desc: 桶下标、另一个桶下标和指纹的计算耗时。这几个方法在AbstractFilterTable中实现，FilterTable与LocalFilterTable相同，
+ * 这里用LocalFilterTable避免连接redis
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableIndexBenchmark {
+
+    private LocalFilterTable table;
+
+    private long[] hashes;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        table = new LocalFilterTable(1 << 20);
+        hashes = BenchmarkKeys.randomLongs(BenchmarkKeys.POOL_SIZE, new Random(42));
+    }
+
+    private long nextHash() {
+        return hashes[next++ & (BenchmarkKeys.POOL_SIZE - 1)];
+    }
+
+    @Benchmark
+    public long hashIndex() {
+        return table.hashIndex(nextHash());
+    }
+
+    @Benchmark
+    public long getFingerprint() {
+        return table.getFingerprint(nextHash());
+    }
+
+    @Benchmark
+    public long altHashIndex() {
+        long hash = nextHash();
+        return table.altHashIndex(hash & (table.getNumBuckets() - 1), hash >>> 48);
+    }
+
+    /**
+     * 一次写入或查询需要的全部计算
+     */
+    @Benchmark
+    public long allIndexes() {
+        long hash = nextHash();
+        long curIndex = table.hashIndex(hash);
+        return curIndex ^ table.altHashIndex(curIndex, table.getFingerprint(hash));
+    }
+}
@@ -1,14 +1,28 @@
 package com.asdust.cuckoofilter;
 
+import com.asdust.cuckoofilter.core.CoalescingFilterTable;
+import com.asdust.cuckoofilter.core.CuckooTable;
+import com.asdust.cuckoofilter.core.FilterSnapshot;
 import com.asdust.cuckoofilter.core.FilterTable;
-import com.asdust.cuckoofilter.core.ItemPos;
+import com.asdust.cuckoofilter.core.ResizableFilterTable;
+import com.asdust.cuckoofilter.core.TableGeometry;
+import com.asdust.cuckoofilter.metrics.FilterMetrics;
 import com.asdust.cuckoofilter.redis.RedisConfig;
 import com.asdust.cuckoofilter.utils.HashUtils;
+import com.google.common.hash.Funnel;
 import com.google.common.math.DoubleMath;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.RoundingMode;
-import java.nio.charset.StandardCharsets;
-import java.util.concurrent.ThreadLocalRandom;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -16,10 +30,16 @@ import java.util.concurrent.atomic.AtomicLong;
  * @date: 2022/7/31 17:35
  * @desc:
  */
-public class CuckooFilter<T> {
-    private FilterTable table;
+public class CuckooFilter<T> implements Closeable {
+    private final CuckooTable table;
 
-    private static final int MAX_TRY_CUCKOO_COUNT = 100;
+    private final HashUtils.Algorithm algorithm;
+    /**
+     * 将元素写入hash的方式，为null时只支持String、Long、Integer和byte[]
+     */
+    private final Funnel<? super T> funnel;
+
+    private final FilterMetrics metrics;
 
     private final AtomicLong numItems = new AtomicLong(0);
 
@@ -27,15 +47,43 @@ public class CuckooFilter<T> {
      * @param estimatedMaxNumKeys 期望存放的最大key个数
      */
     public CuckooFilter(Long estimatedMaxNumKeys, RedisConfig redisConfig) {
-        table = new FilterTable(estimatedMaxNumKeys, redisConfig);
+        this(new FilterTable(estimatedMaxNumKeys, redisConfig));
+    }
+
+    /**
+     * @param table 桶的存储实现，如redis的FilterTable或进程内的LocalFilterTable
+     */
+    public CuckooFilter(CuckooTable table) {
+        this(table, null, HashUtils.Algorithm.Murmur3_128);
+    }
+
+    /**
+     * @param funnel    将元素写入hash的方式，为null时只支持String、Long、Integer和byte[]
+     * @param algorithm hash算法，同一个key的所有客户端必须一致
+     */
+    public CuckooFilter(CuckooTable table, Funnel<? super T> funnel, HashUtils.Algorithm algorithm) {
+        this(table, funnel, algorithm, FilterMetrics.NOOP);
     }
+
+    /**
+     * @param metrics 记录每次操作的耗时、剔除次数等指标，同时交给table记录网络往返次数
+     */
+    public CuckooFilter(CuckooTable table, Funnel<? super T> funnel, HashUtils.Algorithm algorithm,
+                        FilterMetrics metrics) {
+        this.table = table;
+        this.funnel = funnel;
+        this.algorithm = algorithm;
+        this.metrics = metrics;
+        table.setMetrics(metrics);
+    }
+
     /**
      * Calculates how many bits are needed to reach a given false positive rate.
      *
      * @param fpProb the false positive probability.
      * @return the length of the tag needed (in bits) to reach the false
      * positive rate.
-     * 用来计算最佳的指纹位数，本工具没有使用，使用了固定值16
+     * 用来估算每个元素占用的位数，CuckooFilterBuilder按误判率选择结构时使用的是TableGeometry.forFpp
      */
     public static int getBitsPerItemForFpRate(double fpProb, double loadFactor) {
         /*
@@ -45,28 +93,32 @@ public class CuckooFilter<T> {
         return DoubleMath.roundToInt(DoubleMath.log2((1 / fpProb) + 3) / loadFactor, RoundingMode.UP);
     }
 
-    private ItemPos generateIndexTagHash(T item) {
-        String itemStr;
-        if (item instanceof String) {
-            itemStr = (String) item;
-        } else if (item instanceof Long) {
-            itemStr = ((Long) item).toString();
-        } else if (item instanceof Integer) {
-            itemStr = ((Integer) item).toString();
-        } else if (item instanceof Byte[]) {
-            itemStr = new String((byte[]) item, StandardCharsets.UTF_8);
-        } else {
-            throw new IllegalArgumentException("传入参数非法");
+    /**
+     * 计算元素的64位hash，桶下标和指纹都由它得出。指定了funnel时由funnel写入元素，
+     * 否则Long、Integer按long计算，与put(long)一致，byte[]按字节计算，String按字符串计算
+     */
+    long hash(T item) {
+        return hash(item, funnel, algorithm);
+    }
+
+    static <T> long hash(T item, Funnel<? super T> funnel, HashUtils.Algorithm algorithm) {
+        if (funnel != null) {
+            return HashUtils.hash(item, funnel, algorithm);
         }
-        long hash = HashUtils.hash(itemStr);
-        ItemPos itemPos = new ItemPos();
-        long curIndex = table.hashIndex(hash);
-        long tag = table.getFingerprint(hash);
-        itemPos.setCurIndex(curIndex);
-        itemPos.setTag(tag);
-        return itemPos;
+        return hash(item, algorithm);
     }
 
+    static long hash(Object item, HashUtils.Algorithm algorithm) {
+        if (item instanceof String) {
+            return HashUtils.hash((String) item, algorithm);
+        } else if (item instanceof Long || item instanceof Integer) {
+            return HashUtils.hash(((Number) item).longValue(), algorithm);
+        } else if (item instanceof byte[]) {
+            byte[] bytes = (byte[]) item;
+            return HashUtils.hash(bytes, 0, bytes.length, algorithm);
+        }
+        throw new IllegalArgumentException("传入参数非法，其他类型的元素需要指定Funnel");
+    }
 
     /**
      * 写入item
@@ -75,38 +127,101 @@ public class CuckooFilter<T> {
      * @return true or false
      */
     public boolean put(T item) {
-        long curIndex, altIndex, tag;
+        return putHash(hash(item));
+    }
+
+    /**
+     * 写入long，不创建任何对象
+     */
+    public boolean put(long item) {
+        return putHash(HashUtils.hash(item, algorithm));
+    }
+
+    /**
+     * 写入bytes[offset, offset + length)
+     */
+    public boolean put(byte[] bytes, int offset, int length) {
+        return putHash(HashUtils.hash(bytes, offset, length, algorithm));
+    }
+
+    private boolean putHash(long hash) {
+        long start = System.nanoTime();
         // 计算出索引和指纹以及另一个索引
-        ItemPos itemPos = generateIndexTagHash(item);
-        curIndex = itemPos.getCurIndex();
-        tag = itemPos.getTag();
-        altIndex = table.altHashIndex(curIndex, tag);
-        System.out.println("put:curIndex:"+curIndex+",altIndex:"+altIndex+",:tag:"+tag);
-        if (table.insert(curIndex, tag) || table.insert(altIndex, tag)) {
-            numItems.incrementAndGet();
-            System.out.println("incrementAndGet");
-            return true;
-        }
-        System.out.println("put:MAX_TRY_CUCKOO_COUNT");
-        //全部已满，则从槽1或槽2中随机剔除一个值的位置插入，然后将新的值插入到新的槽中，如此循环直到插入成功，或者达到最大值100
-        for (int count = 1; count < MAX_TRY_CUCKOO_COUNT; count++) {
-            // 随机获取一个槽的tag
-            long index = randSelectSlot(curIndex, altIndex);
-            long oldTag = table.randSelectTag(index, tag);
-            if (table.insert(curIndex, oldTag)) {
-                return true;
-            }
-            curIndex = index;
-            altIndex = table.altHashIndex(curIndex, oldTag);
+        long curIndex = table.hashIndex(hash);
+        long tag = table.getFingerprint(hash);
+        long altIndex = table.altHashIndex(curIndex, tag);
+        // 两个候选桶都满时由table完成剔除，剔除次数用尽后最后一个被剔除的指纹放入victim，victim已被占用时写入失败
+        int kicks = table.put(curIndex, altIndex, tag);
+        metrics.recordLatency(FilterMetrics.Op.PUT, System.nanoTime() - start);
+        return onPut(kicks);
+    }
+
+    private boolean onPut(int kicks) {
+        if (kicks == CuckooTable.PUT_FAILED) {
+            metrics.recordPutFailed();
+            return false;
         }
-        //todo 若到达最大尝试次数，则使用victim(牺牲者)将被剔除这缓存起来，仍然返回true
+        metrics.recordKicks(kicks);
         numItems.incrementAndGet();
         return true;
     }
 
-    private long randSelectSlot(long curIndex, long altIndex) {
-        int randNum = ThreadLocalRandom.current().nextInt(2);
-        return randNum == 0 ? curIndex : altIndex;
+    /**
+     * 不存在时写入，用于去重：查询和写入是一个原子操作，redis中只需一次网络往返，
+     * 多个线程或多个节点同时写入同一元素时只有一个返回true。与contain一样，误判为已存在的元素不会写入
+     *
+     * @return 元素是新写入的返回true，已存在或写入失败返回false
+     */
+    public boolean putIfAbsent(T item) {
+        return putIfAbsentHash(hash(item));
+    }
+
+    public boolean putIfAbsent(long item) {
+        return putIfAbsentHash(HashUtils.hash(item, algorithm));
+    }
+
+    public boolean putIfAbsent(byte[] bytes, int offset, int length) {
+        return putIfAbsentHash(HashUtils.hash(bytes, offset, length, algorithm));
+    }
+
+    private boolean putIfAbsentHash(long hash) {
+        long start = System.nanoTime();
+        long curIndex = table.hashIndex(hash);
+        long tag = table.getFingerprint(hash);
+        int kicks = table.putIfAbsent(curIndex, table.altHashIndex(curIndex, tag), tag);
+        metrics.recordLatency(FilterMetrics.Op.PUT, System.nanoTime() - start);
+        return kicks != CuckooTable.PRESENT && onPut(kicks);
+    }
+
+    /**
+     * putIfAbsent的异步版本
+     */
+    public CompletionStage<Boolean> putIfAbsentAsync(T item) {
+        long start = System.nanoTime();
+        long hash = hash(item);
+        long curIndex = table.hashIndex(hash);
+        long tag = table.getFingerprint(hash);
+        return table.putIfAbsentAsync(curIndex, table.altHashIndex(curIndex, tag), tag).thenApply(kicks -> {
+            metrics.recordLatency(FilterMetrics.Op.PUT, System.nanoTime() - start);
+            return kicks != CuckooTable.PRESENT && onPut(kicks);
+        });
+    }
+
+    /**
+     * put的异步版本，不阻塞调用线程，适合在netty、webflux等事件循环线程中调用
+     *
+     * @return 写入结果
+     */
+    public CompletionStage<Boolean> putAsync(T item) {
+        long start = System.nanoTime();
+        long hash = hash(item);
+        long curIndex = table.hashIndex(hash);
+        long tag = table.getFingerprint(hash);
+        long altIndex = table.altHashIndex(curIndex, tag);
+        return table.putAsync(curIndex, altIndex, tag).thenApply(kicks -> {
+            metrics.recordLatency(FilterMetrics.Op.PUT, System.nanoTime() - start);
+            return onPut(kicks);
+        });
     }
 
     /**
@@ -115,16 +230,43 @@ public class CuckooFilter<T> {
      * @return true or false
      */
     public boolean contain(T item) {
-        // 计算出两个索引的位置
-        long curIndex, tag, altIndex;
+        return containHash(hash(item));
+    }
+
+    public boolean contain(long item) {
+        return containHash(HashUtils.hash(item, algorithm));
+    }
+
+    public boolean contain(byte[] bytes, int offset, int length) {
+        return containHash(HashUtils.hash(bytes, offset, length, algorithm));
+    }
+
+    private boolean containHash(long hash) {
+        long start = System.nanoTime();
         // 计算出索引和指纹以及另一个索引
-        ItemPos itemPos = generateIndexTagHash(item);
-        curIndex = itemPos.getCurIndex();
-        tag = itemPos.getTag();
-        altIndex = table.altHashIndex(curIndex, tag);
+        long curIndex = table.hashIndex(hash);
+        long tag = table.getFingerprint(hash);
+        long altIndex = table.altHashIndex(curIndex, tag);
         // 查询是否存在table中
-        System.out.println("contain:curIndex:"+curIndex+",altIndex:"+altIndex+",:tag:"+tag);
-        return table.contain(curIndex, altIndex, tag);
+        boolean exists = table.contain(curIndex, altIndex, tag);
+        metrics.recordLatency(FilterMetrics.Op.CONTAIN, System.nanoTime() - start);
+        return exists;
+    }
+
+    /**
+     * contain的异步版本
+     *
+     * @return 是否存在
+     */
+    public CompletionStage<Boolean> containAsync(T item) {
+        long start = System.nanoTime();
+        long hash = hash(item);
+        long curIndex = table.hashIndex(hash);
+        long tag = table.getFingerprint(hash);
+        return table.containAsync(curIndex, table.altHashIndex(curIndex, tag), tag).thenApply(exists -> {
+            metrics.recordLatency(FilterMetrics.Op.CONTAIN, System.nanoTime() - start);
+            return exists;
+        });
     }
 
     /**
@@ -134,31 +276,266 @@ public class CuckooFilter<T> {
      * @return true or false
      */
     public boolean delete(T item) {
-        // 计算出两个索引的位置
-        long curIndex, tag, altIndex;
+        return deleteHash(hash(item));
+    }
+
+    public boolean delete(long item) {
+        return deleteHash(HashUtils.hash(item, algorithm));
+    }
+
+    public boolean delete(byte[] bytes, int offset, int length) {
+        return deleteHash(HashUtils.hash(bytes, offset, length, algorithm));
+    }
+
+    private boolean deleteHash(long hash) {
+        long start = System.nanoTime();
         // 计算出索引和指纹以及另一个索引
-        ItemPos itemPos = generateIndexTagHash(item);
-        curIndex = itemPos.getCurIndex();
-        tag = itemPos.getTag();
-        altIndex = table.altHashIndex(curIndex, tag);
+        long curIndex = table.hashIndex(hash);
+        long tag = table.getFingerprint(hash);
+        long altIndex = table.altHashIndex(curIndex, tag);
         // 存在则删除
-        if (table.delete(curIndex, tag) || table.delete(altIndex, tag)) {
+        boolean deleted = table.delete(curIndex, altIndex, tag);
+        metrics.recordLatency(FilterMetrics.Op.DELETE, System.nanoTime() - start);
+        if (deleted) {
             numItems.decrementAndGet();
-            System.out.println("decrementAndGet");
-            return true;
         }
-        //todo 否则检查是否为victim，若是则设置victim为false
-        return false;
+        return deleted;
     }
 
 
     /**
-     * 获取存放的元素数量
+     * delete的异步版本
+     *
+     * @return 是否存在并删除
+     */
+    public CompletionStage<Boolean> deleteAsync(T item) {
+        long start = System.nanoTime();
+        long hash = hash(item);
+        long curIndex = table.hashIndex(hash);
+        long tag = table.getFingerprint(hash);
+        return table.deleteAsync(curIndex, table.altHashIndex(curIndex, tag), tag).thenApply(deleted -> {
+            metrics.recordLatency(FilterMetrics.Op.DELETE, System.nanoTime() - start);
+            if (deleted) {
+                numItems.decrementAndGet();
+            }
+            return deleted;
+        });
+    }
+
+    /**
+     * 获取存放的元素数量。table维护元素个数时(如redis的FilterTable、MappedFilterTable)以table中的为准，
+     * 包括其他客户端或重新打开前写入的元素；否则(LocalFilterTable)为当前实例的计数
      *
      * @return @return number of items in filter
      */
     public long size() {
+        long tableSize = table.size();
+        if (tableSize != CuckooTable.UNKNOWN_SIZE) {
+            return tableSize;
+        }
         // can return more than maxKeys if running above design limit!
         return numItems.get();
     }
+
+    /**
+     * 批量构建或导入快照后设置当前实例的计数，table维护元素个数时不使用该计数
+     */
+    void resetSize(long size) {
+        numItems.set(size);
+    }
+
+    /**
+     * 负载因子，即size()占全部槽位的比例
+     */
+    public double loadFactor() {
+        TableGeometry geometry = table.getGeometry();
+        // 可扩容的table读取元素个数时同时刷新扩容次数，需要先于桶个数读取
+        long size = size();
+        ResizableFilterTable resizable = resizableTable();
+        long numBuckets = resizable == null ? geometry.getNumBuckets() : resizable.getCurrentNumBuckets();
+        return (double) size / (numBuckets * geometry.getBucketSize());
+    }
+
+    /**
+     * 按当前负载因子估算的误判率：查询时与两个候选桶中已占用的槽比较，每个槽误判的概率为 1 / 2^指纹位数
+     */
+    public double expectedFpp() {
+        TableGeometry geometry = table.getGeometry();
+        double loadFactor = loadFactor();
+        ResizableFilterTable resizable = resizableTable();
+        int bitsPerTag = resizable == null ? geometry.getBitsPerTag() : resizable.getCurrentBitsPerTag();
+        double occupiedSlots = 2 * geometry.getBucketSize() * Math.min(1.0, loadFactor);
+        return 1 - Math.pow(1 - Math.pow(2, -bitsPerTag), occupiedSlots);
+    }
+
+    /**
+     * 将可扩容的过滤器的桶个数加倍，见ResizableFilterTable，阻塞直到迁移完成
+     *
+     * @return 完成后的扩容次数
+     */
+    public int resize() {
+        ResizableFilterTable resizable = resizableTable();
+        if (resizable == null) {
+            throw new UnsupportedOperationException("只有CuckooFilterBuilder.resizable创建的过滤器支持扩容");
+        }
+        return resizable.resize();
+    }
+
+    /**
+     * 是否有指纹存放在victim中，此时过滤器已接近满载，再次剔除失败时写入会被拒绝
+     */
+    public boolean hasVictim() {
+        return table.hasVictim();
+    }
+
+    /**
+     * 关闭table：CoalescingFilterTable发出已收集的元素并停止合并线程，MappedFilterTable刷盘后关闭文件，
+     * 其他table不需要关闭。构造时传入的table也会被关闭
+     */
+    @Override
+    public void close() throws IOException {
+        if (table instanceof Closeable) {
+            ((Closeable) table).close();
+        }
+    }
+
+    /**
+     * 将redis中的过滤器导出为快照，格式见FilterSnapshot，不关闭out
+     *
+     * @param compress 是否压缩数据部分
+     */
+    public void exportTo(OutputStream out, boolean compress) throws IOException {
+        FilterSnapshot.write(snapshotTable(), algorithm.getValue(), out, compress);
+    }
+
+    public void exportTo(Path file, boolean compress) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            exportTo(out, compress);
+        }
+    }
+
+    /**
+     * 从快照导入，覆盖redis中已有的数据，快照的结构和hash算法必须与当前过滤器一致，不关闭in
+     */
+    public void importFrom(InputStream in) throws IOException {
+        resetSize(FilterSnapshot.read(snapshotTable(), algorithm.getValue(), in));
+    }
+
+    public void importFrom(Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            importFrom(in);
+        }
+    }
+
+    private FilterTable snapshotTable() {
+        CuckooTable target = unwrap();
+        if (!(target instanceof FilterTable) || target instanceof ResizableFilterTable) {
+            throw new UnsupportedOperationException("只有不可扩容的redis的FilterTable支持快照");
+        }
+        return (FilterTable) target;
+    }
+
+    private ResizableFilterTable resizableTable() {
+        CuckooTable target = unwrap();
+        return target instanceof ResizableFilterTable ? (ResizableFilterTable) target : null;
+    }
+
+    private CuckooTable unwrap() {
+        return table instanceof CoalescingFilterTable ? ((CoalescingFilterTable) table).getDelegate() : table;
+    }
+
+    /**
+     * 批量写入，先计算出所有元素的桶和指纹，再一次性交给table批量处理，剔除在table中完成
+     *
+     * @return 与items迭代顺序一致的每个元素的写入结果
+     */
+    public boolean[] putAll(Collection<? extends T> items) {
+        long start = System.nanoTime();
+        BatchPos batchPos = generateBatchPos(items);
+        boolean[] results = table.putAll(batchPos.curIndexes, batchPos.altIndexes, batchPos.tags);
+        metrics.recordLatency(FilterMetrics.Op.PUT_ALL, System.nanoTime() - start);
+        for (boolean result : results) {
+            if (result) {
+                numItems.incrementAndGet();
+            } else {
+                metrics.recordPutFailed();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 批量判断是否存在
+     *
+     * @return 与items迭代顺序一致的每个元素是否存在
+     */
+    public boolean[] containsAll(Collection<? extends T> items) {
+        long start = System.nanoTime();
+        BatchPos batchPos = generateBatchPos(items);
+        boolean[] results = table.containAll(batchPos.curIndexes, batchPos.altIndexes, batchPos.tags);
+        metrics.recordLatency(FilterMetrics.Op.CONTAIN_ALL, System.nanoTime() - start);
+        return results;
+    }
+
+    /**
+     * 批量判断long是否存在，与contain(long)一致，不创建任何对象；本地存储成组读取候选桶并一次比较整个桶
+     *
+     * @return 与items顺序一致的每个元素是否存在
+     */
+    public boolean[] containsAll(long[] items) {
+        long start = System.nanoTime();
+        long[] hashes = new long[items.length];
+        for (int i = 0; i < items.length; i++) {
+            hashes[i] = HashUtils.hash(items[i], algorithm);
+        }
+        boolean[] results = table.containAll(hashes);
+        metrics.recordLatency(FilterMetrics.Op.CONTAIN_ALL, System.nanoTime() - start);
+        return results;
+    }
+
+    /**
+     * 批量删除
+     *
+     * @return 与items迭代顺序一致的每个元素是否存在并删除
+     */
+    public boolean[] deleteAll(Collection<? extends T> items) {
+        long start = System.nanoTime();
+        BatchPos batchPos = generateBatchPos(items);
+        boolean[] results = table.deleteAll(batchPos.curIndexes, batchPos.altIndexes, batchPos.tags);
+        metrics.recordLatency(FilterMetrics.Op.DELETE_ALL, System.nanoTime() - start);
+        for (boolean result : results) {
+            if (result) {
+                numItems.decrementAndGet();
+            }
+        }
+        return results;
+    }
+
+    private BatchPos generateBatchPos(Collection<? extends T> items) {
+        BatchPos batchPos = new BatchPos(items.size());
+        int i = 0;
+        for (T item : items) {
+            long hash = hash(item);
+            batchPos.curIndexes[i] = table.hashIndex(hash);
+            batchPos.tags[i] = table.getFingerprint(hash);
+            batchPos.altIndexes[i] = table.altHashIndex(batchPos.curIndexes[i], batchPos.tags[i]);
+            i++;
+        }
+        return batchPos;
+    }
+
+    /**
+     * 批量操作时所有元素的桶下标和指纹
+     */
+    private static final class BatchPos {
+        private final long[] curIndexes;
+        private final long[] altIndexes;
+        private final long[] tags;
+
+        private BatchPos(int size) {
+            curIndexes = new long[size];
+            altIndexes = new long[size];
+            tags = new long[size];
+        }
+    }
 }
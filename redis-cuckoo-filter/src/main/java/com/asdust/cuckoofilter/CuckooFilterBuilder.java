@@ -0,0 +1,214 @@
+package com.asdust.cuckoofilter;
+
+import com.asdust.cuckoofilter.core.BucketEncoding;
+import com.asdust.cuckoofilter.core.BulkFilterTable;
+import com.asdust.cuckoofilter.core.CoalescingFilterTable;
+import com.asdust.cuckoofilter.core.CuckooTable;
+import com.asdust.cuckoofilter.core.FilterTable;
+import com.asdust.cuckoofilter.core.InsertStrategy;
+import com.asdust.cuckoofilter.core.LocalFilterTable;
+import com.asdust.cuckoofilter.core.ResizableFilterTable;
+import com.asdust.cuckoofilter.core.TableGeometry;
+import com.asdust.cuckoofilter.metrics.FilterMetrics;
+import com.asdust.cuckoofilter.redis.RedisConfig;
+import com.asdust.cuckoofilter.redis.RedisUtils;
+import com.asdust.cuckoofilter.utils.HashUtils;
+import com.google.common.hash.Funnel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Spliterator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/10/1 11:00
+ * @desc: 按期望的元素个数和误判率创建过滤器，自动选择指纹位数和桶大小。
+ * 结构保存在redis的元数据中，key已存在时使用redis中的结构，保证所有客户端一致
+ */
+public class CuckooFilterBuilder<T> {
+    private static final Logger log = LoggerFactory.getLogger(CuckooFilterBuilder.class);
+
+    private final long expectedKeys;
+
+    private final double fpp;
+
+    private RedisConfig redisConfig;
+
+    private Funnel<? super T> funnel;
+
+    private HashUtils.Algorithm algorithm = HashUtils.Algorithm.Murmur3_128;
+
+    private BucketEncoding encoding = BucketEncoding.PLAIN;
+
+    private FilterMetrics metrics = FilterMetrics.NOOP;
+
+    private InsertStrategy insertStrategy = InsertStrategy.RANDOM_WALK;
+
+    private boolean exactBuckets;
+
+    private boolean resizable;
+
+    private long coalesceDelayMicros;
+
+    private int coalesceBatchSize;
+
+    private CuckooFilterBuilder(long expectedKeys, double fpp) {
+        this.expectedKeys = expectedKeys;
+        this.fpp = fpp;
+    }
+
+    /**
+     * @param expectedKeys 期望存放的最大key个数
+     * @param fpp          期望的误判率
+     */
+    public static <T> CuckooFilterBuilder<T> create(long expectedKeys, double fpp) {
+        return new CuckooFilterBuilder<>(expectedKeys, fpp);
+    }
+
+    public CuckooFilterBuilder<T> redisConfig(RedisConfig redisConfig) {
+        this.redisConfig = redisConfig;
+        return this;
+    }
+
+    public CuckooFilterBuilder<T> funnel(Funnel<? super T> funnel) {
+        this.funnel = funnel;
+        return this;
+    }
+
+    public CuckooFilterBuilder<T> algorithm(HashUtils.Algorithm algorithm) {
+        this.algorithm = algorithm;
+        return this;
+    }
+
+    /**
+     * 桶的编码方式，半排序编码每个元素节省1位，读写时需要在lua脚本中解码，只对新建的key生效
+     */
+    public CuckooFilterBuilder<T> encoding(BucketEncoding encoding) {
+        this.encoding = encoding;
+        return this;
+    }
+
+    public CuckooFilterBuilder<T> metrics(FilterMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * 两个候选桶都满时腾出空槽的方式，BFS的写入耗时更稳定，过滤器可以写得更满
+     */
+    public CuckooFilterBuilder<T> insertStrategy(InsertStrategy insertStrategy) {
+        this.insertStrategy = insertStrategy;
+        return this;
+    }
+
+    /**
+     * 按需要的桶个数分配，不向上取整到2的整数次幂，为保证能写入期望的元素个数按较低的负载因子计算，
+     * 期望的元素个数刚超过2的整数次幂对应的容量时最多节省约四成内存，不会多于取整时的内存。
+     * 下标改用乘法和移位计算，计算量不变，只对新建的key生效
+     */
+    public CuckooFilterBuilder<T> exactBuckets(boolean exactBuckets) {
+        this.exactBuckets = exactBuckets;
+        return this;
+    }
+
+    /**
+     * 创建可在线扩容的过滤器，见ResizableFilterTable，只支持随机剔除，不支持变更发布和批量构建
+     */
+    public CuckooFilterBuilder<T> resizable(boolean resizable) {
+        this.resizable = resizable;
+        return this;
+    }
+
+    /**
+     * 合并并发的单元素调用，见CoalescingFilterTable，只对redis的过滤器生效。
+     * 合并使用单独的定时线程，不再使用时调用CuckooFilter.close停止该线程，已收集的元素在关闭时立即发出
+     *
+     * @param maxDelayMicros 第一个元素到达后最多等待的微秒数
+     * @param maxBatchSize   每批最多的元素个数
+     */
+    public CuckooFilterBuilder<T> coalesce(long maxDelayMicros, int maxBatchSize) {
+        if (maxDelayMicros <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("等待时间和每批元素个数必须大于0：" + maxDelayMicros + "，" + maxBatchSize);
+        }
+        this.coalesceDelayMicros = maxDelayMicros;
+        this.coalesceBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * 按期望的元素个数和误判率计算出的结构，不访问redis
+     */
+    public TableGeometry geometry() {
+        return TableGeometry.forFpp(expectedKeys, fpp, encoding, exactBuckets);
+    }
+
+    public CuckooFilter<T> build() {
+        if (redisConfig == null) {
+            throw new IllegalStateException("需要设置redisConfig");
+        }
+        return new CuckooFilter<>(coalesce(connectTable()), funnel, algorithm, metrics);
+    }
+
+    public CuckooFilter<T> buildFrom(Stream<? extends T> items) {
+        return buildFrom(items.spliterator());
+    }
+
+    /**
+     * 在进程内并行构建过滤器，见BulkFilterTable。设置了redisConfig时构建完成后整体上传，覆盖redis中已有的数据；
+     * 否则返回进程内的过滤器，结构由LocalFilterTable决定，误判率不参与计算
+     *
+     * @throws IllegalStateException 元素个数超过过滤器容量
+     */
+    public CuckooFilter<T> buildFrom(Spliterator<? extends T> items) {
+        if (redisConfig == null) {
+            BulkFilterTable bulk = new BulkFilterTable(LocalFilterTable.geometryFor(expectedKeys, encoding, exactBuckets));
+            bulk.setInsertStrategy(insertStrategy);
+            long count = addAll(bulk, items);
+            LocalFilterTable local = bulk.toLocal();
+            local.setInsertStrategy(insertStrategy);
+            CuckooFilter<T> filter = new CuckooFilter<>(local, funnel, algorithm, metrics);
+            filter.resetSize(count);
+            return filter;
+        }
+        if (resizable) {
+            throw new UnsupportedOperationException("可扩容的过滤器不支持批量构建");
+        }
+        FilterTable table = connectTable();
+        BulkFilterTable bulk = new BulkFilterTable(table.getGeometry());
+        bulk.setInsertStrategy(insertStrategy);
+        long count = addAll(bulk, items);
+        bulk.uploadTo(table);
+        CuckooFilter<T> filter = new CuckooFilter<>(coalesce(table), funnel, algorithm, metrics);
+        filter.resetSize(count);
+        return filter;
+    }
+
+    private <E extends T> long addAll(BulkFilterTable bulk, Spliterator<E> items) {
+        return bulk.addAll(items, item -> CuckooFilter.hash(item, funnel, algorithm));
+    }
+
+    private CuckooTable coalesce(FilterTable table) {
+        if (coalesceBatchSize == 0) {
+            return table;
+        }
+        return new CoalescingFilterTable(table, coalesceDelayMicros, TimeUnit.MICROSECONDS, coalesceBatchSize);
+    }
+
+    private FilterTable connectTable() {
+        if (resizable && (redisConfig.isPublishChanges() || insertStrategy != InsertStrategy.RANDOM_WALK)) {
+            throw new UnsupportedOperationException("可扩容的过滤器不支持变更发布，只支持随机剔除");
+        }
+        TableGeometry proposed = geometry();
+        RedisUtils redisUtils = FilterTable.connect(redisConfig);
+        TableGeometry geometry = FilterTable.loadGeometry(redisUtils, redisConfig.getRedisBitKey(), proposed);
+        if (!geometry.equals(proposed)) {
+            log.warn("布谷鸟过滤器{}已存在，使用redis中的结构：{}，计算出的结构：{}", redisConfig.getRedisBitKey(), geometry, proposed);
+        }
+        FilterTable table = resizable ? new ResizableFilterTable(geometry, redisUtils, redisConfig.getRedisBitKey())
+                : new FilterTable(geometry, false, redisUtils, redisConfig.getRedisBitKey(), redisConfig.isPublishChanges());
+        table.setInsertStrategy(insertStrategy);
+        return table;
+    }
+}
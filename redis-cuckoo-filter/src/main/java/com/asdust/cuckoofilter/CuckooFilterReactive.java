@@ -0,0 +1,32 @@
+package com.asdust.cuckoofilter;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/8/27 15:20
+ * @desc: 基于Reactor的CuckooFilter，每次订阅时才发起异步操作，请求返回前不占用任何线程
+ */
+public class CuckooFilterReactive<T> {
+    private final CuckooFilter<T> filter;
+
+    public CuckooFilterReactive(CuckooFilter<T> filter) {
+        this.filter = filter;
+    }
+
+    public Mono<Boolean> put(T item) {
+        return Mono.fromCompletionStage(() -> filter.putAsync(item));
+    }
+
+    public Mono<Boolean> putIfAbsent(T item) {
+        return Mono.fromCompletionStage(() -> filter.putIfAbsentAsync(item));
+    }
+
+    public Mono<Boolean> contain(T item) {
+        return Mono.fromCompletionStage(() -> filter.containAsync(item));
+    }
+
+    public Mono<Boolean> delete(T item) {
+        return Mono.fromCompletionStage(() -> filter.deleteAsync(item));
+    }
+}
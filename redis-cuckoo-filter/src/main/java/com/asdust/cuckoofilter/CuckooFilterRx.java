@@ -0,0 +1,32 @@
+package com.asdust.cuckoofilter;
+
+import io.reactivex.rxjava3.core.Single;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/8/27 15:32
+ * @desc: 基于RxJava3的CuckooFilter，每次订阅时才发起异步操作，请求返回前不占用任何线程
+ */
+public class CuckooFilterRx<T> {
+    private final CuckooFilter<T> filter;
+
+    public CuckooFilterRx(CuckooFilter<T> filter) {
+        this.filter = filter;
+    }
+
+    public Single<Boolean> put(T item) {
+        return Single.defer(() -> Single.fromCompletionStage(filter.putAsync(item)));
+    }
+
+    public Single<Boolean> putIfAbsent(T item) {
+        return Single.defer(() -> Single.fromCompletionStage(filter.putIfAbsentAsync(item)));
+    }
+
+    public Single<Boolean> contain(T item) {
+        return Single.defer(() -> Single.fromCompletionStage(filter.containAsync(item)));
+    }
+
+    public Single<Boolean> delete(T item) {
+        return Single.defer(() -> Single.fromCompletionStage(filter.deleteAsync(item)));
+    }
+}
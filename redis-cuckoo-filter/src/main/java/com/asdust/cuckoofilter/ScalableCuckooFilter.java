@@ -0,0 +1,215 @@
+package com.asdust.cuckoofilter;
+
+import com.asdust.cuckoofilter.core.AbstractFilterTable;
+import com.asdust.cuckoofilter.core.CuckooTable;
+import com.asdust.cuckoofilter.core.FilterTable;
+import com.asdust.cuckoofilter.redis.RedisConfig;
+import com.asdust.cuckoofilter.redis.RedisUtils;
+import com.asdust.cuckoofilter.utils.HashUtils;
+import com.google.common.hash.Funnel;
+import org.redisson.api.RAtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/9/10 15:20
+ * @desc: 容量自动增长的布谷鸟过滤器，由多代FilterTable组成，新元素只写入最新一代。
+ * 最新一代的元素个数超过负载因子，或写入失败时，以2倍容量新增一代，第i代的key为 {redisBitKey}:g{i}（redisBitKey已有hash tag时为 redisBitKey:g{i}），第0代就是redisBitKey本身。
+ * 每一代的指纹增加1位，误判率减半，所有代的误判率之和不超过第0代的2倍。
+ * 查询和删除从最新一代开始依次检查。代数保存在redis中，其他客户端新增的代最多在refreshIntervalMillis后可见。
+ * 同一个key的所有客户端的funnel和hash算法必须一致
+ */
+public class ScalableCuckooFilter<T> {
+    private static final Logger log = LoggerFactory.getLogger(ScalableCuckooFilter.class);
+    /**
+     * 最多的代数，第i代的容量为第0代的2^i倍
+     */
+    static final int MAX_GENERATIONS = 16;
+
+    private static final long DEFAULT_REFRESH_INTERVAL_MILLIS = 1000;
+
+    private final long initialMaxNumKeys;
+
+    private final RedisUtils redisUtils;
+
+    private final String redisBitKey;
+
+    private final boolean publishChanges;
+
+    private final long refreshIntervalMillis;
+
+    private final Funnel<? super T> funnel;
+
+    private final HashUtils.Algorithm algorithm;
+
+    private final int maxGenerations;
+    /**
+     * redis中保存的代数，所有客户端共享
+     */
+    private final RAtomicLong generationCount;
+
+    private final List<FilterTable> generations = new CopyOnWriteArrayList<>();
+
+    private volatile long lastRefreshMillis;
+
+    /**
+     * @param initialMaxNumKeys 第0代期望存放的最大key个数
+     */
+    public ScalableCuckooFilter(long initialMaxNumKeys, RedisConfig redisConfig) {
+        this(initialMaxNumKeys, redisConfig, DEFAULT_REFRESH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param refreshIntervalMillis 查询时重新读取代数的间隔
+     */
+    public ScalableCuckooFilter(long initialMaxNumKeys, RedisConfig redisConfig, long refreshIntervalMillis) {
+        this(initialMaxNumKeys, redisConfig, refreshIntervalMillis, null, HashUtils.Algorithm.Murmur3_128);
+    }
+
+    /**
+     * @param funnel    将元素写入hash的方式，为null时只支持String、Long、Integer和byte[]
+     * @param algorithm hash算法，同一个key的所有客户端必须一致
+     */
+    public ScalableCuckooFilter(long initialMaxNumKeys, RedisConfig redisConfig, long refreshIntervalMillis,
+                                Funnel<? super T> funnel, HashUtils.Algorithm algorithm) {
+        this(initialMaxNumKeys, redisConfig, refreshIntervalMillis, funnel, algorithm, MAX_GENERATIONS);
+    }
+
+    /**
+     * @param maxGenerations 最多的代数，不超过MAX_GENERATIONS
+     */
+    ScalableCuckooFilter(long initialMaxNumKeys, RedisConfig redisConfig, long refreshIntervalMillis,
+                         Funnel<? super T> funnel, HashUtils.Algorithm algorithm, int maxGenerations) {
+        if (maxGenerations < 1 || maxGenerations > MAX_GENERATIONS) {
+            throw new IllegalArgumentException("代数需要在1到" + MAX_GENERATIONS + "之间：" + maxGenerations);
+        }
+        this.funnel = funnel;
+        this.algorithm = algorithm;
+        this.maxGenerations = maxGenerations;
+        this.initialMaxNumKeys = initialMaxNumKeys;
+        this.redisUtils = FilterTable.connect(redisConfig);
+        this.redisBitKey = redisConfig.getRedisBitKey();
+        this.publishChanges = redisConfig.isPublishChanges();
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.generationCount = redisUtils.getAtomicLong(RedisUtils.companionKey(redisBitKey, "generations"));
+        generationCount.compareAndSet(0, 1);
+        refresh();
+    }
+
+    /**
+     * 写入item，最新一代已满时新增一代后重试
+     *
+     * @return 达到最大代数且最新一代已满时返回false
+     */
+    public boolean put(T item) {
+        refreshIfStale();
+        long hash = CuckooFilter.hash(item, funnel, algorithm);
+        while (true) {
+            int count = generations.size();
+            FilterTable newest = generations.get(count - 1);
+            long curIndex = newest.hashIndex(hash);
+            long tag = newest.getFingerprint(hash);
+            if (newest.put(curIndex, newest.altHashIndex(curIndex, tag), tag) != CuckooTable.PUT_FAILED) {
+                return true;
+            }
+            if (!grow(count)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 判断是否存在key，从最新一代开始检查
+     */
+    public boolean contain(T item) {
+        refreshIfStale();
+        long hash = CuckooFilter.hash(item, funnel, algorithm);
+        for (int i = generations.size() - 1; i >= 0; i--) {
+            FilterTable table = generations.get(i);
+            long curIndex = table.hashIndex(hash);
+            long tag = table.getFingerprint(hash);
+            if (table.contain(curIndex, table.altHashIndex(curIndex, tag), tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 删除指定元素，只删除最新的一代中的一个
+     */
+    public boolean delete(T item) {
+        refreshIfStale();
+        long hash = CuckooFilter.hash(item, funnel, algorithm);
+        for (int i = generations.size() - 1; i >= 0; i--) {
+            FilterTable table = generations.get(i);
+            long curIndex = table.hashIndex(hash);
+            long tag = table.getFingerprint(hash);
+            if (table.delete(curIndex, table.altHashIndex(curIndex, tag), tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 所有代存放的元素数量之和
+     */
+    public long size() {
+        long size = 0;
+        for (FilterTable table : generations) {
+            size += table.size();
+        }
+        return size;
+    }
+
+    public int getGenerationCount() {
+        return generations.size();
+    }
+
+    /**
+     * 第generation代存放的元素数量
+     */
+    long generationSize(int generation) {
+        return generations.get(generation).size();
+    }
+
+    /**
+     * 在redis中将代数从known加1，其他客户端已经新增时以redis中的为准
+     */
+    private boolean grow(int known) {
+        if (known >= maxGenerations) {
+            log.warn("布谷鸟过滤器已达到最大代数：{}，写入失败", maxGenerations);
+            return false;
+        }
+        if (generationCount.compareAndSet(known, known + 1)) {
+            log.info("布谷鸟过滤器新增第{}代", known);
+        }
+        refresh();
+        return true;
+    }
+
+    private void refreshIfStale() {
+        if (System.currentTimeMillis() - lastRefreshMillis >= refreshIntervalMillis) {
+            refresh();
+        }
+    }
+
+    private synchronized void refresh() {
+        int count = (int) Math.min(generationCount.get(), maxGenerations);
+        for (int i = generations.size(); i < count; i++) {
+            generations.add(createGeneration(i));
+        }
+        lastRefreshMillis = System.currentTimeMillis();
+    }
+
+    private FilterTable createGeneration(int generation) {
+        String key = generation == 0 ? redisBitKey : RedisUtils.companionKey(redisBitKey, "g" + generation);
+        return new FilterTable(initialMaxNumKeys << generation, AbstractFilterTable.BITS_PER_TAG + generation,
+                true, redisUtils, key, publishChanges);
+    }
+}
@@ -0,0 +1,237 @@
+package com.asdust.cuckoofilter;
+
+import com.asdust.cuckoofilter.core.AbstractFilterTable;
+import com.asdust.cuckoofilter.core.CuckooTable;
+import com.asdust.cuckoofilter.core.FilterTable;
+import com.asdust.cuckoofilter.core.TableGeometry;
+import com.asdust.cuckoofilter.redis.RedisConfig;
+import com.asdust.cuckoofilter.redis.RedisUtils;
+import com.asdust.cuckoofilter.utils.HashUtils;
+import com.google.common.hash.Funnel;
+import org.redisson.command.CommandBatchService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.function.LongSupplier;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/10/20 14:00
+ * @desc: 按时间窗口去重的布谷鸟过滤器，用于"最近N小时内是否出现过"，过期不需要逐个删除元素。
+ * 由最近generations代FilterTable组成，每代覆盖generationMillis的时间，第e代的key为 redisBitKey:e{e}，
+ * e为当前时间除以generationMillis，所有客户端按各自的时钟得到相同的代，不需要协调。
+ * <p>
+ * 写入只写当前代，查询在一个pipeline中检查所有代，元素写入后在(generations - 1) * generationMillis到
+ * generations * generationMillis的时间内可以查到。进入新的一代时UNLINK超出窗口的一代，redis在后台线程释放内存；
+ * 每代打开时设置过期时间，没有客户端运行时也会被redis删除。各客户端的时钟需要基本同步，时钟偏差会使代的切换提前或推迟相应的时间
+ */
+public class WindowedCuckooFilter<T> {
+    private static final Logger log = LoggerFactory.getLogger(WindowedCuckooFilter.class);
+
+    private final RedisUtils redisUtils;
+
+    private final String redisBitKey;
+
+    private final boolean publishChanges;
+
+    private final int generations;
+
+    private final long generationMillis;
+    /**
+     * 每代按期望的元素个数计算出的结构，redis中已有该代时以redis中的为准
+     */
+    private final TableGeometry proposed;
+
+    private final Funnel<? super T> funnel;
+
+    private final HashUtils.Algorithm algorithm;
+    /**
+     * 计算当前代使用的时钟
+     */
+    private final LongSupplier clock;
+
+    private volatile Window window;
+
+    /**
+     * @param expectedKeysPerGeneration 每代期望存放的最大key个数
+     * @param generations               保留的代数，至少为2
+     * @param generationMillis          每代覆盖的时间
+     */
+    public WindowedCuckooFilter(long expectedKeysPerGeneration, RedisConfig redisConfig, int generations,
+                                long generationMillis) {
+        this(expectedKeysPerGeneration, redisConfig, generations, generationMillis, null, HashUtils.Algorithm.Murmur3_128);
+    }
+
+    /**
+     * @param funnel    将元素写入hash的方式，为null时只支持String、Long、Integer和byte[]
+     * @param algorithm hash算法，同一个key的所有客户端必须一致
+     */
+    public WindowedCuckooFilter(long expectedKeysPerGeneration, RedisConfig redisConfig, int generations,
+                                long generationMillis, Funnel<? super T> funnel, HashUtils.Algorithm algorithm) {
+        this(expectedKeysPerGeneration, redisConfig, generations, generationMillis, funnel, algorithm,
+                System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock 返回当前时间的毫秒数
+     */
+    WindowedCuckooFilter(long expectedKeysPerGeneration, RedisConfig redisConfig, int generations,
+                         long generationMillis, Funnel<? super T> funnel, HashUtils.Algorithm algorithm,
+                         LongSupplier clock) {
+        if (generations < 2 || generationMillis <= 0) {
+            throw new IllegalArgumentException("代数至少为2，每代的时间必须大于0：" + generations + "，" + generationMillis);
+        }
+        this.redisUtils = FilterTable.connect(redisConfig);
+        this.redisBitKey = redisConfig.getRedisBitKey();
+        this.publishChanges = redisConfig.isPublishChanges();
+        this.generations = generations;
+        this.generationMillis = generationMillis;
+        this.funnel = funnel;
+        this.algorithm = algorithm;
+        this.clock = clock;
+        this.proposed = TableGeometry.forKeys(expectedKeysPerGeneration, AbstractFilterTable.BITS_PER_TAG,
+                AbstractFilterTable.BUCKET_SIZE);
+        this.window = rotate(currentEpoch());
+    }
+
+    /**
+     * 写入当前代
+     */
+    public boolean put(T item) {
+        FilterTable table = window().tables[0];
+        long hash = CuckooFilter.hash(item, funnel, algorithm);
+        long curIndex = table.hashIndex(hash);
+        long tag = table.getFingerprint(hash);
+        return table.put(curIndex, table.altHashIndex(curIndex, tag), tag) != CuckooTable.PUT_FAILED;
+    }
+
+    /**
+     * 判断窗口内是否写入过item，所有代的查询在同一个pipeline中发送，只需一次网络往返
+     */
+    public boolean contain(T item) {
+        long hash = CuckooFilter.hash(item, funnel, algorithm);
+        CommandBatchService batch = new CommandBatchService(redisUtils.getCommandExecutor());
+        List<CompletionStage<Boolean>> results = new ArrayList<>(generations);
+        for (FilterTable table : window().tables) {
+            long curIndex = table.hashIndex(hash);
+            long tag = table.getFingerprint(hash);
+            results.add(table.containAsync(batch, curIndex, table.altHashIndex(curIndex, tag), tag));
+        }
+        batch.execute();
+        for (CompletionStage<Boolean> result : results) {
+            if (result.toCompletableFuture().join()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 删除指定元素，只删除最新的一代中的一个
+     */
+    public boolean delete(T item) {
+        long hash = CuckooFilter.hash(item, funnel, algorithm);
+        for (FilterTable table : window().tables) {
+            long curIndex = table.hashIndex(hash);
+            long tag = table.getFingerprint(hash);
+            if (table.delete(curIndex, table.altHashIndex(curIndex, tag), tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 窗口内所有代存放的元素数量之和
+     */
+    public long size() {
+        long size = 0;
+        for (FilterTable table : window().tables) {
+            size += table.size();
+        }
+        return size;
+    }
+
+    /**
+     * 当前代的序号，即当前时间除以generationMillis
+     */
+    public long getCurrentEpoch() {
+        return window().epoch;
+    }
+
+    private long currentEpoch() {
+        return clock.getAsLong() / generationMillis;
+    }
+
+    private Window window() {
+        Window current = window;
+        long epoch = currentEpoch();
+        // 时钟回拨时继续使用已有的代
+        if (epoch <= current.epoch) {
+            return current;
+        }
+        return rotateTo(epoch);
+    }
+
+    private synchronized Window rotateTo(long epoch) {
+        Window current = window;
+        if (epoch <= current.epoch) {
+            return current;
+        }
+        Window next = rotate(epoch);
+        // 超出窗口的代直接删除，没有经过的代由过期时间删除
+        for (int i = 0; i < generations; i++) {
+            if (current.epoch - i <= epoch - generations) {
+                current.tables[i].unlink();
+                log.info("布谷鸟过滤器{}删除第{}代", redisBitKey, current.epoch - i);
+            }
+        }
+        window = next;
+        return next;
+    }
+
+    /**
+     * 以epoch为当前代的窗口，已打开的代直接复用
+     */
+    private Window rotate(long epoch) {
+        Window current = window;
+        FilterTable[] tables = new FilterTable[generations];
+        for (int i = 0; i < generations; i++) {
+            long index = current == null ? -1 : current.epoch - (epoch - i);
+            tables[i] = index >= 0 && index < generations ? current.tables[(int) index] : openGeneration(epoch - i);
+        }
+        return new Window(epoch, tables);
+    }
+
+    /**
+     * 每代按各自元数据中保存的结构打开，不同客户端或不同部署的期望元素个数不一致时也不会按错误的桶个数读取；
+     * 元数据不存在时保存proposed，并设置过期时间为该代离开窗口的时间
+     */
+    private FilterTable openGeneration(long epoch) {
+        String key = generationKey(epoch);
+        TableGeometry geometry = FilterTable.loadGeometry(redisUtils, key, proposed);
+        FilterTable table = new FilterTable(geometry, false, redisUtils, key, publishChanges);
+        table.expireAt((epoch + generations) * generationMillis);
+        return table;
+    }
+
+    private String generationKey(long epoch) {
+        return redisBitKey + ":e" + epoch;
+    }
+
+    /**
+     * 某一时刻的所有代，tables[i]为第epoch - i代
+     */
+    private static final class Window {
+        private final long epoch;
+        private final FilterTable[] tables;
+
+        private Window(long epoch, FilterTable[] tables) {
+            this.epoch = epoch;
+            this.tables = tables;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.asdust.cuckoofilter.core;
+
+import com.google.common.math.DoubleMath;
+
+import java.math.RoundingMode;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/8/21 11:10
+ * @desc: 各存储实现共用的桶数量计算和下标、指纹计算，保证同样的元素在不同实现中落在同样的桶
+ */
+public abstract class AbstractFilterTable implements CuckooTable {
+    /**
+     * 默认每个桶的大小为4，即可以存放4个key
+     */
+    public static final int BUCKET_SIZE = 4;
+    /**
+     * 桶大小为4时的负载因子，ScalableCuckooFilter中每一代超过后以2倍容量新增一代
+     */
+    protected static final double LOAD_FACTOR = 0.955;
+    /**
+     * 写入时两个候选桶都已满，最多剔除的次数
+     */
+    protected static final int MAX_TRY_CUCKOO_COUNT = 100;
+    /**
+     * 广度优先查找剔除路径时最多访问的桶个数，桶大小为4时路径最长约4层
+     */
+    protected static final int MAX_BFS_NODES = 512;
+    /**
+     * 进程内实现中剔除路径被并发的写入或删除破坏时重新查找的次数，用尽后改为随机剔除
+     */
+    protected static final int MAX_BFS_RETRIES = 4;
+    /**
+     * 进程内实现的putIfAbsent按元素分段加锁的段数
+     */
+    protected static final int ABSENT_LOCK_STRIPES = 256;
+    /**
+     * 默认指纹位数,最后通过计算公式得出最佳数量，即每个桶的大小，位数越高，精确度越高
+     */
+    public static final int BITS_PER_TAG = 16;
+    /**
+     * 每个16位槽的最低位为1
+     */
+    private static final long LANES_LOW = 0x0001000100010001L;
+    /**
+     * 每个16位槽的最高位为1
+     */
+    private static final long LANES_HIGH = 0x8000800080008000L;
+    /**
+     * 最大容量
+     */
+    protected final long numBuckets;
+    /**
+     * 指纹位数
+     */
+    protected final int bitsPerTag;
+    /**
+     * 桶大小
+     */
+    protected final int bucketSize;
+    /**
+     * 桶的编码方式
+     */
+    protected final BucketEncoding encoding;
+    /**
+     * 桶个数是否为2的整数次幂，是时用与运算计算下标，否则用乘法和移位把hash映射到[0, numBuckets)
+     */
+    protected final boolean powerOfTwo;
+    /**
+     * 两个候选桶都满时腾出空槽的方式
+     */
+    protected volatile InsertStrategy insertStrategy = InsertStrategy.RANDOM_WALK;
+
+    protected AbstractFilterTable(long estimatedMaxNumKeys) {
+        this(estimatedMaxNumKeys, BITS_PER_TAG);
+    }
+
+    protected AbstractFilterTable(long estimatedMaxNumKeys, int bitsPerTag) {
+        // 计算出实际的桶的个数
+        this(TableGeometry.forKeys(estimatedMaxNumKeys, bitsPerTag, BUCKET_SIZE));
+    }
+
+    protected AbstractFilterTable(TableGeometry geometry) {
+        this.numBuckets = geometry.getNumBuckets();
+        this.bitsPerTag = geometry.getBitsPerTag();
+        this.bucketSize = geometry.getBucketSize();
+        this.encoding = geometry.getEncoding();
+        this.powerOfTwo = Long.bitCount(numBuckets) == 1;
+    }
+
+    /**
+     * Calculates how many buckets are needed to hold the chosen number of keys,
+     * taking the standard load factor into account.
+     *
+     * @param maxKeys the number of keys the filter is expected to hold before
+     *                insertion failure.
+     * @return The number of buckets needed
+     */
+    public static long getBucketsNeeded(long maxKeys, double loadFactor, int bucketSize) {
+        return getBucketsNeeded(maxKeys, loadFactor, bucketSize, false);
+    }
+
+    /**
+     * @param exact 为true时不向上取整到2的整数次幂，按需要的桶个数分配，最多节省一半内存
+     */
+    public static long getBucketsNeeded(long maxKeys, double loadFactor, int bucketSize, boolean exact) {
+        /*
+         * force a power-of-two bucket count so hash functions for bucket index
+         * can hashBits%numBuckets and get randomly distributed index. See wiki
+         * "Modulo Bias". Only time we can get perfectly distributed index is
+         * when numBuckets is a power of 2.
+         * 若要存放100个key,则需要25=100/4个桶。
+         * 精确的桶个数用乘法和移位代替取模计算下标，同样没有取模偏差，见hashIndex
+         */
+        long bucketsNeeded = DoubleMath.roundToLong((1.0 / loadFactor) * maxKeys / bucketSize, RoundingMode.UP);
+        if (exact) {
+            return bucketsNeeded;
+        }
+        // get next biggest power of 2 ,highestOneBit获取最高位，如输入101101，输出100000,以下设置为2的整数次幂，用于后续与运算获取元素下标
+        long bitPos = Long.highestOneBit(bucketsNeeded);
+        if (bucketsNeeded > bitPos) {
+            bitPos = bitPos << 1;
+        }
+        return bitPos;
+    }
+
+    /**
+     * 创建putIfAbsent使用的分段锁
+     */
+    protected static Object[] newAbsentLocks() {
+        Object[] locks = new Object[ABSENT_LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+
+    /**
+     * 同一元素的两个候选桶总是相同，按其中较小的下标选择分段，同一元素的putIfAbsent在同一个锁中串行执行
+     */
+    protected static Object absentLockOf(Object[] locks, long curIndex, long altIndex) {
+        return locks[(int) (Math.min(curIndex, altIndex) & (locks.length - 1))];
+    }
+
+    public long getNumBuckets() {
+        return numBuckets;
+    }
+
+    public int getBitsPerTag() {
+        return bitsPerTag;
+    }
+
+    public int getBucketSize() {
+        return bucketSize;
+    }
+
+    public BucketEncoding getEncoding() {
+        return encoding;
+    }
+
+    public InsertStrategy getInsertStrategy() {
+        return insertStrategy;
+    }
+
+    @Override
+    public void setInsertStrategy(InsertStrategy insertStrategy) {
+        this.insertStrategy = insertStrategy;
+    }
+
+    @Override
+    public TableGeometry getGeometry() {
+        return new TableGeometry(bucketSize, bitsPerTag, numBuckets, encoding);
+    }
+
+    /**
+     * 不超过负载因子时最多存放的元素个数
+     */
+    public long getMaxItems() {
+        return getGeometry().getMaxItems();
+    }
+
+    /**
+     * 一个long中的4个16位指纹是否有等于tag的，不逐个比较：与tag的4份拷贝异或后相等的槽变为0，
+     * 再用SWAR判断是否有16位为0，只有某个槽为0时结果才不为0
+     */
+    protected static boolean containsTag16(long word, long tag) {
+        long x = word ^ (tag * LANES_LOW);
+        return ((x - LANES_LOW) & ~x & LANES_HIGH) != 0;
+    }
+
+    @Override
+    public long hashIndex(long hash) {
+        if (!powerOfTwo) {
+            // 高32位乘以桶个数后取高32位(Lemire的fastrange)，结果均匀分布在[0, numBuckets)，不需要除法；
+            // 指纹最多32位，取自hash的低位，两者互不相关
+            return ((hash >>> 32) * numBuckets) >>> 32;
+        }
+        // 左移tag位，只用移动后的数来获取槽索引，可以使相近的hash值key在table中更加分散
+        long hashValue = hash >>> bitsPerTag;
+        // hash值与桶的个数减1逻辑与运算，计算出元素的索引：该计算与hashMap一样需要满足桶的个数需要为2的整数次幂方
+        return hashValue & (numBuckets - 1);
+    }
+
+    @Override
+    public long altHashIndex(long curIndex, long tag) {
+        /*
+         * 0x5bd1e995 hash mixing constant from MurmurHash2, same as reference
+         * implementation https://github.com/efficient/cuckoofilter/
+         * 可以用到异或的自反性： A ⊕ B ⊕ B = A，对另一个桶再计算一次就回到当前桶，
+         * 被剔除的指纹才能在另一个桶中被找到。指纹的hash只取低32位，redis的lua脚本中可以用同样的方式计算
+         */
+        long tagHash = (tag * 0x5bd1e995L) & 0xFFFFFFFFL;
+        if (!powerOfTwo) {
+            // 桶个数不是2的整数次幂时异或的结果可能越界，改用 (h - curIndex) mod numBuckets，
+            // h为指纹的hash映射到[0, numBuckets)的值，对结果再计算一次同样回到curIndex
+            long altIndex = ((tagHash * numBuckets) >>> 32) - curIndex;
+            return altIndex < 0 ? altIndex + numBuckets : altIndex;
+        }
+        return (curIndex ^ tagHash) & (numBuckets - 1);
+    }
+
+    @Override
+    public long getFingerprint(long hashVal) {
+        long unusedBits = Long.SIZE - bitsPerTag;
+        long tag = (hashVal << unusedBits) >>> unusedBits;
+        // 0表示空槽，指纹不能为0
+        return tag == 0 ? 1 : tag;
+    }
+}
@@ -0,0 +1,36 @@
+package com.asdust.cuckoofilter.core;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/10/8 14:05
+ * @desc: 桶的编码方式
+ */
+public enum BucketEncoding {
+    /**
+     * 每个槽直接存放指纹，桶占用 桶大小 * 指纹位数 位
+     */
+    PLAIN(0),
+    /**
+     * 半排序编码，只支持桶大小为4，桶占用 4 * 指纹位数 - 4 位，见SemiSortedCodec
+     */
+    SEMI_SORTED(1);
+
+    private final int id;
+
+    BucketEncoding(int id) {
+        this.id = id;
+    }
+
+    public int getValue() {
+        return id;
+    }
+
+    public static BucketEncoding of(int id) {
+        for (BucketEncoding encoding : values()) {
+            if (encoding.id == id) {
+                return encoding;
+            }
+        }
+        throw new IllegalArgumentException("未知的桶编码：" + id);
+    }
+}
@@ -0,0 +1,464 @@
+package com.asdust.cuckoofilter.core;
+
+import org.redisson.api.RFuture;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/10/18 10:20
+ * @desc: 批量构建过滤器时使用的进程内桶数组，构建完成后整体上传到redis或转换为LocalFilterTable，
+ * 不需要每个元素访问一次redis。
+ * <p>
+ * 桶按下标分为若干个连续的分区，addAll分三个阶段写入，前两个阶段在ForkJoin公共池中并行执行，每个分区只由一个任务修改：
+ * <ol>
+ * <li>并行计算所有元素的桶下标和指纹，按桶下标所在的分区分组，之后依次放入各自的桶，桶已满的元素按另一个桶所在的分区分组</li>
+ * <li>各分区将分到的元素放入另一个桶</li>
+ * <li>两个桶都已满的少量元素在调用线程中逐个剔除写入，剔除过程可以跨分区</li>
+ * </ol>
+ * 每个槽用一个int存放，分组时每个元素占用一个long，构建期间的内存约为最终bitmap的2到3倍。
+ * put、delete、contain为单线程实现，不能与addAll同时调用
+ */
+public class BulkFilterTable extends AbstractFilterTable {
+    /**
+     * 每页的槽个数为2^PAGE_SHIFT
+     */
+    private static final int PAGE_SHIFT = 20;
+
+    private static final long PAGE_MASK = (1L << PAGE_SHIFT) - 1;
+    /**
+     * 上传时每次SETRANGE的字节数上限
+     */
+    private static final int CHUNK_BYTES = 4 * 1024 * 1024;
+    /**
+     * 上传时同时进行的SETRANGE个数
+     */
+    private static final int IN_FLIGHT = 4;
+
+    private final int[][] pages;
+
+    private final long tagMask;
+
+    private final int partitions;
+
+    private final int partitionShift;
+
+    private long numItems;
+
+    private long victimIndex;
+    /**
+     * victim的指纹，0表示没有victim
+     */
+    private long victimTag;
+    /**
+     * 广度优先查找剔除路径，第一次使用时创建
+     */
+    private CuckooPathSearch pathSearch;
+
+    public BulkFilterTable(TableGeometry geometry) {
+        super(geometry);
+        // 表示最大桶下标需要的位数，桶个数不是2的整数次幂时末尾的分区较小
+        int indexBits = Long.SIZE - Long.numberOfLeadingZeros(numBuckets - 1);
+        if (indexBits + bitsPerTag > Long.SIZE - 1) {
+            throw new IllegalArgumentException("桶下标和指纹的位数之和超过63：" + geometry);
+        }
+        this.tagMask = (1L << bitsPerTag) - 1;
+        long slots = numBuckets * bucketSize;
+        this.pages = new int[(int) ((slots + PAGE_MASK) >>> PAGE_SHIFT)][];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = new int[(int) Math.min(1L << PAGE_SHIFT, slots - ((long) i << PAGE_SHIFT))];
+        }
+        // 分区个数为并行度的16倍左右，使各任务的负载较为均衡
+        int parallelism = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+        this.partitions = (int) Math.min(Integer.highestOneBit(parallelism * 16), Long.highestOneBit(numBuckets));
+        this.partitionShift = indexBits - Integer.numberOfTrailingZeros(partitions);
+    }
+
+    @Override
+    public long size() {
+        return numItems;
+    }
+
+    private long slot(long index, int pos) {
+        long slot = index * bucketSize + pos;
+        return pages[(int) (slot >>> PAGE_SHIFT)][(int) (slot & PAGE_MASK)] & 0xFFFFFFFFL;
+    }
+
+    private void setSlot(long index, int pos, long tag) {
+        long slot = index * bucketSize + pos;
+        pages[(int) (slot >>> PAGE_SHIFT)][(int) (slot & PAGE_MASK)] = (int) tag;
+    }
+
+    private boolean insert(long index, long tag) {
+        return replace(index, 0, tag);
+    }
+
+    /**
+     * 将桶中第一个值为expected的槽改为tag
+     */
+    private boolean replace(long index, long expected, long tag) {
+        for (int pos = 0; pos < bucketSize; pos++) {
+            if (slot(index, pos) == expected) {
+                setSlot(index, pos, tag);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int partitionOf(long index) {
+        return (int) (index >>> partitionShift);
+    }
+
+    /**
+     * 并行写入所有元素
+     *
+     * @param hasher 计算元素的64位hash，与CuckooFilter使用的hash一致
+     * @return 写入后表中的元素个数
+     * @throws IllegalStateException 过滤器容量不足，部分元素无法写入
+     */
+    public <E> long addAll(Spliterator<E> items, ToLongFunction<? super E> hasher) {
+        Entries[] byPartition = StreamSupport.stream(items, true).collect(() -> new Entries[partitions],
+                (entries, item) -> {
+                    long hash = hasher.applyAsLong(item);
+                    long curIndex = hashIndex(hash);
+                    add(entries, partitionOf(curIndex), curIndex << bitsPerTag | getFingerprint(hash));
+                }, BulkFilterTable::merge);
+
+        // 放入第一个桶，桶已满的元素按另一个桶所在的分区分组
+        Entries[][] overflow = new Entries[partitions][];
+        long[] placed = new long[partitions];
+        IntStream.range(0, partitions).parallel().forEach(p -> {
+            Entries[] altEntries = new Entries[partitions];
+            if (byPartition[p] != null) {
+                byPartition[p].forEach(entry -> {
+                    long curIndex = entry >>> bitsPerTag;
+                    long tag = entry & tagMask;
+                    if (insert(curIndex, tag)) {
+                        placed[p]++;
+                    } else {
+                        long altIndex = altHashIndex(curIndex, tag);
+                        add(altEntries, partitionOf(altIndex), altIndex << bitsPerTag | tag);
+                    }
+                });
+                byPartition[p] = null;
+            }
+            overflow[p] = altEntries;
+        });
+
+        // 放入另一个桶
+        Entries[] leftover = new Entries[partitions];
+        IntStream.range(0, partitions).parallel().forEach(p -> {
+            Entries[] left = new Entries[1];
+            for (int source = 0; source < partitions; source++) {
+                Entries entries = overflow[source][p];
+                if (entries == null) {
+                    continue;
+                }
+                entries.forEach(entry -> {
+                    if (insert(entry >>> bitsPerTag, entry & tagMask)) {
+                        placed[p]++;
+                    } else {
+                        add(left, 0, entry);
+                    }
+                });
+                overflow[source][p] = null;
+            }
+            leftover[p] = left[0];
+        });
+        for (long count : placed) {
+            numItems += count;
+        }
+
+        // 两个桶都已满，逐个剔除写入
+        long[] failed = new long[1];
+        for (Entries entries : leftover) {
+            if (entries == null) {
+                continue;
+            }
+            entries.forEach(entry -> {
+                long index = entry >>> bitsPerTag;
+                long tag = entry & tagMask;
+                if (put(index, altHashIndex(index, tag), tag) == PUT_FAILED) {
+                    failed[0]++;
+                }
+            });
+        }
+        if (failed[0] > 0) {
+            throw new IllegalStateException("过滤器容量不足，" + failed[0] + "个元素无法写入");
+        }
+        return numItems;
+    }
+
+    private static void add(Entries[] entries, int i, long entry) {
+        if (entries[i] == null) {
+            entries[i] = new Entries();
+        }
+        entries[i].add(entry);
+    }
+
+    private static void merge(Entries[] target, Entries[] source) {
+        for (int i = 0; i < target.length; i++) {
+            if (source[i] == null) {
+                continue;
+            }
+            if (target[i] == null) {
+                target[i] = source[i];
+            } else {
+                target[i].addAll(source[i]);
+            }
+        }
+    }
+
+    @Override
+    public int put(long curIndex, long altIndex, long tag) {
+        if (insert(curIndex, tag) || insert(altIndex, tag)) {
+            numItems++;
+            return 0;
+        }
+        if (victimTag != 0) {
+            return PUT_FAILED;
+        }
+        if (insertStrategy == InsertStrategy.BFS) {
+            return bfsPut(curIndex, altIndex, tag);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long index = random.nextBoolean() ? curIndex : altIndex;
+        for (int kick = 1; kick <= MAX_TRY_CUCKOO_COUNT; kick++) {
+            int pos = random.nextInt(bucketSize);
+            long old = slot(index, pos);
+            setSlot(index, pos, tag);
+            tag = old;
+            index = altHashIndex(index, tag);
+            if (insert(index, tag)) {
+                numItems++;
+                return kick;
+            }
+        }
+        victimIndex = index;
+        victimTag = tag;
+        numItems++;
+        return MAX_TRY_CUCKOO_COUNT;
+    }
+
+    /**
+     * 没有找到剔除路径时新指纹放入victim
+     */
+    private int bfsPut(long curIndex, long altIndex, long tag) {
+        if (pathSearch == null) {
+            pathSearch = new CuckooPathSearch(this, new CuckooPathSearch.Buckets() {
+                @Override
+                public void read(long index, long[] tags) {
+                    for (int pos = 0; pos < bucketSize; pos++) {
+                        tags[pos] = slot(index, pos);
+                    }
+                }
+
+                @Override
+                public boolean replace(long index, long expected, long tag) {
+                    return BulkFilterTable.this.replace(index, expected, tag);
+                }
+            }, MAX_BFS_NODES);
+        }
+        numItems++;
+        int kicks = pathSearch.put(curIndex, altIndex, tag);
+        if (kicks >= 0) {
+            return kicks;
+        }
+        victimIndex = curIndex;
+        victimTag = tag;
+        return MAX_TRY_CUCKOO_COUNT;
+    }
+
+    @Override
+    public boolean delete(long curIndex, long altIndex, long tag) {
+        for (long index : new long[]{curIndex, altIndex}) {
+            for (int pos = 0; pos < bucketSize; pos++) {
+                if (slot(index, pos) == tag) {
+                    setSlot(index, pos, 0);
+                    numItems--;
+                    return true;
+                }
+            }
+        }
+        if (victimTag == tag && (victimIndex == curIndex || victimIndex == altIndex)) {
+            victimTag = 0;
+            numItems--;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean contain(long curIndex, long altIndex, long tag) {
+        for (int pos = 0; pos < bucketSize; pos++) {
+            if (slot(curIndex, pos) == tag || slot(altIndex, pos) == tag) {
+                return true;
+            }
+        }
+        return victimTag == tag && (victimIndex == curIndex || victimIndex == altIndex);
+    }
+
+    @Override
+    public boolean hasVictim() {
+        return victimTag != 0;
+    }
+
+    /**
+     * 以redis bitmap的格式整体写入table，覆盖table中已有的数据。按块SETRANGE，最多IN_FLIGHT个请求同时进行，全为空槽的块跳过
+     */
+    public void uploadTo(FilterTable table) {
+        if (!getGeometry().equals(table.getGeometry())) {
+            throw new IllegalArgumentException("结构不一致：" + getGeometry() + "，" + table.getGeometry());
+        }
+        long bucketBits = getGeometry().getBucketBits();
+        // 每块的桶个数为8的整数倍，保证每块从整字节开始
+        long bucketsPerChunk = Math.max(Byte.SIZE, (CHUNK_BYTES * (long) Byte.SIZE / bucketBits) & ~(Byte.SIZE - 1L));
+        table.clearBitmap();
+        Deque<RFuture<Long>> pending = new ArrayDeque<>();
+        for (long start = 0; start < numBuckets; start += bucketsPerChunk) {
+            byte[] chunk = encode(start, Math.min(numBuckets, start + bucketsPerChunk), bucketBits);
+            if (chunk == null) {
+                continue;
+            }
+            if (pending.size() >= IN_FLIGHT) {
+                FilterTable.join(pending.poll());
+            }
+            pending.add(table.writeRangeAsync(start * bucketBits / Byte.SIZE, chunk));
+        }
+        for (RFuture<Long> future : pending) {
+            FilterTable.join(future);
+        }
+        table.restoreMeta(numItems, victimTag == 0 ? null : new long[]{victimIndex, victimTag});
+    }
+
+    /**
+     * 将[start, end)范围的桶按redis BITFIELD的位序(高位在前)编码，全为空槽时返回null
+     */
+    private byte[] encode(long start, long end, long bucketBits) {
+        byte[] bytes = new byte[(int) (((end - start) * bucketBits + Byte.SIZE - 1) / Byte.SIZE)];
+        BitWriter writer = new BitWriter(bytes);
+        boolean empty = true;
+        long[] tags = new long[bucketSize];
+        for (long index = start; index < end; index++) {
+            for (int pos = 0; pos < bucketSize; pos++) {
+                tags[pos] = slot(index, pos);
+                empty &= tags[pos] == 0;
+            }
+            if (encoding == BucketEncoding.SEMI_SORTED) {
+                Arrays.sort(tags);
+                int lowBits = bitsPerTag - 4;
+                writer.write(SemiSortedCodec.index(tags[0], tags[1], tags[2], tags[3], bitsPerTag), SemiSortedCodec.INDEX_BITS);
+                for (long tag : tags) {
+                    writer.write(tag & ((1L << lowBits) - 1), lowBits);
+                }
+            } else {
+                for (long tag : tags) {
+                    writer.write(tag, bitsPerTag);
+                }
+            }
+        }
+        writer.flush();
+        return empty ? null : bytes;
+    }
+
+    /**
+     * 转换为进程内的LocalFilterTable，结构必须与LocalFilterTable.geometryFor一致
+     */
+    public LocalFilterTable toLocal() {
+        LocalFilterTable local = new LocalFilterTable(getGeometry());
+        for (long index = 0; index < numBuckets; index++) {
+            long word;
+            if (encoding == BucketEncoding.SEMI_SORTED) {
+                word = SemiSortedCodec.encode(slot(index, 0), slot(index, 1), slot(index, 2), slot(index, 3), bitsPerTag);
+            } else {
+                word = 0;
+                for (int pos = 0; pos < bucketSize; pos++) {
+                    word = LocalFilterTable.withTag(word, pos, slot(index, pos));
+                }
+            }
+            local.setBucket(index, word);
+        }
+        local.setVictim(victimIndex, victimTag);
+        return local;
+    }
+
+    /**
+     * 按高位在前的顺序依次写入若干位
+     */
+    private static final class BitWriter {
+        private final byte[] bytes;
+        private int position;
+        private long buffer;
+        private int bufferBits;
+
+        private BitWriter(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private void write(long value, int bits) {
+            buffer = (buffer << bits) | (value & ((1L << bits) - 1));
+            bufferBits += bits;
+            while (bufferBits >= Byte.SIZE) {
+                bufferBits -= Byte.SIZE;
+                bytes[position++] = (byte) (buffer >>> bufferBits);
+            }
+        }
+
+        private void flush() {
+            if (bufferBits > 0) {
+                bytes[position++] = (byte) (buffer << (Byte.SIZE - bufferBits));
+                bufferBits = 0;
+            }
+        }
+    }
+
+    /**
+     * 分组后的元素，每个元素为 桶下标 << 指纹位数 | 指纹，按块存放，合并时不复制已满的块
+     */
+    private static final class Entries {
+        private static final int BLOCK_SIZE = 4096;
+
+        private final List<long[]> full = new ArrayList<>();
+        private long[] current = new long[BLOCK_SIZE];
+        private int size;
+
+        private void add(long entry) {
+            if (size == BLOCK_SIZE) {
+                full.add(current);
+                current = new long[BLOCK_SIZE];
+                size = 0;
+            }
+            current[size++] = entry;
+        }
+
+        private void addAll(Entries other) {
+            full.addAll(other.full);
+            for (int i = 0; i < other.size; i++) {
+                add(other.current[i]);
+            }
+        }
+
+        private void forEach(LongConsumer action) {
+            for (long[] block : full) {
+                for (long entry : block) {
+                    action.accept(entry);
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                action.accept(current[i]);
+            }
+        }
+    }
+}
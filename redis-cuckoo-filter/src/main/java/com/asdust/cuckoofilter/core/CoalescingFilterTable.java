@@ -0,0 +1,336 @@
+package com.asdust.cuckoofilter.core;
+
+import com.asdust.cuckoofilter.metrics.FilterMetrics;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/10/21 10:40
+ * @desc: 合并并发单元素操作的桶存储。多个线程同时调用的put、delete、contain按操作类型收集起来，
+ * 第一个元素到达后最多等待maxDelay，或收集到maxBatchSize个元素时，整批交给delegate的批量异步接口，
+ * 对redis的FilterTable即为一个pipeline，每个调用方的future由结果中对应的位置完成。
+ * <p>
+ * 适合大量线程同时调用单元素接口的场景，网络往返和redis执行的脚本数大幅减少，代价是每次调用最多增加maxDelay的延迟；
+ * 并发很低时每批只有一个元素，不如直接使用delegate。合并后的写入只返回是否成功，不记录剔除次数。
+ * 批量接口直接转发给delegate，不参与合并。close后不再接受新的调用，已收集的元素立即发出
+ */
+public class CoalescingFilterTable extends AbstractFilterTable implements Closeable {
+
+    /**
+     * 每批数组的初始长度，元素增多时加倍，直到maxBatchSize
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final CuckooTable delegate;
+
+    private final long maxDelayNanos;
+
+    private final int maxBatchSize;
+
+    /**
+     * 到达等待时间后发出批次，只有一个线程，发出是异步的，不会阻塞
+     */
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private final Coalescer puts = new Coalescer(BatchOp.PUT);
+
+    private final Coalescer deletes = new Coalescer(BatchOp.DELETE);
+
+    private final Coalescer contains = new Coalescer(BatchOp.CONTAIN);
+
+    /**
+     * @param maxDelay     第一个元素到达后最多等待的时间
+     * @param maxBatchSize 每批最多的元素个数，达到后立即发出
+     */
+    public CoalescingFilterTable(CuckooTable delegate, long maxDelay, TimeUnit unit, int maxBatchSize) {
+        super(delegate.getGeometry());
+        if (maxDelay <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("等待时间和每批元素个数必须大于0：" + maxDelay + "，" + maxBatchSize);
+        }
+        this.delegate = delegate;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "cuckoo-filter-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 达到元素个数提前发出的批次会取消定时任务，取消后立即从队列中移除
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    public CuckooTable getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public long size() {
+        return delegate.size();
+    }
+
+    @Override
+    public long hashIndex(long hash) {
+        return delegate.hashIndex(hash);
+    }
+
+    @Override
+    public long altHashIndex(long curIndex, long tag) {
+        return delegate.altHashIndex(curIndex, tag);
+    }
+
+    @Override
+    public long getFingerprint(long hashVal) {
+        return delegate.getFingerprint(hashVal);
+    }
+
+    @Override
+    public void setMetrics(FilterMetrics metrics) {
+        delegate.setMetrics(metrics);
+    }
+
+    @Override
+    public void setInsertStrategy(InsertStrategy insertStrategy) {
+        super.setInsertStrategy(insertStrategy);
+        delegate.setInsertStrategy(insertStrategy);
+    }
+
+    @Override
+    public int put(long curIndex, long altIndex, long tag) {
+        return FilterTable.join(putAsync(curIndex, altIndex, tag));
+    }
+
+    /**
+     * 需要返回是否已存在，不参与合并，直接转发给delegate
+     */
+    @Override
+    public int putIfAbsent(long curIndex, long altIndex, long tag) {
+        return delegate.putIfAbsent(curIndex, altIndex, tag);
+    }
+
+    @Override
+    public boolean delete(long curIndex, long altIndex, long tag) {
+        return FilterTable.join(deleteAsync(curIndex, altIndex, tag));
+    }
+
+    @Override
+    public boolean contain(long curIndex, long altIndex, long tag) {
+        return FilterTable.join(containAsync(curIndex, altIndex, tag));
+    }
+
+    @Override
+    public CompletionStage<Integer> putAsync(long curIndex, long altIndex, long tag) {
+        return puts.submit(curIndex, altIndex, tag).thenApply(success -> success ? 0 : PUT_FAILED);
+    }
+
+    @Override
+    public CompletionStage<Integer> putIfAbsentAsync(long curIndex, long altIndex, long tag) {
+        return delegate.putIfAbsentAsync(curIndex, altIndex, tag);
+    }
+
+    @Override
+    public CompletionStage<Boolean> deleteAsync(long curIndex, long altIndex, long tag) {
+        return deletes.submit(curIndex, altIndex, tag);
+    }
+
+    @Override
+    public CompletionStage<Boolean> containAsync(long curIndex, long altIndex, long tag) {
+        return contains.submit(curIndex, altIndex, tag);
+    }
+
+    @Override
+    public boolean hasVictim() {
+        return delegate.hasVictim();
+    }
+
+    @Override
+    public boolean[] putAll(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return delegate.putAll(curIndexes, altIndexes, tags);
+    }
+
+    @Override
+    public boolean[] deleteAll(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return delegate.deleteAll(curIndexes, altIndexes, tags);
+    }
+
+    @Override
+    public boolean[] containAll(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return delegate.containAll(curIndexes, altIndexes, tags);
+    }
+
+    @Override
+    public CompletionStage<boolean[]> putAllAsync(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return delegate.putAllAsync(curIndexes, altIndexes, tags);
+    }
+
+    @Override
+    public CompletionStage<boolean[]> deleteAllAsync(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return delegate.deleteAllAsync(curIndexes, altIndexes, tags);
+    }
+
+    @Override
+    public CompletionStage<boolean[]> containAllAsync(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return delegate.containAllAsync(curIndexes, altIndexes, tags);
+    }
+
+    /**
+     * 发出所有已收集的元素并停止定时线程，之后的单元素调用抛出IllegalStateException
+     */
+    @Override
+    public void close() {
+        puts.close();
+        deletes.close();
+        contains.close();
+        scheduler.shutdown();
+    }
+
+    private enum BatchOp {
+        PUT, DELETE, CONTAIN
+    }
+
+    /**
+     * 一种操作的收集器，正在收集的批次在锁中修改，发出在锁外进行
+     */
+    private final class Coalescer {
+        private final BatchOp op;
+
+        private Batch pending;
+
+        private boolean closed;
+
+        private Coalescer(BatchOp op) {
+            this.op = op;
+        }
+
+        private CompletableFuture<Boolean> submit(long curIndex, long altIndex, long tag) {
+            Batch full = null;
+            CompletableFuture<Boolean> future;
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("CoalescingFilterTable已关闭");
+                }
+                if (pending == null) {
+                    Batch batch = new Batch(Math.min(maxBatchSize, INITIAL_CAPACITY));
+                    batch.timer = scheduler.schedule(() -> flush(batch), maxDelayNanos, TimeUnit.NANOSECONDS);
+                    pending = batch;
+                }
+                future = pending.add(curIndex, altIndex, tag);
+                if (pending.size == maxBatchSize) {
+                    full = pending;
+                    pending = null;
+                }
+            }
+            if (full != null) {
+                full.timer.cancel(false);
+                send(full);
+            }
+            return future;
+        }
+
+        /**
+         * 等待时间到达，批次还未因元素个数发出时发出
+         */
+        private void flush(Batch batch) {
+            synchronized (this) {
+                if (pending != batch) {
+                    return;
+                }
+                pending = null;
+            }
+            send(batch);
+        }
+
+        private void close() {
+            Batch batch;
+            synchronized (this) {
+                closed = true;
+                batch = pending;
+                pending = null;
+            }
+            if (batch != null) {
+                batch.timer.cancel(false);
+                send(batch);
+            }
+        }
+
+        private void send(Batch batch) {
+            long[] curIndexes = batch.trim(batch.curIndexes);
+            long[] altIndexes = batch.trim(batch.altIndexes);
+            long[] tags = batch.trim(batch.tags);
+            CompletionStage<boolean[]> results;
+            try {
+                if (op == BatchOp.PUT) {
+                    results = delegate.putAllAsync(curIndexes, altIndexes, tags);
+                } else if (op == BatchOp.DELETE) {
+                    results = delegate.deleteAllAsync(curIndexes, altIndexes, tags);
+                } else {
+                    results = delegate.containAllAsync(curIndexes, altIndexes, tags);
+                }
+            } catch (RuntimeException e) {
+                batch.fail(e);
+                return;
+            }
+            results.whenComplete((values, error) -> {
+                if (error != null) {
+                    batch.fail(error);
+                    return;
+                }
+                for (int i = 0; i < batch.size; i++) {
+                    batch.futures[i].complete(values[i]);
+                }
+            });
+        }
+    }
+
+    /**
+     * 一批元素的桶下标、指纹和调用方的future
+     */
+    private static final class Batch {
+        private long[] curIndexes;
+        private long[] altIndexes;
+        private long[] tags;
+        private CompletableFuture<Boolean>[] futures;
+        private int size;
+        private ScheduledFuture<?> timer;
+
+        @SuppressWarnings("unchecked")
+        private Batch(int capacity) {
+            curIndexes = new long[capacity];
+            altIndexes = new long[capacity];
+            tags = new long[capacity];
+            futures = new CompletableFuture[capacity];
+        }
+
+        private CompletableFuture<Boolean> add(long curIndex, long altIndex, long tag) {
+            if (size == tags.length) {
+                int capacity = size * 2;
+                curIndexes = Arrays.copyOf(curIndexes, capacity);
+                altIndexes = Arrays.copyOf(altIndexes, capacity);
+                tags = Arrays.copyOf(tags, capacity);
+                futures = Arrays.copyOf(futures, capacity);
+            }
+            curIndexes[size] = curIndex;
+            altIndexes[size] = altIndex;
+            tags[size] = tag;
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            futures[size++] = future;
+            return future;
+        }
+
+        private long[] trim(long[] values) {
+            return values.length == size ? values : Arrays.copyOf(values, size);
+        }
+
+        private void fail(Throwable error) {
+            for (int i = 0; i < size; i++) {
+                futures[i].completeExceptionally(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.asdust.cuckoofilter.core;
+
+import java.util.Arrays;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/10/19 10:30
+ * @desc: 广度优先查找剔除路径。从两个候选桶出发，桶中每个指纹都可以移到它的另一个候选桶，逐层展开直到找到有空槽的桶，
+ * 最多访问maxNodes个桶，每个桶只访问一次。
+ * <p>
+ * 找到后从路径末端开始移动：空槽写入上一个桶中要移走的指纹，再用更上一个桶的指纹覆盖该指纹，最后新指纹写入候选桶，
+ * 移动过程中每个指纹始终至少在一个桶中，并发查询不会漏掉。移动按指纹的值而不是槽的位置进行，半排序编码重新排序后同样适用。
+ * 不是线程安全的，由各存储在剔除的锁中使用
+ */
+final class CuckooPathSearch {
+    /**
+     * put的返回值：访问maxNodes个桶后仍没有找到空槽
+     */
+    static final int NO_PATH = -1;
+    /**
+     * put的返回值：移动时路径上的桶被并发修改，已经恢复，可以重新查找
+     */
+    static final int CONFLICT = -2;
+
+    /**
+     * 查找和移动时访问桶的方式
+     */
+    interface Buckets {
+        /**
+         * 将桶中各槽的指纹读入tags，空槽为0
+         */
+        void read(long index, long[] tags);
+
+        /**
+         * 将桶中一个值为expected的槽改为tag，没有该值时返回false
+         */
+        boolean replace(long index, long expected, long tag);
+    }
+
+    private final AbstractFilterTable table;
+
+    private final Buckets buckets;
+
+    private final int maxNodes;
+    /**
+     * 已访问的桶，nodes[i]为桶下标，parents[i]为上一层桶在nodes中的位置，根为-1，
+     * moved[i]为从上一层桶移到该桶的指纹
+     */
+    private final long[] nodes;
+
+    private final int[] parents;
+
+    private final long[] moved;
+    /**
+     * 开放寻址的已访问桶下标集合，保存下标加1，0表示空位
+     */
+    private final long[] visited;
+
+    private final long[] tags;
+
+    private int count;
+
+    CuckooPathSearch(AbstractFilterTable table, Buckets buckets, int maxNodes) {
+        this.table = table;
+        this.buckets = buckets;
+        this.maxNodes = maxNodes;
+        this.nodes = new long[maxNodes];
+        this.parents = new int[maxNodes];
+        this.moved = new long[maxNodes];
+        this.visited = new long[Integer.highestOneBit(maxNodes) << 2];
+        this.tags = new long[table.getBucketSize()];
+    }
+
+    /**
+     * 查找剔除路径并写入tag
+     *
+     * @return 移动的指纹个数，没有找到路径返回NO_PATH，移动时桶被并发修改返回CONFLICT，两种情况下所有桶都已恢复原样
+     */
+    int put(long curIndex, long altIndex, long tag) {
+        int found = search(curIndex, altIndex);
+        return found < 0 ? NO_PATH : apply(found, tag);
+    }
+
+    private int search(long curIndex, long altIndex) {
+        count = 0;
+        Arrays.fill(visited, 0);
+        visit(curIndex, -1, 0);
+        visit(altIndex, -1, 0);
+        for (int head = 0; head < count; head++) {
+            long index = nodes[head];
+            buckets.read(index, tags);
+            for (long slot : tags) {
+                if (slot == 0) {
+                    return head;
+                }
+            }
+            for (long slot : tags) {
+                if (count == maxNodes) {
+                    break;
+                }
+                visit(table.altHashIndex(index, slot), head, slot);
+            }
+        }
+        return -1;
+    }
+
+    private void visit(long index, int parent, long tag) {
+        int mask = visited.length - 1;
+        int i = (int) (index * 0x9E3779B97F4A7C15L >>> 40) & mask;
+        while (visited[i] != 0) {
+            if (visited[i] == index + 1) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        visited[i] = index + 1;
+        nodes[count] = index;
+        parents[count] = parent;
+        moved[count] = tag;
+        count++;
+    }
+
+    private int apply(int found, long tag) {
+        long expected = 0;
+        long copiedTo = -1;
+        int node = found;
+        int kicks = 0;
+        while (parents[node] >= 0) {
+            if (!buckets.replace(nodes[node], expected, moved[node])) {
+                return rollback(copiedTo, expected);
+            }
+            copiedTo = nodes[node];
+            expected = moved[node];
+            node = parents[node];
+            kicks++;
+        }
+        if (!buckets.replace(nodes[node], expected, tag)) {
+            return rollback(copiedTo, expected);
+        }
+        return kicks;
+    }
+
+    /**
+     * 要覆盖的指纹已被并发删除或空槽已被占用，删除上一步复制出的指纹，之前的移动都是完整的，不需要撤销
+     */
+    private int rollback(long copiedTo, long copied) {
+        if (copiedTo >= 0) {
+            buckets.replace(copiedTo, copied, 0);
+        }
+        return CONFLICT;
+    }
+}
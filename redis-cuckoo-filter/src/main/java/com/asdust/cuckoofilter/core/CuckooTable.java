@@ -0,0 +1,193 @@
+package com.asdust.cuckoofilter.core;
+
+import com.asdust.cuckoofilter.metrics.FilterMetrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/8/21 11:02
+ * @desc: 布谷鸟过滤器的桶存储接口，CuckooFilter只通过该接口访问桶，具体存放在redis还是本地内存由实现决定
+ */
+public interface CuckooTable {
+
+    /**
+     * put的返回值：两个候选桶都已满且victim已被占用，写入失败
+     */
+    int PUT_FAILED = -1;
+
+    /**
+     * putIfAbsent的返回值：两个候选桶或victim中已有相同的指纹，没有写入
+     */
+    int PRESENT = -2;
+
+    /**
+     * size的返回值：元素个数不由表维护，由调用方自行计数
+     */
+    long UNKNOWN_SIZE = -1;
+
+    /**
+     * 根据hash值计算元素所在的桶下标
+     */
+    long hashIndex(long hash);
+
+    /**
+     * 根据当前桶下标和指纹计算另一个候选桶下标，对结果再计算一次会得到当前桶下标
+     */
+    long altHashIndex(long curIndex, long tag);
+
+    /**
+     * 根据hash值计算指纹，指纹不为0
+     */
+    long getFingerprint(long hashVal);
+
+    /**
+     * 写入指纹，两个候选桶都已满时随机剔除已有指纹并将其移到它的另一个候选桶，如此循环直到找到空槽，
+     * 达到最大剔除次数后最后被剔除的指纹放入victim。victim已被占用时不再剔除，直接返回失败
+     *
+     * @return 剔除的次数，写入失败返回PUT_FAILED
+     */
+    int put(long curIndex, long altIndex, long tag);
+
+    /**
+     * 两个候选桶和victim中都没有该指纹时写入，查询和写入是一个原子操作，多个调用方同时写入同一元素时只有一个写入成功。
+     * 默认实现先查询再写入，只适用于单线程使用的实现，其他实现需要覆盖
+     *
+     * @return 剔除的次数，已存在返回PRESENT，写入失败返回PUT_FAILED
+     */
+    default int putIfAbsent(long curIndex, long altIndex, long tag) {
+        return contain(curIndex, altIndex, tag) ? PRESENT : put(curIndex, altIndex, tag);
+    }
+
+    /**
+     * 删除两个候选桶或victim中第一个与指纹相同的槽
+     *
+     * @return 存在并删除返回true，否则返回false
+     */
+    boolean delete(long curIndex, long altIndex, long tag);
+
+    /**
+     * 判断两个候选桶或victim中是否存在指纹
+     */
+    boolean contain(long curIndex, long altIndex, long tag);
+
+    /**
+     * 是否有指纹存放在victim中，即过滤器已接近满载
+     */
+    boolean hasVictim();
+
+    /**
+     * 表中存放的元素个数。存储端维护(所有客户端共享或随文件持久化)时返回该值，否则返回UNKNOWN_SIZE
+     */
+    default long size() {
+        return UNKNOWN_SIZE;
+    }
+
+    /**
+     * 桶大小、指纹位数和桶个数
+     */
+    TableGeometry getGeometry();
+
+    /**
+     * 设置记录网络往返次数等存储相关指标的FilterMetrics，默认不记录
+     */
+    default void setMetrics(FilterMetrics metrics) {
+    }
+
+    /**
+     * 设置两个候选桶都满时腾出空槽的方式，默认为随机剔除
+     */
+    default void setInsertStrategy(InsertStrategy insertStrategy) {
+    }
+
+    /**
+     * put的异步版本，默认实现直接在调用线程中完成，访问远程存储的实现应覆盖为非阻塞的实现
+     */
+    default CompletionStage<Integer> putAsync(long curIndex, long altIndex, long tag) {
+        return CompletableFuture.completedFuture(put(curIndex, altIndex, tag));
+    }
+
+    default CompletionStage<Integer> putIfAbsentAsync(long curIndex, long altIndex, long tag) {
+        return CompletableFuture.completedFuture(putIfAbsent(curIndex, altIndex, tag));
+    }
+
+    default CompletionStage<Boolean> deleteAsync(long curIndex, long altIndex, long tag) {
+        return CompletableFuture.completedFuture(delete(curIndex, altIndex, tag));
+    }
+
+    default CompletionStage<Boolean> containAsync(long curIndex, long altIndex, long tag) {
+        return CompletableFuture.completedFuture(contain(curIndex, altIndex, tag));
+    }
+
+    /**
+     * 批量写入，第i个元素的候选桶为curIndexes[i]和altIndexes[i]，指纹为tags[i]
+     *
+     * @return 每个元素是否写入成功
+     */
+    default boolean[] putAll(long[] curIndexes, long[] altIndexes, long[] tags) {
+        boolean[] results = new boolean[tags.length];
+        for (int i = 0; i < tags.length; i++) {
+            results[i] = put(curIndexes[i], altIndexes[i], tags[i]) != PUT_FAILED;
+        }
+        return results;
+    }
+
+    /**
+     * 批量删除
+     *
+     * @return 每个元素是否存在并删除
+     */
+    default boolean[] deleteAll(long[] curIndexes, long[] altIndexes, long[] tags) {
+        boolean[] results = new boolean[tags.length];
+        for (int i = 0; i < tags.length; i++) {
+            results[i] = delete(curIndexes[i], altIndexes[i], tags[i]);
+        }
+        return results;
+    }
+
+    /**
+     * 批量查询
+     *
+     * @return 每个元素是否存在
+     */
+    default boolean[] containAll(long[] curIndexes, long[] altIndexes, long[] tags) {
+        boolean[] results = new boolean[tags.length];
+        for (int i = 0; i < tags.length; i++) {
+            results[i] = contain(curIndexes[i], altIndexes[i], tags[i]);
+        }
+        return results;
+    }
+
+    /**
+     * putAll的异步版本，默认实现直接在调用线程中完成
+     */
+    default CompletionStage<boolean[]> putAllAsync(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return CompletableFuture.completedFuture(putAll(curIndexes, altIndexes, tags));
+    }
+
+    default CompletionStage<boolean[]> deleteAllAsync(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return CompletableFuture.completedFuture(deleteAll(curIndexes, altIndexes, tags));
+    }
+
+    default CompletionStage<boolean[]> containAllAsync(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return CompletableFuture.completedFuture(containAll(curIndexes, altIndexes, tags));
+    }
+
+    /**
+     * 按hash值批量查询，桶下标和指纹由table计算，进程内的实现可以覆盖为不生成中间数组的版本
+     *
+     * @return 每个hash对应的元素是否存在
+     */
+    default boolean[] containAll(long[] hashes) {
+        long[] curIndexes = new long[hashes.length];
+        long[] altIndexes = new long[hashes.length];
+        long[] tags = new long[hashes.length];
+        for (int i = 0; i < hashes.length; i++) {
+            curIndexes[i] = hashIndex(hashes[i]);
+            tags[i] = getFingerprint(hashes[i]);
+            altIndexes[i] = altHashIndex(curIndexes[i], tags[i]);
+        }
+        return containAll(curIndexes, altIndexes, tags);
+    }
+}
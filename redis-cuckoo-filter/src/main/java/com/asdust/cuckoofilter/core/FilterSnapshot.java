@@ -0,0 +1,156 @@
+package com.asdust.cuckoofilter.core;
+
+import org.redisson.api.RFuture;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/10/17 10:30
+ * @desc: redis过滤器的快照，用于备份、在环境之间复制或预热过滤器，不需要重新写入每个元素。
+ * <p>
+ * 格式：文件头(魔数、版本、桶大小、指纹位数、桶个数、桶编码、hash算法、元素个数、victim、是否压缩、数据字节数)
+ * 之后为bitmap的原始字节，压缩时数据部分使用GZIP。导出按CHUNK_BYTES分块GETRANGE，读取当前块时下一块已经发出；
+ * 导入先删除bitmap，再按块SETRANGE，最多IN_FLIGHT个请求同时进行，全为0的块直接跳过。
+ * 导出不是原子的，导出期间的写入可能只有部分包含在快照中，需要一致的快照时应在停止写入后导出
+ */
+public final class FilterSnapshot {
+    /**
+     * 魔数："CKSN"
+     */
+    private static final int MAGIC = 0x434B534E;
+
+    private static final int VERSION = 1;
+    /**
+     * 每次GETRANGE、SETRANGE的字节数
+     */
+    private static final int CHUNK_BYTES = 4 * 1024 * 1024;
+    /**
+     * 导入时同时进行的SETRANGE个数
+     */
+    private static final int IN_FLIGHT = 4;
+
+    private FilterSnapshot() {
+    }
+
+    /**
+     * 将table导出到out，不关闭out
+     *
+     * @param algorithm 写入过滤器时使用的hash算法编号，导入时校验
+     * @param compress  是否使用GZIP压缩数据部分
+     */
+    public static void write(FilterTable table, int algorithm, OutputStream out, boolean compress) throws IOException {
+        TableGeometry geometry = table.getGeometry();
+        long dataBytes = geometry.getSizeInBytes();
+        long[] victim = table.readVictim();
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(geometry.getBucketSize());
+        header.writeInt(geometry.getBitsPerTag());
+        header.writeLong(geometry.getNumBuckets());
+        header.writeInt(geometry.getEncoding().getValue());
+        header.writeInt(algorithm);
+        header.writeLong(table.size());
+        header.writeLong(victim == null ? 0 : victim[0]);
+        header.writeLong(victim == null ? 0 : victim[1]);
+        header.writeBoolean(compress);
+        header.writeLong(dataBytes);
+        header.flush();
+
+        GZIPOutputStream gzip = compress ? new GZIPOutputStream(out, 64 * 1024) : null;
+        OutputStream data = compress ? gzip : out;
+        byte[] padding = new byte[0];
+        RFuture<byte[]> next = table.readRangeAsync(0, (int) Math.min(CHUNK_BYTES, dataBytes));
+        for (long offset = 0; offset < dataBytes; offset += CHUNK_BYTES) {
+            int length = (int) Math.min(CHUNK_BYTES, dataBytes - offset);
+            byte[] chunk = FilterTable.join(next);
+            if (chunk == null) {
+                chunk = new byte[0];
+            }
+            long nextOffset = offset + CHUNK_BYTES;
+            if (nextOffset < dataBytes) {
+                next = table.readRangeAsync(nextOffset, (int) Math.min(CHUNK_BYTES, dataBytes - nextOffset));
+            }
+            data.write(chunk);
+            // bitmap末尾未写入过的部分redis不返回，按0补齐
+            if (chunk.length < length) {
+                if (padding.length < length - chunk.length) {
+                    padding = new byte[CHUNK_BYTES];
+                }
+                data.write(padding, 0, length - chunk.length);
+            }
+        }
+        if (gzip != null) {
+            gzip.finish();
+        }
+        out.flush();
+    }
+
+    /**
+     * 从in导入到table，覆盖table中已有的数据，不关闭in。快照的结构和hash算法必须与table一致
+     *
+     * @return 快照中记录的元素个数
+     */
+    public static long read(FilterTable table, int algorithm, InputStream in) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != MAGIC) {
+            throw new IOException("不是布谷鸟过滤器快照");
+        }
+        int version = header.readInt();
+        if (version != VERSION) {
+            throw new IOException("不支持的快照版本：" + version);
+        }
+        TableGeometry geometry = new TableGeometry(header.readInt(), header.readInt(), header.readLong(),
+                BucketEncoding.of(header.readInt()));
+        int snapshotAlgorithm = header.readInt();
+        long numItems = header.readLong();
+        long victimIndex = header.readLong();
+        long victimTag = header.readLong();
+        boolean compressed = header.readBoolean();
+        long dataBytes = header.readLong();
+        if (!geometry.equals(table.getGeometry())) {
+            throw new IllegalArgumentException("快照的结构与过滤器不一致：" + geometry + "，" + table.getGeometry());
+        }
+        if (snapshotAlgorithm != algorithm) {
+            throw new IllegalArgumentException("快照的hash算法与过滤器不一致：" + snapshotAlgorithm + "，" + algorithm);
+        }
+
+        DataInputStream data = new DataInputStream(compressed ? new GZIPInputStream(in, 64 * 1024) : in);
+        table.clearBitmap();
+        Deque<RFuture<Long>> pending = new ArrayDeque<>();
+        for (long offset = 0; offset < dataBytes; offset += CHUNK_BYTES) {
+            byte[] chunk = new byte[(int) Math.min(CHUNK_BYTES, dataBytes - offset)];
+            data.readFully(chunk);
+            if (isZero(chunk)) {
+                continue;
+            }
+            if (pending.size() >= IN_FLIGHT) {
+                FilterTable.join(pending.poll());
+            }
+            pending.add(table.writeRangeAsync(offset, chunk));
+        }
+        for (RFuture<Long> future : pending) {
+            FilterTable.join(future);
+        }
+        table.restoreMeta(numItems, victimTag == 0 ? null : new long[]{victimIndex, victimTag});
+        return numItems;
+    }
+
+    private static boolean isZero(byte[] chunk) {
+        for (byte b : chunk) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
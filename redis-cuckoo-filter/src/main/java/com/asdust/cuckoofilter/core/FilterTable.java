@@ -1,274 +1,545 @@
 package com.asdust.cuckoofilter.core;
 
-import com.alibaba.fastjson.JSON;
+import com.asdust.cuckoofilter.metrics.FilterMetrics;
+import com.asdust.cuckoofilter.redis.LuaScripts;
 import com.asdust.cuckoofilter.redis.RedisConfig;
 import com.asdust.cuckoofilter.redis.RedisUtils;
-import com.google.common.math.DoubleMath;
-import org.redisson.api.RBitSetAsync;
+import org.redisson.api.RFuture;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.LongCodec;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.client.protocol.RedisCommand;
+import org.redisson.client.protocol.RedisCommands;
 import org.redisson.command.CommandAsyncExecutor;
 import org.redisson.command.CommandBatchService;
+import org.redisson.config.BaseMasterSlaveServersConfig;
 import org.redisson.config.Config;
+import org.redisson.config.ReadMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.math.RoundingMode;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @author Jianxing.Huang2
  * date: 2022/8/1 23:13
+ * desc: 桶存放在redis的bitmap中，每个槽以BITFIELD u{bitsPerTag}(默认u16)存放，桶i的槽j起始位置为 (i * bucketSize + j) * bitsPerTag。
+ * 半排序编码时每个桶占用 4 * bitsPerTag - 4 位，桶i从第 i * (4 * bitsPerTag - 4) 位开始，格式见SemiSortedCodec
  */
-public class FilterTable {
+public class FilterTable extends AbstractFilterTable {
     /**
      * 日志
      */
     private static final Logger log = LoggerFactory.getLogger(FilterTable.class);
+
+    /**
+     * 脚本公共参数的个数：桶大小、指纹位数、桶个数、最大剔除次数、随机数种子、最多存放的元素个数、桶的编码方式、
+     * 广度优先查找剔除路径时最多访问的桶个数
+     */
+    private static final int HEADER_ARGS = 8;
+
+    private static final String VICTIM_INDEX = "victimIndex";
+
+    private static final String VICTIM_TAG = "victimTag";
+
+    static final String NUM_ITEMS = "numItems";
+
+    /**
+     * 读取bitmap指定字节范围
+     */
+    private static final RedisCommand<byte[]> GETRANGE = new RedisCommand<>("GETRANGE");
+    /**
+     * 写入bitmap指定字节范围
+     */
+    private static final RedisCommand<Long> SETRANGE = new RedisCommand<>("SETRANGE");
+
+    private final RedisUtils redisUtils;
+
+    private final CommandAsyncExecutor commandExecutor;
+
+    private final String redisBitKey;
+
+    /**
+     * 最多存放的元素个数，0表示不限制
+     */
+    private final long maxItems;
+
+    /**
+     * 元数据hash的key，保存victim等信息
+     */
+    private final String metaKey;
+
+    /**
+     * 变更序号的key，同时也是发布桶变更的频道名，未开启变更发布时为null
+     */
+    private final String changeKey;
+
     /**
-     * 最大容量
+     * 脚本的KEYS参数：bitmap的key、元数据hash的key，开启变更发布时还包括变更序号的key
      */
-    private long numBuckets;
+    private final List<Object> scriptKeys;
+
     /**
-     * 每个桶的大小为4，即可以存放4个key
+     * 写入和删除脚本，可扩容的过滤器使用按分裂状态定位桶的SPLIT_PUT、SPLIT_DELETE
      */
-    private static final int BUCKET_SIZE = 4;
+    private final String putScript;
+
+    private final String putIfAbsentScript;
+
+    private final String deleteScript;
+
     /**
-     * todo 负载因子,超过后，则以2倍扩容
+     * 查询脚本，从从节点读取时使用只读的CONTAIN_RO
      */
-    private static final double LOAD_FACTOR = 0.955;
+    private final String containScript;
+
     /**
-     * 指纹位数,最后通过计算公式得出最佳数量，即每个桶的大小，位数越高，精确度越高
+     * 批量操作时每个lua脚本处理的元素个数
      */
-    private static final int BITS_PER_TAG = 16;
+    private final int itemsPerScript;
 
-    private static RedisUtils redisUtils;
+    /**
+     * 批量操作时每个pipeline中包含的脚本个数
+     */
+    private final int scriptsPerBatch;
 
-    private CommandAsyncExecutor commandExecutor;
+    private volatile FilterMetrics metrics = FilterMetrics.NOOP;
 
     public FilterTable(long estimatedMaxNumKeys, RedisConfig redisConfig) {
-        // 计算出实际的桶的个数
-        this.numBuckets = getBucketsNeeded(estimatedMaxNumKeys, LOAD_FACTOR, BUCKET_SIZE);
+        this(estimatedMaxNumKeys, BITS_PER_TAG, false, connect(redisConfig), redisConfig.getRedisBitKey(),
+                redisConfig.isPublishChanges());
+    }
+
+    /**
+     * 使用已有的redis连接创建过滤器，多个过滤器可以共用同一个连接
+     *
+     * @param bitsPerTag 指纹位数
+     * @param bounded    元素个数达到负载因子对应的上限后是否拒绝写入
+     */
+    public FilterTable(long estimatedMaxNumKeys, int bitsPerTag, boolean bounded, RedisUtils redisUtils,
+                       String redisBitKey, boolean publishChanges) {
+        this(TableGeometry.forKeys(estimatedMaxNumKeys, bitsPerTag, BUCKET_SIZE), bounded, redisUtils, redisBitKey,
+                publishChanges);
+    }
+
+    /**
+     * 按指定的结构创建过滤器，结构需要与redis中已有的数据一致，见loadGeometry
+     */
+    public FilterTable(TableGeometry geometry, boolean bounded, RedisUtils redisUtils, String redisBitKey,
+                       boolean publishChanges) {
+        this(geometry, bounded, redisUtils, redisBitKey, publishChanges, false);
+    }
+
+    /**
+     * @param split 是否使用支持在线分裂扩容的脚本，见ResizableFilterTable
+     */
+    FilterTable(TableGeometry geometry, boolean bounded, RedisUtils redisUtils, String redisBitKey,
+                boolean publishChanges, boolean split) {
+        super(geometry);
         log.info("布谷鸟过滤器桶大小：{}", this.numBuckets);
         // 计算出需要申请的bitmap大小
-        Long bitMapSize = this.numBuckets * BUCKET_SIZE * BITS_PER_TAG;
+        Long bitMapSize = this.numBuckets * geometry.getBucketBits();
         log.info("redis的bitmap需要的bit总数：{}", bitMapSize);
-        // 初始化redis
-        Config config = new Config();
-        config.useSingleServer().setAddress(redisConfig.getAddress());
-        redisUtils = new RedisUtils(config, redisConfig.getRedisBitKey());
-        commandExecutor = redisUtils.getCommandExecutor();
-        log.info("redis的连接成功！");
+        this.maxItems = bounded ? getMaxItems() : 0;
+        this.redisBitKey = redisBitKey;
+        this.redisUtils = redisUtils;
+        this.commandExecutor = redisUtils.getCommandExecutor();
+        RedisConfig settings = redisUtils.getRedisConfig();
+        this.putScript = split ? LuaScripts.SPLIT_PUT : LuaScripts.PUT;
+        this.putIfAbsentScript = split ? LuaScripts.SPLIT_PUT_IF_ABSENT : LuaScripts.PUT_IF_ABSENT;
+        this.deleteScript = split ? LuaScripts.SPLIT_DELETE : LuaScripts.DELETE;
+        if (split) {
+            this.containScript = settings.isReadFromReplicas() ? LuaScripts.SPLIT_CONTAIN_RO : LuaScripts.SPLIT_CONTAIN;
+        } else {
+            this.containScript = settings.isReadFromReplicas() ? LuaScripts.CONTAIN_RO : LuaScripts.CONTAIN;
+        }
+        this.itemsPerScript = settings.getItemsPerScript();
+        this.scriptsPerBatch = settings.getScriptsPerBatch();
+        // 与bitmap使用相同的hash tag，保证集群模式下在同一个slot
+        this.metaKey = RedisUtils.companionKey(redisBitKey, "meta");
+        if (publishChanges) {
+            this.changeKey = RedisUtils.companionKey(redisBitKey, "changes");
+            this.scriptKeys = Arrays.<Object>asList(redisBitKey, metaKey, changeKey);
+        } else {
+            this.changeKey = null;
+            this.scriptKeys = Arrays.<Object>asList(redisBitKey, metaKey);
+        }
     }
 
     /**
-     * Calculates how many buckets are needed to hold the chosen number of keys,
-     * taking the standard load factor into account.
-     *
-     * @param maxKeys the number of keys the filter is expected to hold before
-     *                insertion failure.
-     * @return The number of buckets needed
-     */
-    public static long getBucketsNeeded(long maxKeys, double loadFactor, int bucketSize) {
-        /*
-         * force a power-of-two bucket count so hash functions for bucket index
-         * can hashBits%numBuckets and get randomly distributed index. See wiki
-         * "Modulo Bias". Only time we can get perfectly distributed index is
-         * when numBuckets is a power of 2.
-         * 若要存放100个key,则需要25=100/4个桶
-         */
-        long bucketsNeeded = DoubleMath.roundToLong((1.0 / loadFactor) * maxKeys / bucketSize, RoundingMode.UP);
-        // get next biggest power of 2 ,highestOneBit获取最高位，如输入101101，输出100000,以下设置为2的整数次幂，用于后续与运算获取元素下标
-        long bitPos = Long.highestOneBit(bucketsNeeded);
-        if (bucketsNeeded > bitPos) {
-            bitPos = bitPos << 1;
-        }
-        return bitPos;
-    }
-
-    public long hashIndex(long hash) {
-        // 左移tag位，只用移动后的数来获取槽索引，可以使相近的hash值key在table中更加分散
-        long hashValue = hash >>> BITS_PER_TAG;
-        // hash值与桶的个数减1逻辑与运算，计算出元素的索引：该计算与hashMap一样需要满足桶的个数需要为2的整数次幂方
-        return hashValue & (numBuckets - 1);
-    }
-
-    public long altHashIndex(long curIndex, long tag) {
-        /*
-         * 0xc4ceb9fe1a85ec53L hash mixing constant from
-         * MurmurHash3...interesting. Similar value used in reference
-         * implementation https://github.com/efficient/cuckoofilter/
-         * 可以用到异或的自反性： A ⊕ B ⊕ B = A
-         */
-        long altIndex = curIndex ^ (tag * 0xc4ceb9fe1a85ec53L);
-        // flip bits if negative
-        if (altIndex < 0) {
-            altIndex = ~altIndex;
+     * 按配置创建redis连接：设置了哨兵时以哨兵模式连接，设置了集群节点时以集群模式连接，
+     * 设置了从节点时以主从模式连接，否则连接单机。除单机外查询按readMode发往主节点或从节点，写入总是发往主节点
+     */
+    public static RedisUtils connect(RedisConfig redisConfig) {
+        if (redisConfig.getItemsPerScript() <= 0 || redisConfig.getScriptsPerBatch() <= 0) {
+            throw new IllegalArgumentException("每个脚本的元素个数和每个pipeline的脚本个数必须大于0：" + redisConfig.getItemsPerScript()
+                    + "，" + redisConfig.getScriptsPerBatch());
         }
-        // now pull into valid range
-        return hashIndex(altIndex);
-    }
-
-    public long getFingerprint(long hashVal) {
-        long unusedBits = Long.SIZE - BITS_PER_TAG;
-        return (hashVal << unusedBits) >>> unusedBits;
-    }
-
-    public Boolean insert(long curIndex, long tag) {
-        return writeBits(curIndex, tag, true);
-    }
-
-//    private boolean writeBitsTrue(long curIndex, long tag) {
-//        CommandBatchService executorService = new CommandBatchService(commandExecutor);
-//        RBitSetAsync bs = redisUtils.createBitSet(executorService);
-//        // 判断curIndex出是否已有值
-//        log.info("writeBits：tag-bit：{}", Long.toBinaryString(tag));
-//        for (int i = 0; i < BUCKET_SIZE; i++) {
-//            // todo 检查与下面的设置要加同步锁才能保证原子性，检查index出i位置是否已存在tag
-//            if (isExistTag(curIndex, i, tag)) {
-//                log.info("writeBits：continue：{}", i);
-//                continue;
-//            }
-//            long[] bitIndexes = getPosOfTrue(curIndex, i, tag);
-//            System.out.println("writeBits：bitIndexes：" + JSON.toJSONString(bitIndexes));
-//            for (long bitIndex : bitIndexes) {
-//                // 将位下标对应位设置1
-//                if (bitIndex != -1) {
-//                    bs.setAsync(bitIndex, true);
-//                    System.out.println("setAsync1");
-//                }
-//            }
-//            // 返回修改前的值，这里应该全部返回true
-//            List<Boolean> results = (List<Boolean>) executorService.execute().getResponses();
-//            log.info("writeBits：results：{}", JSON.toJSONString(results));
-//            return true;
-////            for (Boolean val : results.subList(1, results.size() - 1)) {
-////                if (!val) {
-////                    System.out.println("writeBits:true");
-////                    return true;
-////                }
-////            }
-//        }
-//        System.out.println("writeBits:false");
-//        return false;
-//    }
-
-    public boolean delete(long curIndex, long tag) {
-        return writeBits(curIndex, tag, false);
-    }
-    private boolean writeBits(long curIndex, long tag, Boolean bitValue) {
-        CommandBatchService executorService = new CommandBatchService(commandExecutor);
-        RBitSetAsync bs = redisUtils.createBitSet(executorService);
-        // 判断curIndex出是否已有值
-        log.info("writeBits：tag-bit：{}", Long.toBinaryString(tag));
-        for (int i = 0; i < BUCKET_SIZE; i++) {
-            // todo 检查与下面的设置要加同步锁才能保证原子性，检查index出i位置是否已存在tag。与redission的bloom过滤器无需加锁不同，
-            //  因为它不是一个桶只存放一个元素，而是元素共用bit位，添加元素时，只要有一个bit位从0变成1，则表示添加成功，否则失败。
-            //  所以利用redis本身的单进程处理实现了put的原子性，而线程安全
-            if (isExistTag(curIndex, i, tag)  == bitValue) {
-                log.info("writeBits：continue：{}", i);
-                continue;
-            }
-            long[] bitIndexes = getPosOfTrue(curIndex, i, tag);
-            System.out.println("writeBits：bitIndexes：" + JSON.toJSONString(bitIndexes));
-            for (long bitIndex : bitIndexes) {
-                // 将位下标对应位设置1或0
-                if (bitIndex != -1) {
-                    bs.setAsync(bitIndex, bitValue);
-                }
+        Config config = new Config();
+        if (isSet(redisConfig.getSentinelAddresses())) {
+            if (redisConfig.getSentinelMasterName() == null) {
+                throw new IllegalArgumentException("哨兵模式需要设置sentinelMasterName");
             }
-            // 返回修改前的值，若是插入值，这里应该全部返回true，否则返回false
-            List<Boolean> results = (List<Boolean>) executorService.execute().getResponses();
-            log.info("writeBits：results：{}", JSON.toJSONString(results));
-//            for (Boolean val : results.subList(1, results.size() - 1)) {
-//                if (val.equals(bitValue)) {
-//                    isExistTag(curIndex, i, tag);
-//                    System.out.println("writeBits:true");
-//                    return bitValue;
-//                }
-//            }
-            return true;
-        }
-//        System.out.println("writeBits:false");
-        return false;
-    }
-
-    private boolean isExistTag(long curIndex, int posInBucket, long tag) {
-        // 检查指定桶的pos处是否存在tag
-        log.info("checkTag:curIndex:" + curIndex + ",posInBucket:" + posInBucket + ",tag:" + tag);
-        CommandBatchService executorService = new CommandBatchService(commandExecutor);
-        RBitSetAsync bs = redisUtils.createBitSet(executorService);
-        long startPos = curIndex * BUCKET_SIZE * BITS_PER_TAG + (long) posInBucket * BITS_PER_TAG;
-        long endPos = startPos + BITS_PER_TAG;
-        for (long i = startPos; i < endPos; i++) {
-            bs.getAsync(i);
+            configure(config.useSentinelServers()
+                    .setMasterName(redisConfig.getSentinelMasterName())
+                    .addSentinelAddress(redisConfig.getSentinelAddresses().toArray(new String[0])), redisConfig);
+        } else if (isSet(redisConfig.getClusterAddresses())) {
+            configure(config.useClusterServers()
+                    .addNodeAddress(redisConfig.getClusterAddresses().toArray(new String[0])), redisConfig);
+        } else if (isSet(redisConfig.getReplicaAddresses())) {
+            configure(config.useMasterSlaveServers()
+                    .setMasterAddress(redisConfig.getAddress())
+                    .addSlaveAddress(redisConfig.getReplicaAddresses().toArray(new String[0])), redisConfig);
+        } else {
+            config.useSingleServer()
+                    .setAddress(redisConfig.getAddress())
+                    .setConnectionPoolSize(redisConfig.getConnectionPoolSize())
+                    .setConnectionMinimumIdleSize(redisConfig.getConnectionMinimumIdleSize())
+                    .setTimeout(redisConfig.getTimeout());
         }
-        List<Boolean> result = (List<Boolean>) executorService.execute().getResponses();
-//        System.out.println("checkTag:results:" + JSON.toJSONString(result));
-        for (int i = 0; i < BITS_PER_TAG; i++) {
-            // 比如tag=15,bit表示0000 0000 0000 1111
-            if (((tag & (1L << i)) == 0) == result.get(i)) {
-                // 有一个bit不相同，就表示不存在，返回false
-                return false;
-            }
+        // 开启脚本缓存，lua脚本以EVALSHA执行
+        config.setUseScriptCache(true);
+        RedisUtils redisUtils = new RedisUtils(config, redisConfig.getRedisBitKey(), redisConfig);
+        log.info("redis的连接成功！");
+        return redisUtils;
+    }
+
+    private static boolean isSet(List<String> addresses) {
+        return addresses != null && !addresses.isEmpty();
+    }
+
+    /**
+     * 主从、哨兵和集群模式共用的设置，主节点和每个从节点各自使用connectionPoolSize大小的连接池
+     */
+    private static void configure(BaseMasterSlaveServersConfig<?> servers, RedisConfig redisConfig) {
+        servers.setReadMode(toReadMode(redisConfig.getReadMode()))
+                .setMasterConnectionPoolSize(redisConfig.getConnectionPoolSize())
+                .setMasterConnectionMinimumIdleSize(redisConfig.getConnectionMinimumIdleSize())
+                .setSlaveConnectionPoolSize(redisConfig.getConnectionPoolSize())
+                .setSlaveConnectionMinimumIdleSize(redisConfig.getConnectionMinimumIdleSize())
+                .setTimeout(redisConfig.getTimeout());
+    }
+
+    private static ReadMode toReadMode(RedisConfig.ReadMode readMode) {
+        switch (readMode) {
+            case REPLICA:
+                return ReadMode.SLAVE;
+            case MASTER_REPLICA:
+                return ReadMode.MASTER_SLAVE;
+            default:
+                return ReadMode.MASTER;
         }
-//        System.out.println("checkTag:results:-----------true---------------------------");
-        return true;
-    }
-
-    private long[] getPosOfTrue(long curIndex, int posInBucket, long tag) {
-        long[] indexes = new long[BITS_PER_TAG];
-        Arrays.fill(indexes, -1);
-        // todo 这里的乘法可能造成溢出发生
-        System.out.println("tag:" + tag + ",二进制：" + Long.toBinaryString(tag));
-        long startPos = curIndex * BUCKET_SIZE * BITS_PER_TAG + (long) posInBucket * BITS_PER_TAG;
-        for (int i = 0; i < BITS_PER_TAG; i++) {
-            // 比如tag=15,bit表示0000 0000 0000 1111
-            if ((tag & (1L << i)) != 0) {
-                indexes[i] = startPos + i;
-            }
+    }
+
+    public RedisUtils getRedisUtils() {
+        return redisUtils;
+    }
+
+    public String getChangeKey() {
+        return changeKey;
+    }
+
+    String getMetaKey() {
+        return metaKey;
+    }
+
+    @Override
+    public void setMetrics(FilterMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 读取bitmap中[byteOffset, byteOffset + length)范围的字节，超出bitmap长度的部分不返回
+     */
+    public byte[] readRange(long byteOffset, int length) {
+        return commandExecutor.get(readRangeAsync(byteOffset, length));
+    }
+
+    public RFuture<byte[]> readRangeAsync(long byteOffset, int length) {
+        return commandExecutor.readAsync(redisBitKey, ByteArrayCodec.INSTANCE, GETRANGE,
+                redisBitKey, byteOffset, byteOffset + length - 1);
+    }
+
+    /**
+     * 从byteOffset起写入data，bitmap长度不足时自动扩展
+     */
+    public RFuture<Long> writeRangeAsync(long byteOffset, byte[] data) {
+        return commandExecutor.writeAsync(redisBitKey, ByteArrayCodec.INSTANCE, SETRANGE, redisBitKey, byteOffset, data);
+    }
+
+    /**
+     * 删除整个bitmap，元数据不变，用于导入快照前清空
+     */
+    public void clearBitmap() {
+        commandExecutor.get(commandExecutor.writeAsync(redisBitKey, LongCodec.INSTANCE, RedisCommands.DEL, redisBitKey));
+    }
+
+    /**
+     * 设置bitmap、元数据和变更序号的过期时间(unix毫秒)，用于按时间轮换的过滤器。
+     * bitmap不存在时先创建，之后写入桶不会清除过期时间
+     */
+    public void expireAt(long epochMillis) {
+        commandExecutor.get(commandExecutor.evalWriteAsync(redisBitKey, LongCodec.INSTANCE, RedisCommands.EVAL_LIST,
+                LuaScripts.EXPIRE_AT, scriptKeys, epochMillis));
+    }
+
+    /**
+     * 删除bitmap、元数据和变更序号。UNLINK在redis主线程中只移除key，内存在后台线程释放，不阻塞其他请求
+     */
+    public void unlink() {
+        commandExecutor.get(commandExecutor.writeAsync(redisBitKey, LongCodec.INSTANCE, RedisCommands.UNLINK,
+                scriptKeys.toArray()));
+    }
+
+    /**
+     * 覆盖元素个数和victim，victim为null表示清空。开启变更发布时将变更序号加1，使本地副本发现落后后重新加载
+     */
+    public void restoreMeta(long numItems, long[] victim) {
+        List<Object> keys = changeKey == null ? Collections.<Object>singletonList(metaKey)
+                : Arrays.<Object>asList(metaKey, changeKey);
+        commandExecutor.get(commandExecutor.evalWriteAsync(redisBitKey, LongCodec.INSTANCE, RedisCommands.EVAL_LIST,
+                LuaScripts.RESTORE_META, keys, numItems, victim == null ? 0 : victim[0], victim == null ? 0 : victim[1]));
+    }
+
+    /**
+     * 写入指纹，检查空槽、剔除和victim都在同一个lua脚本中完成，只需一次网络往返
+     */
+    @Override
+    public int put(long curIndex, long altIndex, long tag) {
+        return toInt(commandExecutor.get(evalAsync(putScript, false, curIndex, altIndex, tag)));
+    }
+
+    /**
+     * 查询和写入在同一个lua脚本中执行，redis串行执行脚本，多个客户端同时写入同一元素时只有一个写入成功
+     */
+    @Override
+    public int putIfAbsent(long curIndex, long altIndex, long tag) {
+        return toInt(commandExecutor.get(evalAsync(putIfAbsentScript, false, curIndex, altIndex, tag)));
+    }
+
+    /**
+     * 删除候选桶或victim中第一个与指纹相同的槽
+     *
+     * @return 存在并删除返回true，否则返回false
+     */
+    @Override
+    public boolean delete(long curIndex, long altIndex, long tag) {
+        return toInt(commandExecutor.get(evalAsync(deleteScript, false, curIndex, altIndex, tag))) == 1;
+    }
+
+    @Override
+    public boolean contain(long curIndex, long altIndex, long tag) {
+        return toInt(commandExecutor.get(evalAsync(containScript, true, curIndex, altIndex, tag))) == 1;
+    }
+
+    @Override
+    public boolean hasVictim() {
+        return redisUtils.getMap(metaKey, StringCodec.INSTANCE).containsKey(VICTIM_TAG);
+    }
+
+    /**
+     * 读取redis元数据中保存的结构，不存在时保存proposed，返回redis中最终的结构，保证所有客户端一致
+     */
+    public static TableGeometry loadGeometry(RedisUtils redisUtils, String redisBitKey, TableGeometry proposed) {
+        CommandAsyncExecutor executor = redisUtils.getCommandExecutor();
+        List<Object> stored = executor.get(executor.evalWriteAsync(redisBitKey, LongCodec.INSTANCE,
+                RedisCommands.EVAL_LIST, LuaScripts.INIT_GEOMETRY,
+                Collections.<Object>singletonList(RedisUtils.companionKey(redisBitKey, "meta")),
+                proposed.getBucketSize(), proposed.getBitsPerTag(), proposed.getNumBuckets(),
+                proposed.getEncoding().getValue()));
+        return new TableGeometry(((Long) stored.get(0)).intValue(), ((Long) stored.get(1)).intValue(), (Long) stored.get(2),
+                BucketEncoding.of(((Long) stored.get(3)).intValue()));
+    }
+
+    /**
+     * 已存放的元素个数，由写入和删除脚本维护，所有客户端共享
+     */
+    @Override
+    public long size() {
+        String numItems = redisUtils.<String, String>getMap(metaKey, StringCodec.INSTANCE).get(NUM_ITEMS);
+        return numItems == null ? 0 : Long.parseLong(numItems);
+    }
+
+    /**
+     * 读取victim，返回{桶下标, 指纹}，没有victim时返回null
+     */
+    public long[] readVictim() {
+        Map<String, String> victim = redisUtils.<String, String>getMap(metaKey, StringCodec.INSTANCE)
+                .getAll(new HashSet<>(Arrays.asList(VICTIM_INDEX, VICTIM_TAG)));
+        if (!victim.containsKey(VICTIM_TAG)) {
+            return null;
         }
-        return indexes;
-    }
-
-    public long randSelectTag(long curIndex, long tag) {
-        // 随机从槽位中选取一个元素  注：有的实现中用了一个longBitSet的容器数组来做了一个优化，减少空间的浪费，可以对更大数据量的数据进行过滤，具体了参考项目:
-        //https://github.com/MGunlogson/CuckooFilter4J
-        int randomBucketPosition = ThreadLocalRandom.current().nextInt(BUCKET_SIZE);
-        long startPos = curIndex * BUCKET_SIZE * BITS_PER_TAG + (long) randomBucketPosition * BITS_PER_TAG;
-        long endPos = startPos + BITS_PER_TAG;
-        long oldTag = 0;
-        CommandBatchService executorService = new CommandBatchService(commandExecutor);
-        RBitSetAsync bs = redisUtils.createBitSet(executorService);
-        for (long i = startPos; i < endPos; i++) {
-            bs.getAsync(startPos);
+        return new long[]{Long.parseLong(victim.get(VICTIM_INDEX)), Long.parseLong(victim.get(VICTIM_TAG))};
+    }
+
+    @Override
+    public CompletionStage<Integer> putAsync(long curIndex, long altIndex, long tag) {
+        return evalAsync(putScript, false, curIndex, altIndex, tag).thenApply(FilterTable::toInt);
+    }
+
+    @Override
+    public CompletionStage<Integer> putIfAbsentAsync(long curIndex, long altIndex, long tag) {
+        return evalAsync(putIfAbsentScript, false, curIndex, altIndex, tag).thenApply(FilterTable::toInt);
+    }
+
+    @Override
+    public CompletionStage<Boolean> deleteAsync(long curIndex, long altIndex, long tag) {
+        return evalAsync(deleteScript, false, curIndex, altIndex, tag).thenApply(result -> toInt(result) == 1);
+    }
+
+    @Override
+    public CompletionStage<Boolean> containAsync(long curIndex, long altIndex, long tag) {
+        // 两个候选桶在同一个只读脚本中检查
+        return evalAsync(containScript, true, curIndex, altIndex, tag).thenApply(result -> toInt(result) == 1);
+    }
+
+    /**
+     * 将查询加入batch，多个过滤器的查询可以放在同一个pipeline中发送，调用方执行batch后结果可用
+     */
+    public CompletionStage<Boolean> containAsync(CommandBatchService batch, long curIndex, long altIndex, long tag) {
+        return this.<List<Object>>evalAsync(batch, containScript, true, itemArgs(curIndex, altIndex, tag))
+                .thenApply(result -> toInt(result) == 1);
+    }
+
+    private RFuture<List<Object>> evalAsync(String script, boolean readOnly, long curIndex, long altIndex, long tag) {
+        metrics.recordRoundTrips(1);
+        return evalAsync(commandExecutor, script, readOnly, itemArgs(curIndex, altIndex, tag));
+    }
+
+    /**
+     * 执行写脚本，公共参数之后依次为extraArgs，用于不按元素处理的脚本
+     */
+    RFuture<List<Object>> evalWriteAsync(String script, Object... extraArgs) {
+        Object[] args = Arrays.copyOf(scriptArgs(0), HEADER_ARGS + extraArgs.length);
+        System.arraycopy(extraArgs, 0, args, HEADER_ARGS, extraArgs.length);
+        metrics.recordRoundTrips(1);
+        return evalAsync(commandExecutor, script, false, args);
+    }
+
+    private Object[] itemArgs(long curIndex, long altIndex, long tag) {
+        Object[] args = scriptArgs(1);
+        args[HEADER_ARGS] = curIndex;
+        args[HEADER_ARGS + 1] = altIndex;
+        args[HEADER_ARGS + 2] = tag;
+        return args;
+    }
+
+    private RFuture<List<Object>> evalAsync(CommandAsyncExecutor executor, String script, boolean readOnly, Object[] args) {
+        if (readOnly) {
+            return executor.evalReadAsync(redisBitKey, LongCodec.INSTANCE, RedisCommands.EVAL_LIST, script, scriptKeys, args);
         }
-        List<Boolean> result = (List<Boolean>) executorService.execute().getResponses();
-        for (int i = 0; i < BITS_PER_TAG; i++) {
-            // 比如tag=15,bit表示0000 0000 0000 1111
-            long curBit = tag & (1L << i);
-            Boolean oldCurBitBool = result.get(i);
-            if ((curBit == 1) && !oldCurBitBool) {
-                bs.setAsync(startPos + i, true);
-            } else if ((curBit == 0) && oldCurBitBool) {
-                bs.setAsync(startPos + i, false);
+        return executor.evalWriteAsync(redisBitKey, LongCodec.INSTANCE, RedisCommands.EVAL_LIST, script, scriptKeys, args);
+    }
+
+    /**
+     * 脚本的公共参数，后面留出itemCount个元素的位置
+     */
+    private Object[] scriptArgs(int itemCount) {
+        Object[] args = new Object[HEADER_ARGS + itemCount * 3];
+        args[0] = bucketSize;
+        args[1] = bitsPerTag;
+        args[2] = numBuckets;
+        args[3] = MAX_TRY_CUCKOO_COUNT;
+        args[4] = ThreadLocalRandom.current().nextInt();
+        args[5] = maxItems;
+        args[6] = encoding.getValue();
+        args[7] = insertStrategy == InsertStrategy.BFS ? MAX_BFS_NODES : 0;
+        return args;
+    }
+
+    private static int toInt(List<Object> result) {
+        return ((Long) result.get(0)).intValue();
+    }
+
+    @Override
+    public boolean[] putAll(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return join(putAllAsync(curIndexes, altIndexes, tags));
+    }
+
+    @Override
+    public boolean[] deleteAll(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return join(deleteAllAsync(curIndexes, altIndexes, tags));
+    }
+
+    @Override
+    public boolean[] containAll(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return join(containAllAsync(curIndexes, altIndexes, tags));
+    }
+
+    @Override
+    public CompletionStage<boolean[]> putAllAsync(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return evalBatchAsync(putScript, false, curIndexes, altIndexes, tags);
+    }
+
+    @Override
+    public CompletionStage<boolean[]> deleteAllAsync(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return evalBatchAsync(deleteScript, false, curIndexes, altIndexes, tags);
+    }
+
+    @Override
+    public CompletionStage<boolean[]> containAllAsync(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return evalBatchAsync(containScript, true, curIndexes, altIndexes, tags);
+    }
+
+    /**
+     * 将元素按itemsPerScript个一组交给脚本处理，scriptsPerBatch个脚本放在同一个pipeline中发送，
+     * 所有pipeline同时发出，网络往返次数随元素个数除以pipeline容量增长，而不是每个元素一次
+     */
+    private CompletionStage<boolean[]> evalBatchAsync(String script, boolean readOnly, long[] curIndexes,
+                                                      long[] altIndexes, long[] tags) {
+        boolean[] results = new boolean[tags.length];
+        boolean isPut = putScript.equals(script);
+        int itemsPerBatch = itemsPerScript * scriptsPerBatch;
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (int batchStart = 0; batchStart < tags.length; batchStart += itemsPerBatch) {
+            int batchEnd = Math.min(tags.length, batchStart + itemsPerBatch);
+            CommandBatchService batchService = new CommandBatchService(commandExecutor);
+            for (int from = batchStart; from < batchEnd; from += itemsPerScript) {
+                int to = Math.min(batchEnd, from + itemsPerScript);
+                Object[] args = scriptArgs(to - from);
+                for (int i = from, n = HEADER_ARGS; i < to; i++) {
+                    args[n++] = curIndexes[i];
+                    args[n++] = altIndexes[i];
+                    args[n++] = tags[i];
+                }
+                evalAsync(batchService, script, readOnly, args);
             }
-            int oldCurBit = oldCurBitBool ? 1 : 0;
-            oldTag = oldTag | (oldCurBit << i);
+            // 每个脚本返回其负责的元素的结果数组，按发送顺序拼接，写入返回剔除次数，失败为-1，删除和查询返回1或0
+            int offset = batchStart;
+            batches.add(batchService.executeAsync().thenAccept(batchResult -> {
+                int n = offset;
+                for (Object response : batchResult.getResponses()) {
+                    for (Object value : (List<?>) response) {
+                        long code = (Long) value;
+                        results[n++] = isPut ? code != PUT_FAILED : code == 1L;
+                    }
+                }
+            }).toCompletableFuture());
         }
-        return oldTag;
+        metrics.recordRoundTrips(batches.size());
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture[0])).thenApply(v -> results);
     }
 
-    public boolean contain(long curIndex, long altIndex, long tag) {
-        // 判断curIndex出是否已有值
-        for (int i = 0; i < BUCKET_SIZE; i++) {
-            // 检查index在桶的i位置是否已存在值0，若存在表示该处没有值
-            if (isExistTag(curIndex, i, tag) || isExistTag(altIndex, i, tag)) {
-                return true;
+    /**
+     * 等待异步结果，异常原样抛出
+     */
+    static <V> V join(CompletionStage<V> stage) {
+        try {
+            return stage.toCompletableFuture().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw e;
         }
-        return false;
     }
-
-
 }
@@ -0,0 +1,19 @@
+package com.asdust.cuckoofilter.core;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/10/19 10:20
+ * @desc: 两个候选桶都满时腾出空槽的方式
+ */
+public enum InsertStrategy {
+    /**
+     * 随机选择一个槽剔除，被剔除的指纹移到它的另一个候选桶，如此循环直到找到空槽或达到最大剔除次数，
+     * 剔除次数用尽后最后被剔除的指纹放入victim
+     */
+    RANDOM_WALK,
+    /**
+     * 广度优先查找最短的剔除路径，见CuckooPathSearch，找到空槽后才移动指纹，移动次数少且稳定，
+     * 负载因子较高时也能写入。查找的桶个数达到上限仍未找到时新指纹放入victim
+     */
+    BFS
+}
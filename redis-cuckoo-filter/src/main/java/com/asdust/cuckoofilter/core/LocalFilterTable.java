@@ -0,0 +1,394 @@
+package com.asdust.cuckoofilter.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/8/21 14:30
+ * @desc: 进程内的桶存储，一个桶的4个16位指纹正好放在一个long中，槽j占用第 j * BITS_PER_TAG 位起的16位。
+ * 槽的写入通过CAS整个long完成，多线程读写无需加锁；两个候选桶都满时的剔除过程和victim的修改在kickLock中串行执行。
+ * 半排序编码时一个long正好放下12位序号和4个13位低位，即4个17位指纹，占用内存相同，误判率减半
+ */
+public class LocalFilterTable extends AbstractFilterTable {
+    /**
+     * 单个指纹的掩码
+     */
+    private static final long TAG_MASK = (1L << BITS_PER_TAG) - 1;
+    /**
+     * 半排序编码时的指纹位数，12 + 4 * (17 - 4) = 64
+     */
+    private static final int SEMI_SORTED_BITS_PER_TAG = 17;
+
+    private final AtomicLongArray buckets;
+
+    private final Object kickLock = new Object();
+    /**
+     * putIfAbsent按元素加锁的分段锁
+     */
+    private final Object[] absentLocks = newAbsentLocks();
+    /**
+     * 剔除进行中时为奇数，只在kickLock中修改
+     */
+    private volatile int kickSeq;
+    /**
+     * 剔除次数用尽后最后一个被剔除的指纹，为null表示没有
+     */
+    private volatile Victim victim;
+    /**
+     * 广度优先查找剔除路径，第一次使用时创建，只在kickLock中访问
+     */
+    private CuckooPathSearch pathSearch;
+
+    public LocalFilterTable(long estimatedMaxNumKeys) {
+        this(estimatedMaxNumKeys, BucketEncoding.PLAIN);
+    }
+
+    public LocalFilterTable(long estimatedMaxNumKeys, BucketEncoding encoding) {
+        this(geometryFor(estimatedMaxNumKeys, encoding));
+    }
+
+    /**
+     * 结构必须与geometryFor的结果一致：桶大小为4，普通编码16位指纹，半排序编码17位指纹
+     */
+    LocalFilterTable(TableGeometry geometry) {
+        super(geometry);
+        if (!supports(geometry)) {
+            throw new IllegalArgumentException("本地过滤器不支持的结构：" + geometry);
+        }
+        this.buckets = new AtomicLongArray((int) numBuckets);
+    }
+
+    /**
+     * 本地过滤器按期望的元素个数和桶编码使用的结构
+     */
+    public static TableGeometry geometryFor(long estimatedMaxNumKeys, BucketEncoding encoding) {
+        return geometryFor(estimatedMaxNumKeys, encoding, false);
+    }
+
+    /**
+     * @param exactBuckets 为true时按需要的桶个数分配，不向上取整到2的整数次幂
+     */
+    public static TableGeometry geometryFor(long estimatedMaxNumKeys, BucketEncoding encoding, boolean exactBuckets) {
+        return TableGeometry.forKeys(estimatedMaxNumKeys, bitsPerTagFor(encoding), BUCKET_SIZE, encoding, exactBuckets);
+    }
+
+    /**
+     * 结构能否存放在本地过滤器中：桶大小为4，指纹位数与编码对应，桶个数不超过int的上限
+     */
+    static boolean supports(TableGeometry geometry) {
+        return geometry.getBucketSize() == BUCKET_SIZE && geometry.getBitsPerTag() == bitsPerTagFor(geometry.getEncoding())
+                && geometry.getNumBuckets() <= Integer.MAX_VALUE;
+    }
+
+    private static int bitsPerTagFor(BucketEncoding encoding) {
+        return encoding == BucketEncoding.SEMI_SORTED ? SEMI_SORTED_BITS_PER_TAG : BITS_PER_TAG;
+    }
+
+    /**
+     * 覆盖整个桶，用于从其他存储同步桶的内容
+     */
+    void setBucket(long index, long word) {
+        buckets.set((int) index, word);
+    }
+
+    static long tagAt(long word, int pos) {
+        return (word >>> (pos * BITS_PER_TAG)) & TAG_MASK;
+    }
+
+    static long withTag(long word, int pos, long tag) {
+        int shift = pos * BITS_PER_TAG;
+        return (word & ~(TAG_MASK << shift)) | (tag << shift);
+    }
+
+    private long slot(long word, int pos) {
+        return encoding == BucketEncoding.SEMI_SORTED ? SemiSortedCodec.tagAt(word, pos, bitsPerTag) : tagAt(word, pos);
+    }
+
+    private long withSlot(long word, int pos, long tag) {
+        if (encoding == BucketEncoding.SEMI_SORTED) {
+            return SemiSortedCodec.withTag(word, pos, tag, bitsPerTag);
+        }
+        return withTag(word, pos, tag);
+    }
+
+    private int indexOf(long word, long tag) {
+        for (int pos = 0; pos < BUCKET_SIZE; pos++) {
+            if (slot(word, pos) == tag) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 设置victim，指纹为0表示清空，用于从其他存储同步victim
+     */
+    void setVictim(long index, long tag) {
+        victim = tag == 0 ? null : new Victim(index, tag);
+    }
+
+    @Override
+    public int put(long curIndex, long altIndex, long tag) {
+        if (insert(curIndex, tag) || insert(altIndex, tag)) {
+            return 0;
+        }
+        synchronized (kickLock) {
+            return kickPut(curIndex, altIndex, tag);
+        }
+    }
+
+    /**
+     * 同一元素的putIfAbsent在分段锁中串行执行。剔除过程中被剔除的指纹短暂不在任何桶中，
+     * 查询前后kickSeq不变且为偶数时才能确认不存在，否则在kickLock中重新查询
+     */
+    @Override
+    public int putIfAbsent(long curIndex, long altIndex, long tag) {
+        synchronized (absentLockOf(absentLocks, curIndex, altIndex)) {
+            int seq = kickSeq;
+            if (contain(curIndex, altIndex, tag)) {
+                return PRESENT;
+            }
+            if ((seq & 1) == 0 && seq == kickSeq && (insert(curIndex, tag) || insert(altIndex, tag))) {
+                return 0;
+            }
+            synchronized (kickLock) {
+                if (contain(curIndex, altIndex, tag)) {
+                    return PRESENT;
+                }
+                return kickPut(curIndex, altIndex, tag);
+            }
+        }
+    }
+
+    /**
+     * 只在kickLock中调用，两个候选桶都满时剔除已有指纹，剔除期间kickSeq为奇数
+     */
+    private int kickPut(long curIndex, long altIndex, long tag) {
+        if (victim != null) {
+            return PUT_FAILED;
+        }
+        // 等待锁期间其他线程可能删除了元素
+        if (insert(curIndex, tag) || insert(altIndex, tag)) {
+            return 0;
+        }
+        kickSeq++;
+        try {
+            if (insertStrategy == InsertStrategy.BFS) {
+                return bfsPut(curIndex, altIndex, tag);
+            }
+            return randomWalkPut(curIndex, altIndex, tag);
+        } finally {
+            kickSeq++;
+        }
+    }
+
+    /**
+     * 只在kickLock中调用，剔除次数用尽时最后被剔除的指纹放入victim
+     */
+    private int randomWalkPut(long curIndex, long altIndex, long tag) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long index = random.nextBoolean() ? curIndex : altIndex;
+        for (int kick = 1; kick <= MAX_TRY_CUCKOO_COUNT; kick++) {
+            tag = swap((int) index, random.nextInt(BUCKET_SIZE), tag);
+            index = altHashIndex(index, tag);
+            if (insert(index, tag)) {
+                return kick;
+            }
+        }
+        victim = new Victim(index, tag);
+        return MAX_TRY_CUCKOO_COUNT;
+    }
+
+    /**
+     * 只在kickLock中调用，没有找到剔除路径时新指纹放入victim。查找和移动期间不在kickLock中的写入和删除仍在进行，
+     * 路径被破坏时重新查找，多次被破坏后改为随机剔除
+     */
+    private int bfsPut(long curIndex, long altIndex, long tag) {
+        if (pathSearch == null) {
+            pathSearch = new CuckooPathSearch(this, new CuckooPathSearch.Buckets() {
+                @Override
+                public void read(long index, long[] tags) {
+                    long word = buckets.get((int) index);
+                    for (int pos = 0; pos < BUCKET_SIZE; pos++) {
+                        tags[pos] = slot(word, pos);
+                    }
+                }
+
+                @Override
+                public boolean replace(long index, long expected, long tag) {
+                    return LocalFilterTable.this.replace(index, expected, tag);
+                }
+            }, MAX_BFS_NODES);
+        }
+        for (int retry = 0; retry < MAX_BFS_RETRIES; retry++) {
+            int kicks = pathSearch.put(curIndex, altIndex, tag);
+            if (kicks >= 0) {
+                return kicks;
+            }
+            if (kicks == CuckooPathSearch.NO_PATH) {
+                victim = new Victim(curIndex, tag);
+                return MAX_TRY_CUCKOO_COUNT;
+            }
+        }
+        return randomWalkPut(curIndex, altIndex, tag);
+    }
+
+    private boolean insert(long curIndex, long tag) {
+        // 空槽的值为0
+        return replace(curIndex, 0, tag);
+    }
+
+    /**
+     * 将桶中第一个值为expected的槽改为tag
+     */
+    private boolean replace(long curIndex, long expected, long tag) {
+        int index = (int) curIndex;
+        while (true) {
+            long word = buckets.get(index);
+            int pos = indexOf(word, expected);
+            if (pos < 0) {
+                return false;
+            }
+            if (buckets.compareAndSet(index, word, withSlot(word, pos, tag))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 将指纹写入指定槽，返回槽中原来的指纹
+     */
+    private long swap(int index, int pos, long tag) {
+        while (true) {
+            long word = buckets.get(index);
+            if (buckets.compareAndSet(index, word, withSlot(word, pos, tag))) {
+                return slot(word, pos);
+            }
+        }
+    }
+
+    @Override
+    public boolean delete(long curIndex, long altIndex, long tag) {
+        int seq = kickSeq;
+        if (delete(curIndex, tag) || delete(altIndex, tag)) {
+            restoreVictim();
+            return true;
+        }
+        if ((seq & 1) != 0 || seq != kickSeq) {
+            // 与putIfAbsent相同，剔除中移动的指纹可能恰好不在查过的桶中，在kickLock中重新删除
+            synchronized (kickLock) {
+                if (delete(curIndex, tag) || delete(altIndex, tag)) {
+                    restoreVictim();
+                    return true;
+                }
+            }
+        }
+        if (isVictim(curIndex, altIndex, tag)) {
+            synchronized (kickLock) {
+                if (isVictim(curIndex, altIndex, tag)) {
+                    victim = null;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public boolean delete(long curIndex, long tag) {
+        return replace(curIndex, tag, 0);
+    }
+
+    /**
+     * 删除腾出了空槽，尝试将victim放回它的桶中
+     */
+    private void restoreVictim() {
+        if (victim != null) {
+            synchronized (kickLock) {
+                Victim current = victim;
+                if (current != null && (insert(current.index, current.tag)
+                        || insert(altHashIndex(current.index, current.tag), current.tag))) {
+                    victim = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * 查询前后kickSeq不变且为偶数时不存在的结果才可信，否则在kickLock中重新查询
+     */
+    @Override
+    public boolean contain(long curIndex, long altIndex, long tag) {
+        int seq = kickSeq;
+        if (containNow(curIndex, altIndex, tag)) {
+            return true;
+        }
+        if ((seq & 1) == 0 && seq == kickSeq) {
+            return false;
+        }
+        synchronized (kickLock) {
+            return containNow(curIndex, altIndex, tag);
+        }
+    }
+
+    private boolean containNow(long curIndex, long altIndex, long tag) {
+        return matches(buckets.get((int) curIndex), tag) || matches(buckets.get((int) altIndex), tag)
+                || isVictim(curIndex, altIndex, tag);
+    }
+
+    /**
+     * 直接由hash计算下标和指纹，不生成中间数组；普通编码时一次比较整个桶，victim在开始时读取一次。
+     * 各元素的查询互不依赖，大表中相邻几次查询的缓存未命中由CPU乱序执行重叠
+     */
+    @Override
+    public boolean[] containAll(long[] hashes) {
+        boolean[] results = new boolean[hashes.length];
+        int seq = kickSeq;
+        Victim current = victim;
+        for (int i = 0; i < hashes.length; i++) {
+            long curIndex = hashIndex(hashes[i]);
+            long tag = getFingerprint(hashes[i]);
+            long altIndex = altHashIndex(curIndex, tag);
+            results[i] = matches(buckets.get((int) curIndex), tag) || matches(buckets.get((int) altIndex), tag)
+                    || isVictim(current, curIndex, altIndex, tag);
+        }
+        if ((seq & 1) != 0 || seq != kickSeq) {
+            // 期间有剔除，不存在的结果逐个在kickLock中重新查询
+            for (int i = 0; i < hashes.length; i++) {
+                if (!results[i]) {
+                    long curIndex = hashIndex(hashes[i]);
+                    long tag = getFingerprint(hashes[i]);
+                    results[i] = contain(curIndex, altHashIndex(curIndex, tag), tag);
+                }
+            }
+        }
+        return results;
+    }
+
+    private boolean matches(long word, long tag) {
+        return encoding == BucketEncoding.SEMI_SORTED ? indexOf(word, tag) >= 0 : containsTag16(word, tag);
+    }
+
+    @Override
+    public boolean hasVictim() {
+        return victim != null;
+    }
+
+    private boolean isVictim(long curIndex, long altIndex, long tag) {
+        return isVictim(victim, curIndex, altIndex, tag);
+    }
+
+    private static boolean isVictim(Victim current, long curIndex, long altIndex, long tag) {
+        return current != null && current.tag == tag && (current.index == curIndex || current.index == altIndex);
+    }
+
+    private static final class Victim {
+        private final long index;
+        private final long tag;
+
+        private Victim(long index, long tag) {
+            this.index = index;
+            this.tag = tag;
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package com.asdust.cuckoofilter.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/10/16 15:10
+ * @desc: 存放在本地文件中的桶存储，通过mmap映射到内存，进程重启后直接映射已有文件，不需要重新写入元素，
+ * 内存由操作系统的页缓存管理，不占用堆内存。
+ * <p>
+ * 文件由4KB的文件头和数据区组成，文件头保存结构、victim和元素个数，数据区与redis的bitmap格式相同：每个桶8个字节，
+ * 槽j为桶内第2j个字节起的16位大端整数，可以直接导入redis。单个MappedByteBuffer不能超过2GB，数据区按1GB分段映射。
+ * <p>
+ * 桶按下标分到若干StampedLock上，查询使用乐观读，写入槽时加写锁；剔除过程和victim的修改与LocalFilterTable一样在kickLock中串行执行。
+ * 写入只保证进入页缓存，调用checkpoint或close后才保证落盘；元素个数在内存中计数，checkpoint时写入文件头
+ */
+public class MappedFilterTable extends AbstractFilterTable implements Closeable {
+    /**
+     * 文件头的魔数："CKOOFLT1"
+     */
+    private static final long MAGIC = 0x434B4F4F464C5431L;
+
+    private static final int HEADER_BYTES = 4096;
+
+    private static final int MAGIC_OFFSET = 0;
+
+    private static final int BUCKET_SIZE_OFFSET = 8;
+
+    private static final int BITS_PER_TAG_OFFSET = 12;
+
+    private static final int NUM_BUCKETS_OFFSET = 16;
+
+    private static final int VICTIM_INDEX_OFFSET = 24;
+
+    private static final int VICTIM_TAG_OFFSET = 32;
+
+    private static final int NUM_ITEMS_OFFSET = 40;
+
+    private static final int BYTES_PER_BUCKET = BUCKET_SIZE * BITS_PER_TAG / Byte.SIZE;
+
+    private static final long TAG_MASK = (1L << BITS_PER_TAG) - 1;
+    /**
+     * 每段映射的字节数
+     */
+    private static final int SEGMENT_SHIFT = 30;
+
+    private static final int LOCK_STRIPES = 4096;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer header;
+
+    private final MappedByteBuffer[] segments;
+
+    private final StampedLock[] locks = new StampedLock[LOCK_STRIPES];
+
+    private final Object kickLock = new Object();
+
+    /**
+     * putIfAbsent按元素加锁的分段锁
+     */
+    private final Object[] absentLocks = newAbsentLocks();
+
+    /**
+     * 剔除进行中时为奇数，只在kickLock中修改
+     */
+    private volatile int kickSeq;
+
+    /**
+     * 剔除次数用尽后最后一个被剔除的指纹，为null表示没有
+     */
+    private volatile Victim victim;
+    /**
+     * 已存放的元素个数，打开时从文件头读取
+     */
+    private final LongAdder numItems = new LongAdder();
+    /**
+     * 广度优先查找剔除路径，第一次使用时创建，只在kickLock中访问
+     */
+    private CuckooPathSearch pathSearch;
+
+    /**
+     * 打开已有的文件，结构以文件头为准；文件不存在时按estimatedMaxNumKeys创建
+     */
+    public MappedFilterTable(long estimatedMaxNumKeys, Path file) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE),
+                estimatedMaxNumKeys);
+    }
+
+    private MappedFilterTable(FileChannel channel, long estimatedMaxNumKeys) throws IOException {
+        super(readGeometry(channel, estimatedMaxNumKeys));
+        this.channel = channel;
+        boolean created = channel.size() < HEADER_BYTES;
+        long dataBytes = numBuckets * BYTES_PER_BUCKET;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        int segmentCount = (int) ((dataBytes + (1L << SEGMENT_SHIFT) - 1) >>> SEGMENT_SHIFT);
+        this.segments = new MappedByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long offset = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + offset,
+                    Math.min(1L << SEGMENT_SHIFT, dataBytes - offset));
+        }
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new StampedLock();
+        }
+        if (created) {
+            header.putInt(BUCKET_SIZE_OFFSET, bucketSize);
+            header.putInt(BITS_PER_TAG_OFFSET, bitsPerTag);
+            header.putLong(NUM_BUCKETS_OFFSET, numBuckets);
+            header.putLong(VICTIM_INDEX_OFFSET, 0);
+            header.putLong(VICTIM_TAG_OFFSET, 0);
+            header.putLong(NUM_ITEMS_OFFSET, 0);
+            // 魔数最后写入，文件头不完整的文件在下次打开时会被拒绝
+            header.putLong(MAGIC_OFFSET, MAGIC);
+            header.force();
+        }
+        long tag = header.getLong(VICTIM_TAG_OFFSET);
+        this.victim = tag == 0 ? null : new Victim(header.getLong(VICTIM_INDEX_OFFSET), tag);
+        numItems.add(header.getLong(NUM_ITEMS_OFFSET));
+    }
+
+    private static TableGeometry readGeometry(FileChannel channel, long estimatedMaxNumKeys) throws IOException {
+        if (channel.size() < HEADER_BYTES) {
+            return TableGeometry.forKeys(estimatedMaxNumKeys, BITS_PER_TAG, BUCKET_SIZE);
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        if (buffer.getLong(MAGIC_OFFSET) != MAGIC) {
+            channel.close();
+            throw new IOException("不是布谷鸟过滤器文件或文件头不完整");
+        }
+        int bucketSize = buffer.getInt(BUCKET_SIZE_OFFSET);
+        int bitsPerTag = buffer.getInt(BITS_PER_TAG_OFFSET);
+        if (bucketSize != BUCKET_SIZE || bitsPerTag != BITS_PER_TAG) {
+            channel.close();
+            throw new IOException("不支持的过滤器结构：" + bucketSize + "，" + bitsPerTag);
+        }
+        return new TableGeometry(bucketSize, bitsPerTag, buffer.getLong(NUM_BUCKETS_OFFSET));
+    }
+
+    /**
+     * 将已写入的桶、victim和元素个数刷到磁盘，返回后即使进程或系统崩溃也不会丢失
+     */
+    public void checkpoint() {
+        synchronized (kickLock) {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            header.putLong(NUM_ITEMS_OFFSET, numItems.sum());
+            header.force();
+        }
+    }
+
+    /**
+     * 刷盘后关闭文件，映射的内存在MappedByteBuffer被回收后释放
+     */
+    @Override
+    public void close() throws IOException {
+        checkpoint();
+        channel.close();
+    }
+
+    private static long tagAt(long word, int pos) {
+        return (word >>> ((BUCKET_SIZE - 1 - pos) * BITS_PER_TAG)) & TAG_MASK;
+    }
+
+    private static long withTag(long word, int pos, long tag) {
+        int shift = (BUCKET_SIZE - 1 - pos) * BITS_PER_TAG;
+        return (word & ~(TAG_MASK << shift)) | (tag << shift);
+    }
+
+    private static int indexOf(long word, long tag) {
+        for (int pos = 0; pos < BUCKET_SIZE; pos++) {
+            if (tagAt(word, pos) == tag) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private MappedByteBuffer segmentOf(long index) {
+        return segments[(int) ((index * BYTES_PER_BUCKET) >>> SEGMENT_SHIFT)];
+    }
+
+    private static int offsetOf(long index) {
+        return (int) ((index * BYTES_PER_BUCKET) & ((1L << SEGMENT_SHIFT) - 1));
+    }
+
+    private StampedLock lockOf(long index) {
+        return locks[(int) (index & (LOCK_STRIPES - 1))];
+    }
+
+    private long readBucket(long index) {
+        StampedLock lock = lockOf(index);
+        long stamp = lock.tryOptimisticRead();
+        long word = segmentOf(index).getLong(offsetOf(index));
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                word = segmentOf(index).getLong(offsetOf(index));
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return word;
+    }
+
+    @Override
+    public int put(long curIndex, long altIndex, long tag) {
+        if (insert(curIndex, tag) || insert(altIndex, tag)) {
+            numItems.increment();
+            return 0;
+        }
+        synchronized (kickLock) {
+            return countPut(kickPut(curIndex, altIndex, tag));
+        }
+    }
+
+    /**
+     * 与LocalFilterTable.putIfAbsent相同，按元素分段加锁，查询期间有剔除进行时在kickLock中重新查询
+     */
+    @Override
+    public int putIfAbsent(long curIndex, long altIndex, long tag) {
+        synchronized (absentLockOf(absentLocks, curIndex, altIndex)) {
+            int seq = kickSeq;
+            if (contain(curIndex, altIndex, tag)) {
+                return PRESENT;
+            }
+            if ((seq & 1) == 0 && seq == kickSeq && (insert(curIndex, tag) || insert(altIndex, tag))) {
+                numItems.increment();
+                return 0;
+            }
+            synchronized (kickLock) {
+                if (contain(curIndex, altIndex, tag)) {
+                    return PRESENT;
+                }
+                return countPut(kickPut(curIndex, altIndex, tag));
+            }
+        }
+    }
+
+    private int countPut(int kicks) {
+        if (kicks != PUT_FAILED) {
+            numItems.increment();
+        }
+        return kicks;
+    }
+
+    /**
+     * 只在kickLock中调用，剔除期间kickSeq为奇数
+     */
+    private int kickPut(long curIndex, long altIndex, long tag) {
+        if (victim != null) {
+            return PUT_FAILED;
+        }
+        // 等待锁期间其他线程可能删除了元素
+        if (insert(curIndex, tag) || insert(altIndex, tag)) {
+            return 0;
+        }
+        kickSeq++;
+        try {
+            if (insertStrategy == InsertStrategy.BFS) {
+                return bfsPut(curIndex, altIndex, tag);
+            }
+            return randomWalkPut(curIndex, altIndex, tag);
+        } finally {
+            kickSeq++;
+        }
+    }
+
+    /**
+     * 只在kickLock中调用，剔除次数用尽时最后被剔除的指纹放入victim
+     */
+    private int randomWalkPut(long curIndex, long altIndex, long tag) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long index = random.nextBoolean() ? curIndex : altIndex;
+        for (int kick = 1; kick <= MAX_TRY_CUCKOO_COUNT; kick++) {
+            tag = swap(index, random.nextInt(BUCKET_SIZE), tag);
+            index = altHashIndex(index, tag);
+            if (insert(index, tag)) {
+                return kick;
+            }
+        }
+        setVictim(index, tag);
+        return MAX_TRY_CUCKOO_COUNT;
+    }
+
+    /**
+     * 只在kickLock中调用，没有找到剔除路径时新指纹放入victim，路径被并发修改破坏时的处理与LocalFilterTable相同
+     */
+    private int bfsPut(long curIndex, long altIndex, long tag) {
+        if (pathSearch == null) {
+            pathSearch = new CuckooPathSearch(this, new CuckooPathSearch.Buckets() {
+                @Override
+                public void read(long index, long[] tags) {
+                    long word = readBucket(index);
+                    for (int pos = 0; pos < BUCKET_SIZE; pos++) {
+                        tags[pos] = tagAt(word, pos);
+                    }
+                }
+
+                @Override
+                public boolean replace(long index, long expected, long tag) {
+                    return MappedFilterTable.this.replace(index, expected, tag);
+                }
+            }, MAX_BFS_NODES);
+        }
+        for (int retry = 0; retry < MAX_BFS_RETRIES; retry++) {
+            int kicks = pathSearch.put(curIndex, altIndex, tag);
+            if (kicks >= 0) {
+                return kicks;
+            }
+            if (kicks == CuckooPathSearch.NO_PATH) {
+                setVictim(curIndex, tag);
+                return MAX_TRY_CUCKOO_COUNT;
+            }
+        }
+        return randomWalkPut(curIndex, altIndex, tag);
+    }
+
+    /**
+     * 修改victim并写入文件头，指纹为0表示清空，只在kickLock中调用
+     */
+    private void setVictim(long index, long tag) {
+        header.putLong(VICTIM_INDEX_OFFSET, index);
+        header.putLong(VICTIM_TAG_OFFSET, tag);
+        victim = tag == 0 ? null : new Victim(index, tag);
+    }
+
+    private boolean insert(long index, long tag) {
+        return replace(index, 0, tag);
+    }
+
+    /**
+     * 将桶中第一个值为expected的槽改为tag
+     */
+    private boolean replace(long index, long expected, long tag) {
+        StampedLock lock = lockOf(index);
+        long stamp = lock.writeLock();
+        try {
+            MappedByteBuffer segment = segmentOf(index);
+            int offset = offsetOf(index);
+            long word = segment.getLong(offset);
+            int pos = indexOf(word, expected);
+            if (pos < 0) {
+                return false;
+            }
+            segment.putLong(offset, withTag(word, pos, tag));
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 将指纹写入指定槽，返回槽中原来的指纹
+     */
+    private long swap(long index, int pos, long tag) {
+        StampedLock lock = lockOf(index);
+        long stamp = lock.writeLock();
+        try {
+            MappedByteBuffer segment = segmentOf(index);
+            int offset = offsetOf(index);
+            long word = segment.getLong(offset);
+            segment.putLong(offset, withTag(word, pos, tag));
+            return tagAt(word, pos);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean delete(long curIndex, long altIndex, long tag) {
+        int seq = kickSeq;
+        if (replace(curIndex, tag, 0) || replace(altIndex, tag, 0)) {
+            numItems.decrement();
+            restoreVictim();
+            return true;
+        }
+        if ((seq & 1) != 0 || seq != kickSeq) {
+            // 剔除中移动的指纹可能恰好不在查过的桶中，在kickLock中重新删除
+            synchronized (kickLock) {
+                if (replace(curIndex, tag, 0) || replace(altIndex, tag, 0)) {
+                    numItems.decrement();
+                    restoreVictim();
+                    return true;
+                }
+            }
+        }
+        if (isVictim(curIndex, altIndex, tag)) {
+            synchronized (kickLock) {
+                if (isVictim(curIndex, altIndex, tag)) {
+                    numItems.decrement();
+                    setVictim(0, 0);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 删除腾出了空槽，尝试将victim放回它的桶中
+     */
+    private void restoreVictim() {
+        if (victim != null) {
+            synchronized (kickLock) {
+                Victim current = victim;
+                if (current != null && (insert(current.index, current.tag)
+                        || insert(altHashIndex(current.index, current.tag), current.tag))) {
+                    setVictim(0, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * 查询前后kickSeq不变且为偶数时不存在的结果才可信，否则在kickLock中重新查询
+     */
+    @Override
+    public boolean contain(long curIndex, long altIndex, long tag) {
+        int seq = kickSeq;
+        if (containNow(curIndex, altIndex, tag)) {
+            return true;
+        }
+        if ((seq & 1) == 0 && seq == kickSeq) {
+            return false;
+        }
+        synchronized (kickLock) {
+            return containNow(curIndex, altIndex, tag);
+        }
+    }
+
+    private boolean containNow(long curIndex, long altIndex, long tag) {
+        return containsTag16(readBucket(curIndex), tag) || containsTag16(readBucket(altIndex), tag)
+                || isVictim(curIndex, altIndex, tag);
+    }
+
+    /**
+     * 已存放的元素个数，包括重新打开前写入的；崩溃后重新打开时为上次checkpoint时的个数
+     */
+    @Override
+    public long size() {
+        return numItems.sum();
+    }
+
+    @Override
+    public boolean hasVictim() {
+        return victim != null;
+    }
+
+    private boolean isVictim(long curIndex, long altIndex, long tag) {
+        Victim current = victim;
+        return current != null && current.tag == tag && (current.index == curIndex || current.index == altIndex);
+    }
+
+    private static final class Victim {
+        private final long index;
+        private final long tag;
+
+        private Victim(long index, long tag) {
+            this.index = index;
+            this.tag = tag;
+        }
+    }
+}
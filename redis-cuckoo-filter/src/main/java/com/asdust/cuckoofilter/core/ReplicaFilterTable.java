@@ -0,0 +1,388 @@
+package com.asdust.cuckoofilter.core;
+
+import com.asdust.cuckoofilter.metrics.FilterMetrics;
+import com.asdust.cuckoofilter.redis.RedisConfig;
+import com.asdust.cuckoofilter.redis.RedisUtils;
+import org.redisson.api.RAtomicLong;
+import org.redisson.api.RTopic;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/9/3 16:40
+ * @desc: 在本地内存中保存redis过滤器的完整副本，写操作仍然在redis中执行，读操作直接查询本地副本。
+ * <p>
+ * 启动时按块GETRANGE加载整个bitmap，之后通过订阅FilterTable发布的桶变更保持同步。变更带有连续的序号，
+ * 发现序号不连续，或redis端的序号在一个检查周期内没有被应用到本地时，重新加载整个bitmap，
+ * 重新同步期间读操作转发到redis。本地副本最多落后redis约两个检查周期。
+ * victim的变化同样以变更发布，重新加载时一并读取。
+ * 所有写同一个key的客户端都需要开启RedisConfig的publishChanges。
+ * <p>
+ * 结构以redis元数据中保存的为准，本地副本只支持LocalFilterTable能存放的结构：桶大小为4，16位普通编码或17位半排序编码，
+ * 桶个数可以不是2的整数次幂；其他结构在创建时拒绝。
+ */
+public class ReplicaFilterTable extends AbstractFilterTable {
+    private static final Logger log = LoggerFactory.getLogger(ReplicaFilterTable.class);
+    /**
+     * 每次GETRANGE读取的字节数
+     */
+    private static final int LOAD_CHUNK_BYTES = 4 * 1024 * 1024;
+    /**
+     * 普通编码时redis中每个槽占用的字节数
+     */
+    private static final int BYTES_PER_TAG = BITS_PER_TAG / Byte.SIZE;
+
+    private static final String VICTIM = "victim";
+
+    private final FilterTable remote;
+
+    private final LocalFilterTable local;
+
+    /**
+     * redis中每个桶占用的字节数，两种编码都是8个字节
+     */
+    private final int bytesPerBucket;
+
+    private final RAtomicLong changeSeq;
+
+    private final RTopic changeTopic;
+
+    private final int listenerId;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Object lock = new Object();
+    /**
+     * 重新同步期间收到的变更，加载完成后按序号回放
+     */
+    private final List<String> pending = new ArrayList<>();
+    /**
+     * 已应用到本地副本的最大变更序号
+     */
+    private volatile long appliedSeq;
+    /**
+     * 本地副本是否可用
+     */
+    private volatile boolean synced;
+    /**
+     * 上一次检查时redis端的变更序号，只在检查线程中访问
+     */
+    private long checkpointSeq = -1;
+
+    /**
+     * @param maxStalenessMillis 检查本地副本是否落后的周期
+     */
+    public ReplicaFilterTable(long estimatedMaxNumKeys, RedisConfig redisConfig, long maxStalenessMillis) {
+        this(openRemote(estimatedMaxNumKeys, redisConfig), maxStalenessMillis);
+    }
+
+    private ReplicaFilterTable(FilterTable remote, long maxStalenessMillis) {
+        super(remote.getGeometry());
+        this.remote = remote;
+        this.local = new LocalFilterTable(remote.getGeometry());
+        this.bytesPerBucket = (int) (remote.getGeometry().getBucketBits() / Byte.SIZE);
+        this.changeSeq = remote.getRedisUtils().getAtomicLong(remote.getChangeKey());
+        this.changeTopic = remote.getRedisUtils().getTopic(remote.getChangeKey(), StringCodec.INSTANCE);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cuckoo-replica-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 先订阅再加载，加载期间的变更会被缓存下来
+        this.listenerId = changeTopic.addListener(String.class, (channel, msg) -> onChange(msg));
+        resync();
+        scheduler.scheduleWithFixedDelay(this::checkStaleness, maxStalenessMillis, maxStalenessMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 按redis元数据中的结构打开远程过滤器，元数据不存在时保存按期望元素个数计算的结构
+     */
+    private static FilterTable openRemote(long estimatedMaxNumKeys, RedisConfig redisConfig) {
+        if (!redisConfig.isPublishChanges()) {
+            throw new IllegalArgumentException("本地副本需要开启RedisConfig的publishChanges");
+        }
+        RedisUtils redisUtils = FilterTable.connect(redisConfig);
+        TableGeometry geometry = FilterTable.loadGeometry(redisUtils, redisConfig.getRedisBitKey(),
+                LocalFilterTable.geometryFor(estimatedMaxNumKeys, BucketEncoding.PLAIN));
+        if (!LocalFilterTable.supports(geometry)) {
+            throw new IllegalArgumentException("本地副本不支持的结构：" + geometry);
+        }
+        return new FilterTable(geometry, false, redisUtils, redisConfig.getRedisBitKey(), true);
+    }
+
+    /**
+     * 停止同步并取消订阅
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        changeTopic.removeListener(listenerId);
+    }
+
+    public boolean isSynced() {
+        return synced;
+    }
+
+    private void onChange(String msg) {
+        synchronized (lock) {
+            if (!synced) {
+                pending.add(msg);
+                return;
+            }
+            long seq = parseSeq(msg);
+            if (seq <= appliedSeq) {
+                return;
+            }
+            if (seq != appliedSeq + 1) {
+                log.warn("布谷鸟过滤器变更序号不连续，本地序号：{}，收到序号：{}，重新同步", appliedSeq, seq);
+                synced = false;
+                scheduler.execute(this::resync);
+                return;
+            }
+            apply(msg);
+            appliedSeq = seq;
+        }
+    }
+
+    private void checkStaleness() {
+        try {
+            long remoteSeq = changeSeq.get();
+            if (!synced || (checkpointSeq >= 0 && appliedSeq < checkpointSeq)) {
+                log.warn("布谷鸟过滤器本地副本落后，本地序号：{}，redis序号：{}，重新同步", appliedSeq, remoteSeq);
+                resync();
+                checkpointSeq = -1;
+                return;
+            }
+            checkpointSeq = remoteSeq;
+        } catch (Exception e) {
+            log.warn("布谷鸟过滤器本地副本检查失败", e);
+        }
+    }
+
+    /**
+     * 重新加载整个bitmap，先记下redis端的序号再加载，序号之后的变更在加载完成后回放
+     */
+    private void resync() {
+        synchronized (lock) {
+            synced = false;
+            pending.clear();
+        }
+        long baseSeq = changeSeq.get();
+        long totalBytes = numBuckets * bytesPerBucket;
+        for (long offset = 0; offset < totalBytes; offset += LOAD_CHUNK_BYTES) {
+            int length = (int) Math.min(LOAD_CHUNK_BYTES, totalBytes - offset);
+            loadChunk(offset / bytesPerBucket, remote.readRange(offset, length), length / bytesPerBucket);
+        }
+        long[] victim = remote.readVictim();
+        if (victim == null) {
+            local.setVictim(0, 0);
+        } else {
+            local.setVictim(victim[0], victim[1]);
+        }
+        synchronized (lock) {
+            appliedSeq = baseSeq;
+            pending.sort(Comparator.comparingLong(ReplicaFilterTable::parseSeq));
+            for (String msg : pending) {
+                long seq = parseSeq(msg);
+                if (seq <= appliedSeq) {
+                    continue;
+                }
+                if (seq != appliedSeq + 1) {
+                    // 同步期间也丢失了变更，等待下一次检查再重新同步
+                    pending.clear();
+                    return;
+                }
+                apply(msg);
+                appliedSeq = seq;
+            }
+            pending.clear();
+            synced = true;
+        }
+        log.info("布谷鸟过滤器本地副本同步完成，序号：{}", appliedSeq);
+    }
+
+    private void loadChunk(long firstBucket, byte[] data, int bucketCount) {
+        for (int i = 0; i < bucketCount; i++) {
+            // 超出bitmap长度的部分为空槽，redis的BITFIELD从每个字节的最高位开始编号，整个桶按大端读出
+            long bits = 0;
+            for (int b = 0; b < bytesPerBucket; b++) {
+                int byteIndex = i * bytesPerBucket + b;
+                bits = (bits << Byte.SIZE) | (byteIndex < data.length ? data[byteIndex] & 0xFF : 0);
+            }
+            local.setBucket(firstBucket + i, encoding == BucketEncoding.SEMI_SORTED ? semiSortedWord(bits) : plainWord(bits));
+        }
+    }
+
+    /**
+     * redis中槽j为从高位开始的第j个16位，本地槽j为从低位开始的第j个16位
+     */
+    private static long plainWord(long bits) {
+        long word = 0;
+        for (int pos = 0; pos < BUCKET_SIZE; pos++) {
+            word = LocalFilterTable.withTag(word, pos, (bits >>> ((BUCKET_SIZE - 1 - pos) * BITS_PER_TAG)) & 0xFFFF);
+        }
+        return word;
+    }
+
+    /**
+     * redis中从高位开始依次为12位序号和4个低位，本地从低位开始依次存放，序号的计算方式相同，见SemiSortedCodec
+     */
+    private long semiSortedWord(long bits) {
+        int lowBits = bitsPerTag - 4;
+        long lowMask = (1L << lowBits) - 1;
+        long word = bits >>> (Long.SIZE - SemiSortedCodec.INDEX_BITS);
+        for (int pos = 0; pos < SemiSortedCodec.BUCKET_SIZE; pos++) {
+            long low = (bits >>> (Long.SIZE - SemiSortedCodec.INDEX_BITS - (pos + 1) * lowBits)) & lowMask;
+            word |= low << (SemiSortedCodec.INDEX_BITS + pos * lowBits);
+        }
+        return word;
+    }
+
+    /**
+     * 变更格式为 序号:桶下标:各槽指纹(逗号分隔)，victim的变更格式为 序号:victim:桶下标,指纹，指纹为0表示victim被清空
+     */
+    private void apply(String msg) {
+        String[] parts = msg.split(":");
+        if (VICTIM.equals(parts[1])) {
+            String[] victim = parts[2].split(",");
+            local.setVictim(Long.parseLong(victim[0]), Long.parseLong(victim[1]));
+            return;
+        }
+        long index = Long.parseLong(parts[1]);
+        String[] values = parts[2].split(",");
+        long[] tags = new long[BUCKET_SIZE];
+        for (int pos = 0; pos < values.length; pos++) {
+            tags[pos] = Long.parseLong(values[pos]);
+        }
+        if (encoding == BucketEncoding.SEMI_SORTED) {
+            local.setBucket(index, SemiSortedCodec.encode(tags[0], tags[1], tags[2], tags[3], bitsPerTag));
+            return;
+        }
+        long word = 0;
+        for (int pos = 0; pos < BUCKET_SIZE; pos++) {
+            word = LocalFilterTable.withTag(word, pos, tags[pos]);
+        }
+        local.setBucket(index, word);
+    }
+
+    private static long parseSeq(String msg) {
+        return Long.parseLong(msg.substring(0, msg.indexOf(':')));
+    }
+
+    @Override
+    public int put(long curIndex, long altIndex, long tag) {
+        return remote.put(curIndex, altIndex, tag);
+    }
+
+    /**
+     * 本地副本可能落后，查询和写入都在redis中完成
+     */
+    @Override
+    public int putIfAbsent(long curIndex, long altIndex, long tag) {
+        return remote.putIfAbsent(curIndex, altIndex, tag);
+    }
+
+    @Override
+    public boolean delete(long curIndex, long altIndex, long tag) {
+        return remote.delete(curIndex, altIndex, tag);
+    }
+
+    @Override
+    public boolean contain(long curIndex, long altIndex, long tag) {
+        return synced ? local.contain(curIndex, altIndex, tag) : remote.contain(curIndex, altIndex, tag);
+    }
+
+    /**
+     * redis中维护的元素个数，每次调用访问一次redis
+     */
+    @Override
+    public long size() {
+        return remote.size();
+    }
+
+    @Override
+    public boolean hasVictim() {
+        return synced ? local.hasVictim() : remote.hasVictim();
+    }
+
+    /**
+     * 只有转发到redis的操作产生网络往返
+     */
+    @Override
+    public void setMetrics(FilterMetrics metrics) {
+        remote.setMetrics(metrics);
+    }
+
+    /**
+     * 写入都转发到redis，由redis中的脚本腾出空槽
+     */
+    @Override
+    public void setInsertStrategy(InsertStrategy insertStrategy) {
+        super.setInsertStrategy(insertStrategy);
+        remote.setInsertStrategy(insertStrategy);
+    }
+
+    @Override
+    public CompletionStage<Integer> putAsync(long curIndex, long altIndex, long tag) {
+        return remote.putAsync(curIndex, altIndex, tag);
+    }
+
+    @Override
+    public CompletionStage<Integer> putIfAbsentAsync(long curIndex, long altIndex, long tag) {
+        return remote.putIfAbsentAsync(curIndex, altIndex, tag);
+    }
+
+    @Override
+    public CompletionStage<Boolean> deleteAsync(long curIndex, long altIndex, long tag) {
+        return remote.deleteAsync(curIndex, altIndex, tag);
+    }
+
+    @Override
+    public CompletionStage<Boolean> containAsync(long curIndex, long altIndex, long tag) {
+        if (synced) {
+            return CompletableFuture.completedFuture(local.contain(curIndex, altIndex, tag));
+        }
+        return remote.containAsync(curIndex, altIndex, tag);
+    }
+
+    @Override
+    public boolean[] putAll(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return remote.putAll(curIndexes, altIndexes, tags);
+    }
+
+    @Override
+    public boolean[] deleteAll(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return remote.deleteAll(curIndexes, altIndexes, tags);
+    }
+
+    @Override
+    public boolean[] containAll(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return synced ? local.containAll(curIndexes, altIndexes, tags) : remote.containAll(curIndexes, altIndexes, tags);
+    }
+
+    @Override
+    public CompletionStage<boolean[]> putAllAsync(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return remote.putAllAsync(curIndexes, altIndexes, tags);
+    }
+
+    @Override
+    public CompletionStage<boolean[]> deleteAllAsync(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return remote.deleteAllAsync(curIndexes, altIndexes, tags);
+    }
+
+    @Override
+    public CompletionStage<boolean[]> containAllAsync(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return synced ? local.containAllAsync(curIndexes, altIndexes, tags)
+                : remote.containAllAsync(curIndexes, altIndexes, tags);
+    }
+}
@@ -0,0 +1,165 @@
+package com.asdust.cuckoofilter.core;
+
+import com.asdust.cuckoofilter.redis.LuaScripts;
+import com.asdust.cuckoofilter.redis.RedisUtils;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/10/24 15:20
+ * @desc: 可以在线扩容的redis过滤器，每次扩容将桶个数加倍，不需要原始的key，扩容期间读写照常进行。
+ * <p>
+ * 槽的位数不变，每次扩容从指纹中取出一位用来选择新旧两个桶，第k次扩容后每个元素的比较位数为 bitsPerTag - k，
+ * 误判率随之加倍。扩容按桶的顺序分段迁移，元数据中的splitPointer记录迁移的进度，每段在一个lua脚本中完成，
+ * 写入和查询的脚本按进度判断桶已迁移还是未迁移，迁移的目标桶在迁移前为空，不会因迁移而溢出。
+ * 多个客户端同时扩容时只有一个生效，中断的扩容由下一次resize继续。
+ * <p>
+ * 只支持随机剔除，不支持变更发布、快照、批量构建和ReplicaFilterTable；比较位数少于MIN_TAG_BITS或bitmap超过redis
+ * 字符串512MB的上限时拒绝扩容
+ */
+public class ResizableFilterTable extends FilterTable {
+    private static final Logger log = LoggerFactory.getLogger(ResizableFilterTable.class);
+    /**
+     * 扩容后每个元素至少保留的比较位数
+     */
+    public static final int MIN_TAG_BITS = 4;
+    /**
+     * redis字符串的最大位数
+     */
+    private static final long MAX_BITMAP_BITS = 512L * 1024 * 1024 * Byte.SIZE;
+    /**
+     * 每个迁移脚本处理的桶个数，脚本执行期间阻塞redis，不宜过大
+     */
+    private static final int STEP_BUCKETS = 1024;
+
+    private static final String SPLITS = "splits";
+
+    private static final String SPLIT_POINTER = "splitPointer";
+
+    /**
+     * 最近一次读到的扩容次数，resize、getSplits和size时从redis中刷新
+     */
+    private volatile int splits;
+
+    public ResizableFilterTable(TableGeometry geometry, RedisUtils redisUtils, String redisBitKey) {
+        super(geometry, false, redisUtils, redisBitKey, false, true);
+        this.splits = Integer.parseInt(readSplitState().getOrDefault(SPLITS, "0"));
+    }
+
+    @Override
+    public void setInsertStrategy(InsertStrategy insertStrategy) {
+        if (insertStrategy != InsertStrategy.RANDOM_WALK) {
+            throw new UnsupportedOperationException("可扩容的过滤器只支持随机剔除：" + insertStrategy);
+        }
+        super.setInsertStrategy(insertStrategy);
+    }
+
+    /**
+     * 已完成的扩容次数，从redis中读取，包括其他客户端完成的扩容
+     */
+    public int getSplits() {
+        splits = Integer.parseInt(readSplitState().getOrDefault(SPLITS, "0"));
+        return splits;
+    }
+
+    /**
+     * 当前的桶个数，即初始桶个数 * 2^扩容次数，扩容次数为最近一次读到的
+     */
+    public long getCurrentNumBuckets() {
+        return numBuckets << splits;
+    }
+
+    /**
+     * 当前的比较位数，每次扩容减少一位
+     */
+    public int getCurrentBitsPerTag() {
+        return bitsPerTag - splits;
+    }
+
+    /**
+     * 与扩容次数一起读取，其他客户端完成扩容后，之后的负载因子和误判率按新的桶个数和比较位数计算
+     */
+    @Override
+    public long size() {
+        Map<String, String> state = getRedisUtils().<String, String>getMap(getMetaKey(), StringCodec.INSTANCE)
+                .getAll(new HashSet<>(Arrays.asList(NUM_ITEMS, SPLITS)));
+        splits = Integer.parseInt(state.getOrDefault(SPLITS, "0"));
+        return Long.parseLong(state.getOrDefault(NUM_ITEMS, "0"));
+    }
+
+    @Override
+    public long getMaxItems() {
+        return super.getMaxItems() << splits;
+    }
+
+    /**
+     * 将桶个数加倍，阻塞直到迁移完成
+     *
+     * @return 完成后的扩容次数
+     */
+    public int resize() {
+        return join(resizeAsync());
+    }
+
+    /**
+     * 将桶个数加倍，有中断的扩容时先完成该次扩容。迁移分段进行，每段一个脚本，段与段之间其他请求可以执行
+     *
+     * @return 完成后的扩容次数
+     */
+    public CompletionStage<Integer> resizeAsync() {
+        return getRedisUtils().<String, String>getMap(getMetaKey(), StringCodec.INSTANCE)
+                .getAllAsync(new HashSet<>(Arrays.asList(SPLITS, SPLIT_POINTER)))
+                .thenCompose(state -> {
+                    int current = Integer.parseInt(state.getOrDefault(SPLITS, "0"));
+                    if (state.containsKey(SPLIT_POINTER)) {
+                        log.info("布谷鸟过滤器继续第{}次扩容，从桶{}开始", current + 1, state.get(SPLIT_POINTER));
+                        return step(-1);
+                    }
+                    checkCapacity(current);
+                    log.info("布谷鸟过滤器开始第{}次扩容，桶个数{}", current + 1, numBuckets << (current + 1));
+                    return step(current);
+                })
+                .thenApply(result -> {
+                    splits = result;
+                    return result;
+                });
+    }
+
+    private void checkCapacity(int current) {
+        if (bitsPerTag - current - 1 < MIN_TAG_BITS) {
+            throw new IllegalStateException("扩容后比较位数少于" + MIN_TAG_BITS + "，已扩容" + current + "次");
+        }
+        if ((numBuckets << (current + 1)) > MAX_BITMAP_BITS / getGeometry().getBucketBits()) {
+            throw new IllegalStateException("扩容后bitmap超过512MB，已扩容" + current + "次");
+        }
+    }
+
+    /**
+     * 迁移一段桶，未完成时继续迁移下一段
+     */
+    private CompletionStage<Integer> step(int expected) {
+        CompletableFuture<List<Object>> result = evalWriteAsync(LuaScripts.SPLIT_STEP, expected, STEP_BUCKETS)
+                .toCompletableFuture();
+        return result.thenCompose(values -> {
+            int done = ((Long) values.get(0)).intValue();
+            if ((Long) values.get(1) < 0) {
+                return CompletableFuture.completedFuture(done);
+            }
+            return step(-1);
+        });
+    }
+
+    private Map<String, String> readSplitState() {
+        return getRedisUtils().<String, String>getMap(getMetaKey(), StringCodec.INSTANCE)
+                .getAll(new HashSet<>(Arrays.asList(SPLITS, SPLIT_POINTER)));
+    }
+}
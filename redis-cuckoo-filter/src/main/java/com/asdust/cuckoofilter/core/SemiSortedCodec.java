@@ -0,0 +1,143 @@
+package com.asdust.cuckoofilter.core;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/10/8 14:20
+ * @desc: 半排序桶编码(Cuckoo Filter论文中的semi-sorting)。桶内4个指纹按从小到大排序后，各取最高4位组成一个有序的四元组，
+ * 这样的四元组只有C(19,4)=3876种，用12位的序号代替4个4位的高位，每个桶节省4位，即每个元素节省1位。
+ * <p>
+ * 编码后的桶：低12位为序号，之后依次为排序后各指纹去掉最高4位的低位部分，槽j的低位从第 12 + j * (指纹位数 - 4) 位开始。
+ * 序号为四元组(a<=b<=c<=d)对应的组合(a, b+1, c+2, d+3)的colex序：C(a,1) + C(b+1,2) + C(c+2,3) + C(d+3,4)，
+ * redis的lua脚本中用同样的公式计算，两边的编码一致。空槽的指纹为0，空桶编码后也为0
+ */
+public final class SemiSortedCodec {
+    /**
+     * 每个桶的槽数，只支持4
+     */
+    public static final int BUCKET_SIZE = 4;
+    /**
+     * 序号占用的位数
+     */
+    public static final int INDEX_BITS = 12;
+    /**
+     * 每个指纹参与排序编码的高位数
+     */
+    private static final int NIBBLE_BITS = 4;
+    /**
+     * 四元组的个数
+     */
+    private static final int COMBINATIONS = 3876;
+    /**
+     * 排序后的四元组(每个4位，从低到高依次为a、b、c、d)到序号
+     */
+    private static final short[] ENCODE = new short[1 << 16];
+    /**
+     * 序号到排序后的四元组
+     */
+    private static final char[] DECODE = new char[COMBINATIONS];
+
+    static {
+        for (int a = 0; a < 16; a++) {
+            for (int b = a; b < 16; b++) {
+                for (int c = b; c < 16; c++) {
+                    for (int d = c; d < 16; d++) {
+                        int rank = binomial(a, 1) + binomial(b + 1, 2) + binomial(c + 2, 3) + binomial(d + 3, 4);
+                        int nibbles = a | b << 4 | c << 8 | d << 12;
+                        ENCODE[nibbles] = (short) rank;
+                        DECODE[rank] = (char) nibbles;
+                    }
+                }
+            }
+        }
+    }
+
+    private SemiSortedCodec() {
+    }
+
+    private static int binomial(int n, int k) {
+        if (n < k) {
+            return 0;
+        }
+        int result = 1;
+        for (int i = 1; i <= k; i++) {
+            result = result * (n - k + i) / i;
+        }
+        return result;
+    }
+
+    /**
+     * 编码后每个桶占用的位数
+     */
+    public static int bucketBits(int bitsPerTag) {
+        return INDEX_BITS + BUCKET_SIZE * (bitsPerTag - NIBBLE_BITS);
+    }
+
+    /**
+     * 从编码后的桶中取出第pos个指纹(按从小到大的顺序)
+     */
+    public static long tagAt(long bucket, int pos, int bitsPerTag) {
+        int lowBits = bitsPerTag - NIBBLE_BITS;
+        long nibble = (DECODE[(int) (bucket & ((1 << INDEX_BITS) - 1))] >>> (pos * NIBBLE_BITS)) & 0xF;
+        long low = (bucket >>> (INDEX_BITS + pos * lowBits)) & ((1L << lowBits) - 1);
+        return nibble << lowBits | low;
+    }
+
+    /**
+     * 将第pos个指纹替换为tag后重新排序编码
+     */
+    public static long withTag(long bucket, int pos, long tag, int bitsPerTag) {
+        long t0 = pos == 0 ? tag : tagAt(bucket, 0, bitsPerTag);
+        long t1 = pos == 1 ? tag : tagAt(bucket, 1, bitsPerTag);
+        long t2 = pos == 2 ? tag : tagAt(bucket, 2, bitsPerTag);
+        long t3 = pos == 3 ? tag : tagAt(bucket, 3, bitsPerTag);
+        return encode(t0, t1, t2, t3, bitsPerTag);
+    }
+
+    /**
+     * 已从小到大排序的4个指纹的高4位组成的四元组的序号
+     */
+    public static int index(long t0, long t1, long t2, long t3, int bitsPerTag) {
+        int lowBits = bitsPerTag - NIBBLE_BITS;
+        return ENCODE[(int) (t0 >>> lowBits | (t1 >>> lowBits) << 4 | (t2 >>> lowBits) << 8 | (t3 >>> lowBits) << 12)];
+    }
+
+    /**
+     * 编码4个指纹，不要求有序。编码结果需要放进一个long，指纹位数不能超过17
+     */
+    public static long encode(long t0, long t1, long t2, long t3, int bitsPerTag) {
+        // 5次比较交换的排序网络
+        long x;
+        if (t0 > t1) {
+            x = t0;
+            t0 = t1;
+            t1 = x;
+        }
+        if (t2 > t3) {
+            x = t2;
+            t2 = t3;
+            t3 = x;
+        }
+        if (t0 > t2) {
+            x = t0;
+            t0 = t2;
+            t2 = x;
+        }
+        if (t1 > t3) {
+            x = t1;
+            t1 = t3;
+            t3 = x;
+        }
+        if (t1 > t2) {
+            x = t1;
+            t1 = t2;
+            t2 = x;
+        }
+        int lowBits = bitsPerTag - NIBBLE_BITS;
+        long lowMask = (1L << lowBits) - 1;
+        return index(t0, t1, t2, t3, bitsPerTag)
+                | (t0 & lowMask) << INDEX_BITS
+                | (t1 & lowMask) << (INDEX_BITS + lowBits)
+                | (t2 & lowMask) << (INDEX_BITS + 2 * lowBits)
+                | (t3 & lowMask) << (INDEX_BITS + 3 * lowBits);
+    }
+}
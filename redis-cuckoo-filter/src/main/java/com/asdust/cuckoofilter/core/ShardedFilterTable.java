@@ -0,0 +1,264 @@
+package com.asdust.cuckoofilter.core;
+
+import com.asdust.cuckoofilter.metrics.FilterMetrics;
+import com.asdust.cuckoofilter.redis.RedisConfig;
+import com.asdust.cuckoofilter.redis.RedisUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/9/17 10:05
+ * @desc: 将桶分散到多个redis key中，第i个分片的key为 redisBitKey:i，集群模式下不同分片落在不同的slot，分布到各个master上，
+ * 不再受单个string 512MB的限制。全局桶下标的高位为分片号，低位为分片内的下标，
+ * 两个候选桶总是在同一个分片内，剔除过程可以在分片的lua脚本中完成。批量操作按分片拆分后并行发送。
+ * 分片也可以由调用方创建，如进程内的LocalFilterTable
+ */
+public class ShardedFilterTable extends AbstractFilterTable {
+
+    private final AbstractFilterTable[] shards;
+    /**
+     * 每个分片的桶个数
+     */
+    private final long shardBuckets;
+
+    private final int shardShift;
+
+    /**
+     * @param shardCount 分片个数，必须为2的整数次幂
+     */
+    public ShardedFilterTable(long estimatedMaxNumKeys, RedisConfig redisConfig, int shardCount) {
+        this(connectShards(TableGeometry.forKeys(estimatedMaxNumKeys, BITS_PER_TAG, BUCKET_SIZE), redisConfig, shardCount));
+    }
+
+    /**
+     * @param shards 结构相同的分片，个数必须为2的整数次幂，每个分片的桶个数必须为2的整数次幂
+     */
+    public ShardedFilterTable(AbstractFilterTable... shards) {
+        super(combinedGeometry(shards));
+        this.shards = shards;
+        this.shardBuckets = shards[0].getNumBuckets();
+        this.shardShift = Long.numberOfTrailingZeros(shardBuckets);
+    }
+
+    private static AbstractFilterTable[] connectShards(TableGeometry geometry, RedisConfig redisConfig, int shardCount) {
+        if (Integer.bitCount(shardCount) != 1 || shardCount > geometry.getNumBuckets()) {
+            throw new IllegalArgumentException("分片个数必须为2的整数次幂且不超过桶个数：" + shardCount);
+        }
+        RedisUtils redisUtils = FilterTable.connect(redisConfig);
+        TableGeometry shardGeometry = new TableGeometry(geometry.getBucketSize(), geometry.getBitsPerTag(),
+                geometry.getNumBuckets() / shardCount, geometry.getEncoding());
+        AbstractFilterTable[] shards = new AbstractFilterTable[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new FilterTable(shardGeometry, false, redisUtils,
+                    redisConfig.getRedisBitKey() + ":" + i, redisConfig.isPublishChanges());
+        }
+        return shards;
+    }
+
+    private static TableGeometry combinedGeometry(AbstractFilterTable[] shards) {
+        if (shards.length == 0 || Integer.bitCount(shards.length) != 1) {
+            throw new IllegalArgumentException("分片个数必须为2的整数次幂：" + shards.length);
+        }
+        TableGeometry shardGeometry = shards[0].getGeometry();
+        if (Long.bitCount(shardGeometry.getNumBuckets()) != 1) {
+            throw new IllegalArgumentException("分片的桶个数必须为2的整数次幂：" + shardGeometry);
+        }
+        for (AbstractFilterTable shard : shards) {
+            if (!shard.getGeometry().equals(shardGeometry)) {
+                throw new IllegalArgumentException("分片的结构不一致：" + shard.getGeometry() + "，" + shardGeometry);
+            }
+        }
+        return new TableGeometry(shardGeometry.getBucketSize(), shardGeometry.getBitsPerTag(),
+                shardGeometry.getNumBuckets() * shards.length, shardGeometry.getEncoding());
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    private AbstractFilterTable shardOf(long index) {
+        return shards[(int) (index >>> shardShift)];
+    }
+
+    private long offsetOf(long index) {
+        return index & (shardBuckets - 1);
+    }
+
+    @Override
+    public long altHashIndex(long curIndex, long tag) {
+        // 只在分片内计算另一个桶，保留分片号
+        long offset = offsetOf(curIndex);
+        return (curIndex - offset) | shardOf(curIndex).altHashIndex(offset, tag);
+    }
+
+    @Override
+    public int put(long curIndex, long altIndex, long tag) {
+        return shardOf(curIndex).put(offsetOf(curIndex), offsetOf(altIndex), tag);
+    }
+
+    @Override
+    public int putIfAbsent(long curIndex, long altIndex, long tag) {
+        return shardOf(curIndex).putIfAbsent(offsetOf(curIndex), offsetOf(altIndex), tag);
+    }
+
+    @Override
+    public boolean delete(long curIndex, long altIndex, long tag) {
+        return shardOf(curIndex).delete(offsetOf(curIndex), offsetOf(altIndex), tag);
+    }
+
+    @Override
+    public boolean contain(long curIndex, long altIndex, long tag) {
+        return shardOf(curIndex).contain(offsetOf(curIndex), offsetOf(altIndex), tag);
+    }
+
+    @Override
+    public boolean hasVictim() {
+        for (AbstractFilterTable shard : shards) {
+            if (shard.hasVictim()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void setMetrics(FilterMetrics metrics) {
+        for (AbstractFilterTable shard : shards) {
+            shard.setMetrics(metrics);
+        }
+    }
+
+    @Override
+    public void setInsertStrategy(InsertStrategy insertStrategy) {
+        super.setInsertStrategy(insertStrategy);
+        for (AbstractFilterTable shard : shards) {
+            shard.setInsertStrategy(insertStrategy);
+        }
+    }
+
+    /**
+     * 所有分片存放的元素个数之和，有分片不维护元素个数时返回UNKNOWN_SIZE
+     */
+    @Override
+    public long size() {
+        long size = 0;
+        for (AbstractFilterTable shard : shards) {
+            long shardSize = shard.size();
+            if (shardSize == UNKNOWN_SIZE) {
+                return UNKNOWN_SIZE;
+            }
+            size += shardSize;
+        }
+        return size;
+    }
+
+    @Override
+    public CompletionStage<Integer> putAsync(long curIndex, long altIndex, long tag) {
+        return shardOf(curIndex).putAsync(offsetOf(curIndex), offsetOf(altIndex), tag);
+    }
+
+    @Override
+    public CompletionStage<Integer> putIfAbsentAsync(long curIndex, long altIndex, long tag) {
+        return shardOf(curIndex).putIfAbsentAsync(offsetOf(curIndex), offsetOf(altIndex), tag);
+    }
+
+    @Override
+    public CompletionStage<Boolean> deleteAsync(long curIndex, long altIndex, long tag) {
+        return shardOf(curIndex).deleteAsync(offsetOf(curIndex), offsetOf(altIndex), tag);
+    }
+
+    @Override
+    public CompletionStage<Boolean> containAsync(long curIndex, long altIndex, long tag) {
+        return shardOf(curIndex).containAsync(offsetOf(curIndex), offsetOf(altIndex), tag);
+    }
+
+    @Override
+    public boolean[] putAll(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return FilterTable.join(fanOut(BatchOp.PUT, curIndexes, altIndexes, tags));
+    }
+
+    @Override
+    public boolean[] deleteAll(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return FilterTable.join(fanOut(BatchOp.DELETE, curIndexes, altIndexes, tags));
+    }
+
+    @Override
+    public boolean[] containAll(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return FilterTable.join(fanOut(BatchOp.CONTAIN, curIndexes, altIndexes, tags));
+    }
+
+    @Override
+    public CompletionStage<boolean[]> putAllAsync(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return fanOut(BatchOp.PUT, curIndexes, altIndexes, tags);
+    }
+
+    @Override
+    public CompletionStage<boolean[]> deleteAllAsync(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return fanOut(BatchOp.DELETE, curIndexes, altIndexes, tags);
+    }
+
+    @Override
+    public CompletionStage<boolean[]> containAllAsync(long[] curIndexes, long[] altIndexes, long[] tags) {
+        return fanOut(BatchOp.CONTAIN, curIndexes, altIndexes, tags);
+    }
+
+    private enum BatchOp {
+        PUT, DELETE, CONTAIN
+    }
+
+    /**
+     * 按分片拆分元素，各分片的批量操作同时发出，全部返回后按原顺序合并结果
+     */
+    private CompletionStage<boolean[]> fanOut(BatchOp op, long[] curIndexes, long[] altIndexes, long[] tags) {
+        // 先统计每个分片的元素个数，再按分片填充数组
+        int[] counts = new int[shards.length];
+        for (long curIndex : curIndexes) {
+            counts[(int) (curIndex >>> shardShift)]++;
+        }
+        int[][] positions = new int[shards.length][];
+        long[][] shardCur = new long[shards.length][];
+        long[][] shardAlt = new long[shards.length][];
+        long[][] shardTags = new long[shards.length][];
+        for (int s = 0; s < shards.length; s++) {
+            positions[s] = new int[counts[s]];
+            shardCur[s] = new long[counts[s]];
+            shardAlt[s] = new long[counts[s]];
+            shardTags[s] = new long[counts[s]];
+            counts[s] = 0;
+        }
+        for (int i = 0; i < tags.length; i++) {
+            int s = (int) (curIndexes[i] >>> shardShift);
+            int n = counts[s]++;
+            positions[s][n] = i;
+            shardCur[s][n] = offsetOf(curIndexes[i]);
+            shardAlt[s][n] = offsetOf(altIndexes[i]);
+            shardTags[s][n] = tags[i];
+        }
+        boolean[] results = new boolean[tags.length];
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int s = 0; s < shards.length; s++) {
+            if (counts[s] == 0) {
+                continue;
+            }
+            int[] shardPositions = positions[s];
+            CompletionStage<boolean[]> future;
+            if (op == BatchOp.PUT) {
+                future = shards[s].putAllAsync(shardCur[s], shardAlt[s], shardTags[s]);
+            } else if (op == BatchOp.DELETE) {
+                future = shards[s].deleteAllAsync(shardCur[s], shardAlt[s], shardTags[s]);
+            } else {
+                future = shards[s].containAllAsync(shardCur[s], shardAlt[s], shardTags[s]);
+            }
+            futures.add(future.thenAccept(shardResults -> {
+                for (int n = 0; n < shardResults.length; n++) {
+                    results[shardPositions[n]] = shardResults[n];
+                }
+            }).toCompletableFuture());
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(v -> results);
+    }
+}
@@ -0,0 +1,220 @@
+package com.asdust.cuckoofilter.core;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/10/1 10:15
+ * @desc: 过滤器的结构：桶大小、指纹位数、桶个数和桶的编码方式。同一个key的所有客户端必须使用相同的结构，
+ * CuckooFilterBuilder会将其保存在redis的元数据中，后创建的客户端以redis中的为准
+ */
+public final class TableGeometry {
+    /**
+     * 可选的指纹位数
+     */
+    private static final int[] TAG_WIDTHS = {8, 12, 16, 32};
+    /**
+     * 可选的桶大小
+     */
+    private static final int[] BUCKET_SIZES = {2, 4};
+    /**
+     * 桶个数不是2的整数次幂时的上限，下标由hash的高32位乘以桶个数得到
+     */
+    private static final long MAX_EXACT_BUCKETS = 1L << 32;
+    /**
+     * 精确分配时按负载因子的89%计算桶个数，桶大小为4时约为0.85。随机剔除在桶大小为4时最早约在0.90的负载首次写入失败，
+     * 低于名义负载因子，取整到2的整数次幂时多出的桶掩盖了这一点，精确分配时需要留出余量，保证能存放expectedKeys个元素
+     */
+    private static final double EXACT_LOAD_MARGIN = 0.89;
+
+    private final int bucketSize;
+
+    private final int bitsPerTag;
+
+    private final long numBuckets;
+
+    private final BucketEncoding encoding;
+
+    public TableGeometry(int bucketSize, int bitsPerTag, long numBuckets) {
+        this(bucketSize, bitsPerTag, numBuckets, BucketEncoding.PLAIN);
+    }
+
+    public TableGeometry(int bucketSize, int bitsPerTag, long numBuckets, BucketEncoding encoding) {
+        if (bitsPerTag < 1 || bitsPerTag > 32) {
+            throw new IllegalArgumentException("指纹位数必须在1到32之间：" + bitsPerTag);
+        }
+        if (bucketSize < 1 || numBuckets < 1) {
+            throw new IllegalArgumentException("桶大小和桶个数必须大于0：" + bucketSize + "，" + numBuckets);
+        }
+        if (Long.bitCount(numBuckets) != 1 && numBuckets > MAX_EXACT_BUCKETS) {
+            throw new IllegalArgumentException("桶个数不是2的整数次幂时不能超过2^32：" + numBuckets);
+        }
+        if (encoding == BucketEncoding.SEMI_SORTED && (bucketSize != SemiSortedCodec.BUCKET_SIZE || bitsPerTag < 5)) {
+            throw new IllegalArgumentException("半排序编码只支持桶大小为4且指纹位数不小于5：" + bucketSize + "，" + bitsPerTag);
+        }
+        this.bucketSize = bucketSize;
+        this.bitsPerTag = bitsPerTag;
+        this.numBuckets = numBuckets;
+        this.encoding = encoding;
+    }
+
+    /**
+     * 按指定的指纹位数和桶大小计算存放expectedKeys个元素需要的桶个数
+     */
+    public static TableGeometry forKeys(long expectedKeys, int bitsPerTag, int bucketSize) {
+        return forKeys(expectedKeys, bitsPerTag, bucketSize, BucketEncoding.PLAIN);
+    }
+
+    public static TableGeometry forKeys(long expectedKeys, int bitsPerTag, int bucketSize, BucketEncoding encoding) {
+        return forKeys(expectedKeys, bitsPerTag, bucketSize, encoding, false);
+    }
+
+    /**
+     * @param exactBuckets 为true时按留出余量后需要的桶个数分配，不向上取整到2的整数次幂。
+     *                     结果不会多于取整的桶个数：期望的元素个数刚低于2的整数次幂对应的容量，或超过2^32个桶时，与取整的结果相同
+     */
+    public static TableGeometry forKeys(long expectedKeys, int bitsPerTag, int bucketSize, BucketEncoding encoding,
+                                        boolean exactBuckets) {
+        long numBuckets = AbstractFilterTable.getBucketsNeeded(expectedKeys, loadFactor(bucketSize), bucketSize, false);
+        if (exactBuckets) {
+            long exact = AbstractFilterTable.getBucketsNeeded(expectedKeys, loadFactor(bucketSize) * EXACT_LOAD_MARGIN,
+                    bucketSize, true);
+            if (exact < numBuckets && exact <= MAX_EXACT_BUCKETS) {
+                numBuckets = exact;
+            }
+        }
+        return new TableGeometry(bucketSize, bitsPerTag, numBuckets, encoding);
+    }
+
+    /**
+     * 在误判率不超过fpp的组合中选择每个元素占用位数最少的指纹位数和桶大小。
+     * 误判率上界为 2 * 桶大小 / 2^指纹位数，每个元素占用的位数为 指纹位数 / 桶大小对应的负载因子
+     */
+    public static TableGeometry forFpp(long expectedKeys, double fpp) {
+        return forFpp(expectedKeys, fpp, BucketEncoding.PLAIN);
+    }
+
+    /**
+     * 指定桶的编码方式，半排序编码只考虑桶大小为4，每个元素少占用1位，误判率不变
+     */
+    public static TableGeometry forFpp(long expectedKeys, double fpp, BucketEncoding encoding) {
+        return forFpp(expectedKeys, fpp, encoding, false);
+    }
+
+    public static TableGeometry forFpp(long expectedKeys, double fpp, BucketEncoding encoding, boolean exactBuckets) {
+        if (fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("误判率必须在0到1之间：" + fpp);
+        }
+        int bestBucketSize = 0;
+        int bestBitsPerTag = 0;
+        double bestBitsPerItem = Double.MAX_VALUE;
+        for (int bitsPerTag : TAG_WIDTHS) {
+            for (int bucketSize : BUCKET_SIZES) {
+                if (encoding == BucketEncoding.SEMI_SORTED && bucketSize != SemiSortedCodec.BUCKET_SIZE) {
+                    continue;
+                }
+                double bitsPerItem = bucketBits(bucketSize, bitsPerTag, encoding) / (bucketSize * loadFactor(bucketSize));
+                if (falsePositiveRate(bucketSize, bitsPerTag) <= fpp && bitsPerItem < bestBitsPerItem) {
+                    bestBucketSize = bucketSize;
+                    bestBitsPerTag = bitsPerTag;
+                    bestBitsPerItem = bitsPerItem;
+                }
+            }
+        }
+        if (bestBitsPerTag == 0) {
+            throw new IllegalArgumentException("误判率过小：" + fpp);
+        }
+        return forKeys(expectedKeys, bestBitsPerTag, bestBucketSize, encoding, exactBuckets);
+    }
+
+    /**
+     * 桶大小对应的负载因子，桶越大，剔除失败前能达到的负载越高。桶大小为2时平均在0.83左右失败，最差接近0.80，留出余量取0.78
+     */
+    public static double loadFactor(int bucketSize) {
+        if (bucketSize <= 2) {
+            return 0.78;
+        }
+        return bucketSize < 8 ? AbstractFilterTable.LOAD_FACTOR : 0.98;
+    }
+
+    private static long bucketBits(int bucketSize, int bitsPerTag, BucketEncoding encoding) {
+        if (encoding == BucketEncoding.SEMI_SORTED) {
+            return SemiSortedCodec.bucketBits(bitsPerTag);
+        }
+        return (long) bucketSize * bitsPerTag;
+    }
+
+    static double falsePositiveRate(int bucketSize, int bitsPerTag) {
+        return 2.0 * bucketSize / Math.pow(2, bitsPerTag);
+    }
+
+    public int getBucketSize() {
+        return bucketSize;
+    }
+
+    public int getBitsPerTag() {
+        return bitsPerTag;
+    }
+
+    public long getNumBuckets() {
+        return numBuckets;
+    }
+
+    public BucketEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * 每个桶在bitmap中占用的位数
+     */
+    public long getBucketBits() {
+        return bucketBits(bucketSize, bitsPerTag, encoding);
+    }
+
+    /**
+     * 满载时的误判率上界
+     */
+    public double getFpp() {
+        return falsePositiveRate(bucketSize, bitsPerTag);
+    }
+
+    /**
+     * 不超过负载因子时最多存放的元素个数。桶个数不是2的整数次幂时是精确分配的，与分配时一样按留出余量后的负载因子计算
+     */
+    public long getMaxItems() {
+        double loadFactor = loadFactor(bucketSize);
+        if (Long.bitCount(numBuckets) != 1) {
+            loadFactor *= EXACT_LOAD_MARGIN;
+        }
+        return (long) (numBuckets * bucketSize * loadFactor);
+    }
+
+    /**
+     * bitmap占用的字节数
+     */
+    public long getSizeInBytes() {
+        return (numBuckets * getBucketBits() + Byte.SIZE - 1) / Byte.SIZE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TableGeometry)) {
+            return false;
+        }
+        TableGeometry that = (TableGeometry) o;
+        return bucketSize == that.bucketSize && bitsPerTag == that.bitsPerTag && numBuckets == that.numBuckets
+                && encoding == that.encoding;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((31 * bucketSize + bitsPerTag) * 31 + Long.hashCode(numBuckets)) * 31 + encoding.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "TableGeometry{bucketSize=" + bucketSize + ", bitsPerTag=" + bitsPerTag + ", numBuckets=" + numBuckets
+                + ", encoding=" + encoding + "}";
+    }
+}
@@ -0,0 +1,44 @@
+package com.asdust.cuckoofilter.metrics;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/10/15 10:20
+ * @desc: 过滤器的监控指标，在每次操作的调用线程中同步记录，实现不能阻塞，也不应创建对象。
+ * 默认为NOOP，见SimpleFilterMetrics和MicrometerFilterMetrics
+ */
+public interface FilterMetrics {
+
+    /**
+     * 不记录任何指标
+     */
+    FilterMetrics NOOP = new FilterMetrics() {
+    };
+
+    /**
+     * 记录一次操作的耗时，批量操作记录整批的耗时
+     */
+    default void recordLatency(Op op, long nanos) {
+    }
+
+    /**
+     * 记录与redis的网络往返次数，单个元素的操作为1次，批量操作为pipeline的个数
+     */
+    default void recordRoundTrips(int count) {
+    }
+
+    /**
+     * 记录一次成功写入的剔除次数
+     */
+    default void recordKicks(int kicks) {
+    }
+
+    /**
+     * 记录一次写入失败，即victim已被占用或元素个数达到上限
+     */
+    default void recordPutFailed() {
+    }
+
+    enum Op {
+        PUT, CONTAIN, DELETE, PUT_ALL, CONTAIN_ALL, DELETE_ALL
+    }
+}
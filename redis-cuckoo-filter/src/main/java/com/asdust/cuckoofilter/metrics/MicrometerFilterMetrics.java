@@ -0,0 +1,84 @@
+package com.asdust.cuckoofilter.metrics;
+
+import com.asdust.cuckoofilter.CuckooFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/10/15 11:30
+ * @desc: 将指标注册到Micrometer，micrometer-core为可选依赖，使用时需要自行引入。所有指标带有name标签区分不同的过滤器：
+ * <ul>
+ * <li>cuckoo.filter.latency：各操作的耗时，op标签为操作类型，带百分位直方图</li>
+ * <li>cuckoo.filter.round.trips：与redis的网络往返次数</li>
+ * <li>cuckoo.filter.kicks：写入成功时的剔除次数分布</li>
+ * <li>cuckoo.filter.put.failed：写入失败次数</li>
+ * <li>cuckoo.filter.size、load.factor、expected.fpp、victim：调用monitor后注册的状态指标</li>
+ * </ul>
+ */
+public class MicrometerFilterMetrics implements FilterMetrics {
+
+    private final MeterRegistry registry;
+
+    private final String name;
+
+    private final Timer[] latency = new Timer[Op.values().length];
+
+    private final Counter roundTrips;
+
+    private final DistributionSummary kicks;
+
+    private final Counter putFailed;
+
+    public MicrometerFilterMetrics(MeterRegistry registry, String name) {
+        this.registry = registry;
+        this.name = name;
+        for (Op op : Op.values()) {
+            latency[op.ordinal()] = Timer.builder("cuckoo.filter.latency")
+                    .tag("name", name)
+                    .tag("op", op.name().toLowerCase(Locale.ROOT))
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+        this.roundTrips = Counter.builder("cuckoo.filter.round.trips").tag("name", name).register(registry);
+        this.kicks = DistributionSummary.builder("cuckoo.filter.kicks").tag("name", name)
+                .publishPercentileHistogram().register(registry);
+        this.putFailed = Counter.builder("cuckoo.filter.put.failed").tag("name", name).register(registry);
+    }
+
+    /**
+     * 注册过滤器的元素个数、负载因子、估算的误判率和victim是否被占用，采集时才会读取。redis过滤器的元素个数和victim需要访问redis，是所有客户端共享的值
+     */
+    public void monitor(CuckooFilter<?> filter) {
+        Gauge.builder("cuckoo.filter.size", filter, CuckooFilter::size).tag("name", name).register(registry);
+        Gauge.builder("cuckoo.filter.load.factor", filter, CuckooFilter::loadFactor).tag("name", name).register(registry);
+        Gauge.builder("cuckoo.filter.expected.fpp", filter, CuckooFilter::expectedFpp).tag("name", name).register(registry);
+        Gauge.builder("cuckoo.filter.victim", filter, f -> f.hasVictim() ? 1 : 0).tag("name", name).register(registry);
+    }
+
+    @Override
+    public void recordLatency(Op op, long nanos) {
+        latency[op.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordRoundTrips(int count) {
+        roundTrips.increment(count);
+    }
+
+    @Override
+    public void recordKicks(int kicks) {
+        this.kicks.record(kicks);
+    }
+
+    @Override
+    public void recordPutFailed() {
+        putFailed.increment();
+    }
+}
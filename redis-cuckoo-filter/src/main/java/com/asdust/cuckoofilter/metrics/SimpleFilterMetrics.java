@@ -0,0 +1,134 @@
+package com.asdust.cuckoofilter.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/10/15 10:40
+ * @desc: 不依赖其他库的指标实现，计数使用LongAdder，耗时和剔除次数按2的整数次幂分桶统计，记录时不创建对象也不加锁。
+ * 分位数只精确到所在的分桶，返回分桶的上界
+ */
+public class SimpleFilterMetrics implements FilterMetrics {
+    /**
+     * 第i个分桶统计 [2^(i-1), 2^i) 范围内的值，第0个分桶统计0
+     */
+    private static final int HISTOGRAM_BUCKETS = Long.SIZE + 1;
+
+    private final LongAdder[][] latency = new LongAdder[Op.values().length][];
+
+    private final LongAdder[] totalNanos = new LongAdder[Op.values().length];
+
+    private final LongAdder[] kicks = newHistogram();
+
+    private final LongAdder roundTrips = new LongAdder();
+
+    private final LongAdder putFailed = new LongAdder();
+
+    public SimpleFilterMetrics() {
+        for (Op op : Op.values()) {
+            latency[op.ordinal()] = newHistogram();
+            totalNanos[op.ordinal()] = new LongAdder();
+        }
+    }
+
+    private static LongAdder[] newHistogram() {
+        LongAdder[] histogram = new LongAdder[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            histogram[i] = new LongAdder();
+        }
+        return histogram;
+    }
+
+    private static int bucketOf(long value) {
+        return value <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(value);
+    }
+
+    @Override
+    public void recordLatency(Op op, long nanos) {
+        latency[op.ordinal()][bucketOf(nanos)].increment();
+        totalNanos[op.ordinal()].add(nanos);
+    }
+
+    @Override
+    public void recordRoundTrips(int count) {
+        roundTrips.add(count);
+    }
+
+    @Override
+    public void recordKicks(int kicks) {
+        this.kicks[bucketOf(kicks)].increment();
+    }
+
+    @Override
+    public void recordPutFailed() {
+        putFailed.increment();
+    }
+
+    public long getCount(Op op) {
+        return sum(latency[op.ordinal()]);
+    }
+
+    public long getTotalTime(Op op, TimeUnit unit) {
+        return unit.convert(totalNanos[op.ordinal()].sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 耗时的分位数，q在0到1之间
+     */
+    public long getLatencyPercentile(Op op, double q, TimeUnit unit) {
+        return unit.convert(percentile(latency[op.ordinal()], q), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 剔除次数的分位数，只统计写入成功的元素
+     */
+    public long getKicksPercentile(double q) {
+        return percentile(kicks, q);
+    }
+
+    public long getRoundTrips() {
+        return roundTrips.sum();
+    }
+
+    /**
+     * 平均每次操作的网络往返次数，批量操作按一次计算
+     */
+    public double getRoundTripsPerOp() {
+        long ops = 0;
+        for (Op op : Op.values()) {
+            ops += getCount(op);
+        }
+        return ops == 0 ? 0 : (double) roundTrips.sum() / ops;
+    }
+
+    public long getPutFailed() {
+        return putFailed.sum();
+    }
+
+    private static long sum(LongAdder[] histogram) {
+        long sum = 0;
+        for (LongAdder adder : histogram) {
+            sum += adder.sum();
+        }
+        return sum;
+    }
+
+    private static long percentile(LongAdder[] histogram, double q) {
+        long[] counts = new long[HISTOGRAM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            counts[i] = histogram[i].sum();
+            total += counts[i];
+        }
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return i == 0 ? 0 : (i == Long.SIZE ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+        }
+        return 0;
+    }
+}
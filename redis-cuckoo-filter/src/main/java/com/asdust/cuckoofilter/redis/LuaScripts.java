@@ -0,0 +1,607 @@
+package com.asdust.cuckoofilter.redis;
+
+/**
+ * author: chordCreater
+ * date: 2022/8/20 10:12
+ * desc：过滤器在redis端执行的lua脚本，检查桶和写入槽位在同一个脚本中完成，由redis的单线程保证原子性
+ * <p>
+ * 参数约定：KEYS[1]为bitmap的key，KEYS[2]为元数据hash的key，其中保存victim；KEYS[3]可选，为变更序号的key，
+ * 存在时每次修改桶后将序号加1并以"序号:桶下标:各槽指纹"的格式发布到同名频道，victim变化时发布"序号:victim:桶下标,指纹"。
+ * ARGV[1]为桶大小，ARGV[2]为指纹位数，ARGV[3]为桶个数，ARGV[4]为最大剔除次数，ARGV[5]为随机数种子，
+ * ARGV[6]为最多存放的元素个数(0表示不限制)，ARGV[7]为桶的编码方式(0普通，1半排序)，
+ * ARGV[8]为广度优先查找剔除路径时最多访问的桶个数(0表示随机剔除)，从ARGV[9]起每3个参数为一个元素(桶下标，另一个桶下标，指纹)，
+ * 脚本返回每个元素的结果组成的数组。元数据hash的numItems字段记录已存放的元素个数
+ **/
+public final class LuaScripts {
+
+    private LuaScripts() {
+    }
+
+    /**
+     * 公共函数：每个槽以BITFIELD的无符号整数(u+指纹位数)存放，一次BITFIELD读出整个桶的所有槽。
+     * 半排序编码时一次BITFIELD读出12位序号和4个低位，解码出从小到大排列的4个指纹，写入时整个桶重新排序编码，与SemiSortedCodec一致
+     */
+    private static final String COMMON = common("BITFIELD");
+
+    /**
+     * 读取桶使用BITFIELD_RO的公共函数，BITFIELD即使只有GET也是写命令，不能在只读的从节点上执行
+     */
+    private static final String COMMON_RO = common("BITFIELD_RO");
+
+    private static String common(String bitfieldRead) {
+        return ""
+                + "local bucketSize = tonumber(ARGV[1]) "
+                + "local bitsPerTag = tonumber(ARGV[2]) "
+                + "local numBuckets = tonumber(ARGV[3]) "
+                + "local powerOfTwo = numBuckets == 2 ^ math.floor(math.log(numBuckets) / math.log(2) + 0.5) "
+                + "local maxKicks = tonumber(ARGV[4]) "
+                + "local maxItems = tonumber(ARGV[6]) "
+                + "local slotType = 'u' .. bitsPerTag "
+                + "local semiSorted = tonumber(ARGV[7]) == 1 "
+                + "local maxNodes = tonumber(ARGV[8]) "
+                + "local lowBits = bitsPerTag - 4 "
+                + "local lowType = 'u' .. lowBits "
+                + "local lowRange = 2 ^ lowBits "
+                + "local function binomial(n, k) "
+                + "    if n < k then "
+                + "        return 0 "
+                + "    end "
+                + "    local result = 1 "
+                + "    for i = 1, k do "
+                + "        result = result * (n - k + i) / i "
+                + "    end "
+                + "    return result "
+                + "end "
+                + "local function readSorted(index) "
+                + "    local start = index * (12 + 4 * lowBits) "
+                + "    local v = redis.call('" + bitfieldRead + "', KEYS[1], 'GET', 'u12', start, 'GET', lowType, start + 12, "
+                + "        'GET', lowType, start + 12 + lowBits, 'GET', lowType, start + 12 + 2 * lowBits, "
+                + "        'GET', lowType, start + 12 + 3 * lowBits) "
+                // 序号为C(a,1) + C(b+1,2) + C(c+2,3) + C(d+3,4)，从最高项开始每次取最大的x使C(x,k)不超过剩余的序号
+                + "    local rank = v[1] "
+                + "    local tags = {} "
+                + "    for k = 4, 1, -1 do "
+                + "        local x = k - 1 "
+                + "        while binomial(x + 1, k) <= rank do "
+                + "            x = x + 1 "
+                + "        end "
+                + "        rank = rank - binomial(x, k) "
+                + "        tags[k] = (x - k + 1) * lowRange + v[k + 1] "
+                + "    end "
+                + "    return tags "
+                + "end "
+                + "local function writeSorted(index, tags) "
+                + "    table.sort(tags) "
+                + "    local start = index * (12 + 4 * lowBits) "
+                + "    local rank = 0 "
+                + "    local args = {} "
+                + "    for k = 1, 4 do "
+                + "        rank = rank + binomial(math.floor(tags[k] / lowRange) + k - 1, k) "
+                + "        args[#args + 1] = 'SET' "
+                + "        args[#args + 1] = lowType "
+                + "        args[#args + 1] = start + 12 + (k - 1) * lowBits "
+                + "        args[#args + 1] = tags[k] % lowRange "
+                + "    end "
+                + "    redis.call('BITFIELD', KEYS[1], 'SET', 'u12', start, rank, unpack(args)) "
+                + "end "
+                + "local function readBucket(index) "
+                + "    if semiSorted then "
+                + "        return readSorted(index) "
+                + "    end "
+                + "    local args = {} "
+                + "    local start = index * bucketSize * bitsPerTag "
+                + "    for pos = 0, bucketSize - 1 do "
+                + "        args[#args + 1] = 'GET' "
+                + "        args[#args + 1] = slotType "
+                + "        args[#args + 1] = start + pos * bitsPerTag "
+                + "    end "
+                + "    return redis.call('" + bitfieldRead + "', KEYS[1], unpack(args)) "
+                + "end "
+                + "local function writeTag(index, pos, value) "
+                + "    if semiSorted then "
+                + "        local tags = readSorted(index) "
+                + "        local old = tags[pos + 1] "
+                + "        tags[pos + 1] = value "
+                + "        writeSorted(index, tags) "
+                + "        return old "
+                + "    end "
+                + "    return redis.call('BITFIELD', KEYS[1], 'SET', slotType, (index * bucketSize + pos) * bitsPerTag, value)[1] "
+                + "end "
+                + "local function notify(index) "
+                + "    if #KEYS < 3 then "
+                + "        return "
+                + "    end "
+                + "    local seq = redis.call('INCR', KEYS[3]) "
+                + "    redis.call('PUBLISH', KEYS[3], seq .. ':' .. index .. ':' .. table.concat(readBucket(index), ',')) "
+                + "end "
+                + "local function notifyVictim(index, tag) "
+                + "    if #KEYS < 3 then "
+                + "        return "
+                + "    end "
+                + "    local seq = redis.call('INCR', KEYS[3]) "
+                + "    redis.call('PUBLISH', KEYS[3], seq .. ':victim:' .. index .. ',' .. tag) "
+                + "end "
+                + "local function findTag(tags, value) "
+                + "    for pos = 0, bucketSize - 1 do "
+                + "        if tags[pos + 1] == value then "
+                + "            return pos "
+                + "        end "
+                + "    end "
+                + "    return -1 "
+                + "end "
+                + "local function insertTag(index, tag) "
+                + "    local pos = findTag(readBucket(index), 0) "
+                + "    if pos < 0 then "
+                + "        return false "
+                + "    end "
+                + "    writeTag(index, pos, tag) "
+                + "    notify(index) "
+                + "    return true "
+                + "end "
+                + "local function deleteTag(index, tag) "
+                + "    local pos = findTag(readBucket(index), tag) "
+                + "    if pos < 0 then "
+                + "        return false "
+                + "    end "
+                + "    writeTag(index, pos, 0) "
+                + "    notify(index) "
+                + "    return true "
+                + "end "
+                + "local function containTag(index, tag) "
+                + "    return findTag(readBucket(index), tag) >= 0 "
+                + "end "
+                // 与AbstractFilterTable.altHashIndex一致：(index ^ ((tag * 0x5bd1e995) & 0xFFFFFFFF)) & (numBuckets - 1)，
+                // 桶个数不是2的整数次幂时为 (((h * numBuckets) >> 32) - index) mod numBuckets。
+                // lua的数字是double，乘法拆成16位分段计算以保证精度，bit.bxor只处理低32位
+                + "local function altIndex(index, tag) "
+                + "    local m = 1540483477 "
+                + "    local h = (tag * (m % 65536) + ((tag * math.floor(m / 65536)) % 65536) * 65536) % 4294967296 "
+                + "    if not powerOfTwo then "
+                + "        local r = math.floor((math.floor(h / 65536) * numBuckets "
+                + "            + math.floor((h % 65536) * numBuckets / 65536)) / 65536) "
+                + "        return (r - index) % numBuckets "
+                + "    end "
+                + "    local low = index % 4294967296 "
+                + "    local x = bit.bxor(low, h) "
+                + "    if x < 0 then "
+                + "        x = x + 4294967296 "
+                + "    end "
+                + "    return (index - low + x) % numBuckets "
+                + "end "
+                + "local function getVictim() "
+                + "    local victim = redis.call('HMGET', KEYS[2], 'victimIndex', 'victimTag') "
+                + "    return tonumber(victim[1]), tonumber(victim[2]) or 0 "
+                + "end "
+                + "local function isVictim(cur, alt, tag) "
+                + "    local victimIndex, victimTag = getVictim() "
+                + "    return victimTag == tag and (victimIndex == cur or victimIndex == alt) "
+                + "end "
+                + "local function replaceTag(index, expected, tag) "
+                + "    writeTag(index, findTag(readBucket(index), expected), tag) "
+                + "    notify(index) "
+                + "end "
+                // 与CuckooPathSearch一致：从两个候选桶开始广度优先查找有空槽的桶，找到后从路径末端开始按指纹的值逐个移动
+                + "local function bfsPut(cur, alt, tag) "
+                + "    local nodes, parents, moved, visited = {cur}, {0}, {0}, {[cur] = true} "
+                + "    if not visited[alt] then "
+                + "        nodes[2], parents[2], moved[2] = alt, 0, 0 "
+                + "        visited[alt] = true "
+                + "    end "
+                + "    local found = 0 "
+                + "    local head = 1 "
+                + "    while head <= #nodes do "
+                + "        local tags = readBucket(nodes[head]) "
+                + "        if findTag(tags, 0) >= 0 then "
+                + "            found = head "
+                + "            break "
+                + "        end "
+                + "        for pos = 1, bucketSize do "
+                + "            local child = altIndex(nodes[head], tags[pos]) "
+                + "            if #nodes < maxNodes and not visited[child] then "
+                + "                visited[child] = true "
+                + "                nodes[#nodes + 1] = child "
+                + "                parents[#parents + 1] = head "
+                + "                moved[#moved + 1] = tags[pos] "
+                + "            end "
+                + "        end "
+                + "        head = head + 1 "
+                + "    end "
+                + "    if found == 0 then "
+                + "        redis.call('HMSET', KEYS[2], 'victimIndex', cur, 'victimTag', tag) "
+                + "        notifyVictim(cur, tag) "
+                + "        return maxKicks "
+                + "    end "
+                + "    local expected, node, kicks = 0, found, 0 "
+                + "    while parents[node] > 0 do "
+                + "        replaceTag(nodes[node], expected, moved[node]) "
+                + "        expected = moved[node] "
+                + "        node = parents[node] "
+                + "        kicks = kicks + 1 "
+                + "    end "
+                + "    replaceTag(nodes[node], expected, tag) "
+                + "    return kicks "
+                + "end "
+                + "local function putItem(cur, alt, tag) "
+                + "    if maxItems > 0 and (tonumber(redis.call('HGET', KEYS[2], 'numItems')) or 0) >= maxItems then "
+                + "        return -1 "
+                + "    end "
+                + "    if insertTag(cur, tag) or insertTag(alt, tag) then "
+                + "        return 0 "
+                + "    end "
+                + "    local victimIndex, victimTag = getVictim() "
+                + "    if victimTag ~= 0 then "
+                + "        return -1 "
+                + "    end "
+                + "    if maxNodes > 0 then "
+                + "        return bfsPut(cur, alt, tag) "
+                + "    end "
+                + "    local index = cur "
+                + "    if math.random(2) == 2 then "
+                + "        index = alt "
+                + "    end "
+                + "    for kick = 1, maxKicks do "
+                + "        tag = writeTag(index, math.random(bucketSize) - 1, tag) "
+                + "        notify(index) "
+                + "        index = altIndex(index, tag) "
+                + "        if insertTag(index, tag) then "
+                + "            return kick "
+                + "        end "
+                + "    end "
+                + "    redis.call('HMSET', KEYS[2], 'victimIndex', index, 'victimTag', tag) "
+                + "    notifyVictim(index, tag) "
+                + "    return maxKicks "
+                + "end "
+                + "local function countedPut(cur, alt, tag) "
+                + "    local kicks = putItem(cur, alt, tag) "
+                + "    if kicks >= 0 then "
+                + "        redis.call('HINCRBY', KEYS[2], 'numItems', 1) "
+                + "    end "
+                + "    return kicks "
+                + "end "
+                + "local function deleteItem(cur, alt, tag) "
+                + "    local victimIndex, victimTag = getVictim() "
+                + "    if deleteTag(cur, tag) or deleteTag(alt, tag) then "
+                // 腾出了空槽，尝试将victim放回它的桶中
+                + "        if victimTag ~= 0 and (insertTag(victimIndex, victimTag) "
+                + "                or insertTag(altIndex(victimIndex, victimTag), victimTag)) then "
+                + "            redis.call('HDEL', KEYS[2], 'victimIndex', 'victimTag') "
+                + "            notifyVictim(0, 0) "
+                + "        end "
+                + "        return true "
+                + "    end "
+                + "    if victimTag == tag and (victimIndex == cur or victimIndex == alt) then "
+                + "        redis.call('HDEL', KEYS[2], 'victimIndex', 'victimTag') "
+                + "        notifyVictim(0, 0) "
+                + "        return true "
+                + "    end "
+                + "    return false "
+                + "end ";
+    }
+
+    /**
+     * 写入元素，两个候选桶都满时在脚本内完成剔除，每个元素返回剔除次数，victim已被占用或元素个数达到上限时返回-1
+     */
+    public static final String PUT = COMMON
+            + "math.randomseed(tonumber(ARGV[5])) "
+            + "local result = {} "
+            + "for n = 9, #ARGV, 3 do "
+            + "    result[#result + 1] = countedPut(tonumber(ARGV[n]), tonumber(ARGV[n + 1]), tonumber(ARGV[n + 2])) "
+            + "end "
+            + "return result";
+
+    /**
+     * 两个候选桶和victim中都没有该指纹时写入，查询和写入在同一个脚本中原子完成，已存在的元素返回-2，其余与PUT相同
+     */
+    public static final String PUT_IF_ABSENT = COMMON
+            + "math.randomseed(tonumber(ARGV[5])) "
+            + "local result = {} "
+            + "for n = 9, #ARGV, 3 do "
+            + "    local cur, alt, tag = tonumber(ARGV[n]), tonumber(ARGV[n + 1]), tonumber(ARGV[n + 2]) "
+            + "    if containTag(cur, tag) or containTag(alt, tag) or isVictim(cur, alt, tag) then "
+            + "        result[#result + 1] = -2 "
+            + "    else "
+            + "        result[#result + 1] = countedPut(cur, alt, tag) "
+            + "    end "
+            + "end "
+            + "return result";
+
+    /**
+     * 删除元素，每个元素存在并删除返回1，否则返回0
+     */
+    public static final String DELETE = COMMON
+            + "local result = {} "
+            + "for n = 9, #ARGV, 3 do "
+            + "    if deleteItem(tonumber(ARGV[n]), tonumber(ARGV[n + 1]), tonumber(ARGV[n + 2])) then "
+            + "        redis.call('HINCRBY', KEYS[2], 'numItems', -1) "
+            + "        result[#result + 1] = 1 "
+            + "    else "
+            + "        result[#result + 1] = 0 "
+            + "    end "
+            + "end "
+            + "return result";
+
+    /**
+     * 查询元素，只读脚本，每个元素存在返回1，否则返回0
+     */
+    public static final String CONTAIN = COMMON + containItems();
+
+    /**
+     * 查询元素，与CONTAIN相同，只使用只读命令，可以在从节点上执行，需要redis 6.2以上
+     */
+    public static final String CONTAIN_RO = COMMON_RO + containItems();
+
+    private static String containItems() {
+        return ""
+                + "local result = {} "
+                + "for n = 9, #ARGV, 3 do "
+                + "    local cur, alt, tag = tonumber(ARGV[n]), tonumber(ARGV[n + 1]), tonumber(ARGV[n + 2]) "
+                + "    if containTag(cur, tag) or containTag(alt, tag) or isVictim(cur, alt, tag) then "
+                + "        result[#result + 1] = 1 "
+                + "    else "
+                + "        result[#result + 1] = 0 "
+                + "    end "
+                + "end "
+                + "return result";
+    }
+
+    /**
+     * 可扩容过滤器的公共函数，见ResizableFilterTable。元数据hash的splits字段为已完成的扩容次数k，
+     * 扩容进行中时splitPointer字段为下一个待迁移的桶。脚本参数中的桶下标为初始桶个数numBuckets内的基础下标，
+     * 指纹为完整的指纹T，第k次扩容后元素所在的桶为 基础下标 + numBuckets * (T mod 2^k)，
+     * 槽中存放 floor(T / 2^k)，k大于0时加上槽的最高位作为标记，使存放的值不为0；T的低k位由桶下标得到。
+     * 扩容时将桶i中T的第k位为1的元素移到桶i + numBuckets * 2^k，另一个桶随之平移，不需要原始的key。
+     * 桶i小于splitPointer时已迁移，按k + 1次扩容的方式读写；下标不小于numBuckets * 2^k的桶是迁移的目标桶
+     */
+    private static String splitCommon(String common) {
+        return common
+                + "local state = redis.call('HMGET', KEYS[2], 'splits', 'splitPointer') "
+                + "local splits = tonumber(state[1]) or 0 "
+                + "local splitPointer = tonumber(state[2]) or -1 "
+                + "local span = numBuckets * 2 ^ splits "
+                + "local marker = 2 ^ (bitsPerTag - 1) "
+                + "local function formatOf(index) "
+                + "    if splitPointer >= 0 and (index < splitPointer or index >= span) then "
+                + "        return splits + 1 "
+                + "    end "
+                + "    return splits "
+                + "end "
+                + "local function bucketOf(base, tag) "
+                + "    local index = base + numBuckets * (tag % 2 ^ splits) "
+                + "    if splitPointer >= 0 and index < splitPointer then "
+                + "        index = base + numBuckets * (tag % 2 ^ (splits + 1)) "
+                + "    end "
+                + "    return index "
+                + "end "
+                + "local function encode(tag, format) "
+                + "    if format == 0 then "
+                + "        return tag "
+                + "    end "
+                + "    return math.floor(tag / 2 ^ format) + marker "
+                + "end "
+                + "local function decode(index, value) "
+                + "    local format = formatOf(index) "
+                + "    if format == 0 then "
+                + "        return value "
+                + "    end "
+                + "    return (value - marker) * 2 ^ format + math.floor(index / numBuckets) "
+                + "end "
+                + "local function splitInsert(base, tag) "
+                + "    local index = bucketOf(base, tag) "
+                + "    return insertTag(index, encode(tag, formatOf(index))) "
+                + "end "
+                + "local function splitDelete(base, tag) "
+                + "    local index = bucketOf(base, tag) "
+                + "    return deleteTag(index, encode(tag, formatOf(index))) "
+                + "end "
+                + "local function splitContain(base, tag) "
+                + "    local index = bucketOf(base, tag) "
+                + "    return containTag(index, encode(tag, formatOf(index))) "
+                + "end "
+                // victim保存基础下标和完整的指纹，与桶的格式无关
+                + "local function splitPut(cur, alt, tag) "
+                + "    if splitInsert(cur, tag) or splitInsert(alt, tag) then "
+                + "        return 0 "
+                + "    end "
+                + "    local victimIndex, victimTag = getVictim() "
+                + "    if victimTag ~= 0 then "
+                + "        return -1 "
+                + "    end "
+                + "    local base = cur "
+                + "    if math.random(2) == 2 then "
+                + "        base = alt "
+                + "    end "
+                + "    for kick = 1, maxKicks do "
+                + "        local index = bucketOf(base, tag) "
+                + "        tag = decode(index, writeTag(index, math.random(bucketSize) - 1, encode(tag, formatOf(index)))) "
+                + "        notify(index) "
+                + "        base = altIndex(index % numBuckets, tag) "
+                + "        if splitInsert(base, tag) then "
+                + "            return kick "
+                + "        end "
+                + "    end "
+                + "    redis.call('HMSET', KEYS[2], 'victimIndex', base, 'victimTag', tag) "
+                + "    notifyVictim(base, tag) "
+                + "    return maxKicks "
+                + "end "
+                + "local function splitDeleteItem(cur, alt, tag) "
+                + "    local victimIndex, victimTag = getVictim() "
+                + "    if splitDelete(cur, tag) or splitDelete(alt, tag) then "
+                + "        if victimTag ~= 0 and (splitInsert(victimIndex, victimTag) "
+                + "                or splitInsert(altIndex(victimIndex, victimTag), victimTag)) then "
+                + "            redis.call('HDEL', KEYS[2], 'victimIndex', 'victimTag') "
+                + "            notifyVictim(0, 0) "
+                + "        end "
+                + "        return true "
+                + "    end "
+                + "    if victimTag == tag and (victimIndex == cur or victimIndex == alt) then "
+                + "        redis.call('HDEL', KEYS[2], 'victimIndex', 'victimTag') "
+                + "        notifyVictim(0, 0) "
+                + "        return true "
+                + "    end "
+                + "    return false "
+                + "end ";
+    }
+
+    private static final String SPLIT_COMMON = splitCommon(COMMON);
+
+    /**
+     * 写入元素，与PUT相同，只支持随机剔除
+     */
+    public static final String SPLIT_PUT = SPLIT_COMMON
+            + "math.randomseed(tonumber(ARGV[5])) "
+            + "local result = {} "
+            + "for n = 9, #ARGV, 3 do "
+            + "    local kicks = splitPut(tonumber(ARGV[n]), tonumber(ARGV[n + 1]), tonumber(ARGV[n + 2])) "
+            + "    if kicks >= 0 then "
+            + "        redis.call('HINCRBY', KEYS[2], 'numItems', 1) "
+            + "    end "
+            + "    result[#result + 1] = kicks "
+            + "end "
+            + "return result";
+
+    public static final String SPLIT_PUT_IF_ABSENT = SPLIT_COMMON
+            + "math.randomseed(tonumber(ARGV[5])) "
+            + "local result = {} "
+            + "for n = 9, #ARGV, 3 do "
+            + "    local cur, alt, tag = tonumber(ARGV[n]), tonumber(ARGV[n + 1]), tonumber(ARGV[n + 2]) "
+            + "    local kicks = -2 "
+            + "    if not (splitContain(cur, tag) or splitContain(alt, tag) or isVictim(cur, alt, tag)) then "
+            + "        kicks = splitPut(cur, alt, tag) "
+            + "        if kicks >= 0 then "
+            + "            redis.call('HINCRBY', KEYS[2], 'numItems', 1) "
+            + "        end "
+            + "    end "
+            + "    result[#result + 1] = kicks "
+            + "end "
+            + "return result";
+
+    public static final String SPLIT_DELETE = SPLIT_COMMON
+            + "local result = {} "
+            + "for n = 9, #ARGV, 3 do "
+            + "    if splitDeleteItem(tonumber(ARGV[n]), tonumber(ARGV[n + 1]), tonumber(ARGV[n + 2])) then "
+            + "        redis.call('HINCRBY', KEYS[2], 'numItems', -1) "
+            + "        result[#result + 1] = 1 "
+            + "    else "
+            + "        result[#result + 1] = 0 "
+            + "    end "
+            + "end "
+            + "return result";
+
+    public static final String SPLIT_CONTAIN = SPLIT_COMMON + splitContainItems();
+
+    public static final String SPLIT_CONTAIN_RO = splitCommon(COMMON_RO) + splitContainItems();
+
+    private static String splitContainItems() {
+        return ""
+                + "local result = {} "
+                + "for n = 9, #ARGV, 3 do "
+                + "    local cur, alt, tag = tonumber(ARGV[n]), tonumber(ARGV[n + 1]), tonumber(ARGV[n + 2]) "
+                + "    if splitContain(cur, tag) or splitContain(alt, tag) or isVictim(cur, alt, tag) then "
+                + "        result[#result + 1] = 1 "
+                + "    else "
+                + "        result[#result + 1] = 0 "
+                + "    end "
+                + "end "
+                + "return result";
+    }
+
+    /**
+     * 迁移一段桶，ARGV[9]为调用方读到的扩容次数，没有进行中的扩容且与redis中的相同时开始下一次扩容，为-1时只继续进行中的扩容；
+     * ARGV[10]为本次最多迁移的桶个数。返回{扩容次数, 下一个待迁移的桶}，扩容完成或没有开始时后者为-1。
+     * 迁移的目标桶在迁移前不会被写入，一定为空，原桶中的元素最多全部移走，不会溢出
+     */
+    public static final String SPLIT_STEP = SPLIT_COMMON
+            + "local expected = tonumber(ARGV[9]) "
+            + "local count = tonumber(ARGV[10]) "
+            + "if splitPointer < 0 then "
+            + "    if splits ~= expected then "
+            + "        return {splits, -1} "
+            + "    end "
+            + "    splitPointer = 0 "
+            + "end "
+            + "local function writeBucket(index, tags) "
+            + "    for pos = #tags + 1, bucketSize do "
+            + "        tags[pos] = 0 "
+            + "    end "
+            + "    if semiSorted then "
+            + "        writeSorted(index, tags) "
+            + "        return "
+            + "    end "
+            + "    local args = {} "
+            + "    local start = index * bucketSize * bitsPerTag "
+            + "    for pos = 0, bucketSize - 1 do "
+            + "        args[#args + 1] = 'SET' "
+            + "        args[#args + 1] = slotType "
+            + "        args[#args + 1] = start + pos * bitsPerTag "
+            + "        args[#args + 1] = tags[pos + 1] "
+            + "    end "
+            + "    redis.call('BITFIELD', KEYS[1], unpack(args)) "
+            + "end "
+            + "local last = math.min(span, splitPointer + count) "
+            + "for index = splitPointer, last - 1 do "
+            + "    local stay, move = {}, {} "
+            + "    for _, value in ipairs(readBucket(index)) do "
+            + "        if value ~= 0 then "
+            + "            local tag = decode(index, value) "
+            + "            if math.floor(tag / 2 ^ splits) % 2 == 1 then "
+            + "                move[#move + 1] = encode(tag, splits + 1) "
+            + "            else "
+            + "                stay[#stay + 1] = encode(tag, splits + 1) "
+            + "            end "
+            + "        end "
+            + "    end "
+            + "    writeBucket(index, stay) "
+            + "    writeBucket(index + span, move) "
+            + "end "
+            + "if last == span then "
+            + "    redis.call('HSET', KEYS[2], 'splits', splits + 1) "
+            + "    redis.call('HDEL', KEYS[2], 'splitPointer') "
+            + "    return {splits + 1, -1} "
+            + "end "
+            + "redis.call('HSET', KEYS[2], 'splitPointer', last) "
+            + "return {splits, last}";
+
+    /**
+     * 导入快照后恢复元数据，KEYS[1]为元数据hash的key，KEYS[2]可选，为变更序号的key；
+     * ARGV为元素个数、victim的桶下标、victim的指纹，指纹为0表示没有victim
+     */
+    public static final String RESTORE_META = ""
+            + "redis.call('HSET', KEYS[1], 'numItems', ARGV[1]) "
+            + "redis.call('HDEL', KEYS[1], 'splits', 'splitPointer') "
+            + "if tonumber(ARGV[3]) == 0 then "
+            + "    redis.call('HDEL', KEYS[1], 'victimIndex', 'victimTag') "
+            + "else "
+            + "    redis.call('HMSET', KEYS[1], 'victimIndex', ARGV[2], 'victimTag', ARGV[3]) "
+            + "end "
+            + "if #KEYS > 1 then "
+            + "    redis.call('INCR', KEYS[2]) "
+            + "end "
+            + "return {}";
+
+    /**
+     * 设置过期时间，KEYS与其他脚本相同，ARGV[1]为过期的unix时间(毫秒)。bitmap和变更序号不存在时先创建，
+     * 之后的BITFIELD、INCR不会清除过期时间，元数据hash在读取结构时已经创建
+     */
+    public static final String EXPIRE_AT = ""
+            + "if redis.call('EXISTS', KEYS[1]) == 0 then "
+            + "    redis.call('SETRANGE', KEYS[1], 0, '\\0') "
+            + "end "
+            + "if #KEYS > 2 and redis.call('EXISTS', KEYS[3]) == 0 then "
+            + "    redis.call('SET', KEYS[3], 0) "
+            + "end "
+            + "for i = 1, #KEYS do "
+            + "    redis.call('PEXPIREAT', KEYS[i], ARGV[1]) "
+            + "end "
+            + "return {}";
+
+    /**
+     * 保存过滤器的结构，KEYS[1]为元数据hash的key，ARGV为桶大小、指纹位数、桶个数、桶的编码方式。
+     * 已存在时不覆盖，返回redis中保存的结构，之前版本保存的结构没有编码方式，按普通编码返回
+     */
+    public static final String INIT_GEOMETRY = ""
+            + "if redis.call('HSETNX', KEYS[1], 'bucketSize', ARGV[1]) == 1 then "
+            + "    redis.call('HMSET', KEYS[1], 'bitsPerTag', ARGV[2], 'numBuckets', ARGV[3], 'encoding', ARGV[4]) "
+            + "end "
+            + "local stored = redis.call('HMGET', KEYS[1], 'bucketSize', 'bitsPerTag', 'numBuckets', 'encoding') "
+            + "return {tonumber(stored[1]), tonumber(stored[2]), tonumber(stored[3]), tonumber(stored[4]) or 0}";
+}
@@ -1,5 +1,7 @@
 package com.asdust.cuckoofilter.redis;
 
+import java.util.List;
+
 /**
  * author: chordCreater
  * date: 2022/8/14 16:44
@@ -7,10 +9,65 @@ package com.asdust.cuckoofilter.redis;
  **/
 public class RedisConfig {
 
+    /**
+     * 单机或主从模式下主节点的地址
+     */
     private String address;
 
+    /**
+     * redis集群的节点地址，不为空时以集群模式连接，忽略address
+     */
+    private List<String> clusterAddresses;
+
+    /**
+     * 从节点地址，不为空时以主从模式连接，address为主节点
+     */
+    private List<String> replicaAddresses;
+
+    /**
+     * 哨兵监控的主节点名称，与sentinelAddresses同时设置时以哨兵模式连接，忽略address
+     */
+    private String sentinelMasterName;
+
+    private List<String> sentinelAddresses;
+
+    /**
+     * 查询发往哪些节点，写入总是发往主节点；单机模式下忽略
+     */
+    private ReadMode readMode = ReadMode.MASTER;
+
+    /**
+     * 每个节点的连接池大小，主从、哨兵和集群模式下主节点和每个从节点各自一个连接池
+     */
+    private int connectionPoolSize = 64;
+
+    /**
+     * 每个节点最少保持的空闲连接数
+     */
+    private int connectionMinimumIdleSize = 24;
+
+    /**
+     * 命令的超时时间，毫秒
+     */
+    private int timeout = 3000;
+
+    /**
+     * 批量操作时每个lua脚本处理的元素个数，脚本执行期间redis不处理其他命令，越大单次阻塞越久
+     */
+    private int itemsPerScript = 512;
+
+    /**
+     * 批量操作时每个pipeline中包含的脚本个数
+     */
+    private int scriptsPerBatch = 32;
+
     private String redisBitKey;
 
+    /**
+     * 写入时是否发布桶的变更，供ReplicaFilterTable同步本地副本，所有写同一个key的客户端需要保持一致
+     */
+    private boolean publishChanges;
+
     public String getAddress() {
         return address;
     }
@@ -19,6 +76,98 @@ public class RedisConfig {
         this.address = address;
     }
 
+    public List<String> getClusterAddresses() {
+        return clusterAddresses;
+    }
+
+    public void setClusterAddresses(List<String> clusterAddresses) {
+        this.clusterAddresses = clusterAddresses;
+    }
+
+    public List<String> getReplicaAddresses() {
+        return replicaAddresses;
+    }
+
+    public void setReplicaAddresses(List<String> replicaAddresses) {
+        this.replicaAddresses = replicaAddresses;
+    }
+
+    public String getSentinelMasterName() {
+        return sentinelMasterName;
+    }
+
+    public void setSentinelMasterName(String sentinelMasterName) {
+        this.sentinelMasterName = sentinelMasterName;
+    }
+
+    public List<String> getSentinelAddresses() {
+        return sentinelAddresses;
+    }
+
+    public void setSentinelAddresses(List<String> sentinelAddresses) {
+        this.sentinelAddresses = sentinelAddresses;
+    }
+
+    public ReadMode getReadMode() {
+        return readMode;
+    }
+
+    public void setReadMode(ReadMode readMode) {
+        this.readMode = readMode;
+    }
+
+    public int getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+    public void setConnectionPoolSize(int connectionPoolSize) {
+        this.connectionPoolSize = connectionPoolSize;
+    }
+
+    public int getConnectionMinimumIdleSize() {
+        return connectionMinimumIdleSize;
+    }
+
+    public void setConnectionMinimumIdleSize(int connectionMinimumIdleSize) {
+        this.connectionMinimumIdleSize = connectionMinimumIdleSize;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public int getItemsPerScript() {
+        return itemsPerScript;
+    }
+
+    public void setItemsPerScript(int itemsPerScript) {
+        this.itemsPerScript = itemsPerScript;
+    }
+
+    public int getScriptsPerBatch() {
+        return scriptsPerBatch;
+    }
+
+    public void setScriptsPerBatch(int scriptsPerBatch) {
+        this.scriptsPerBatch = scriptsPerBatch;
+    }
+
+    /**
+     * 查询是否可能发往从节点，单机模式下总是读主节点
+     */
+    public boolean isReadFromReplicas() {
+        boolean single = isEmpty(sentinelAddresses) && isEmpty(clusterAddresses) && isEmpty(replicaAddresses);
+        return readMode != ReadMode.MASTER && !single;
+    }
+
+    private static boolean isEmpty(List<String> addresses) {
+        return addresses == null || addresses.isEmpty();
+    }
+
     public String getRedisBitKey() {
         return redisBitKey;
     }
@@ -26,4 +175,30 @@ public class RedisConfig {
     public void setRedisBitKey(String redisBitKey) {
         this.redisBitKey = redisBitKey;
     }
+
+    public boolean isPublishChanges() {
+        return publishChanges;
+    }
+
+    public void setPublishChanges(boolean publishChanges) {
+        this.publishChanges = publishChanges;
+    }
+
+    /**
+     * 查询的读取节点
+     */
+    public enum ReadMode {
+        /**
+         * 只从主节点读取，能读到自己刚写入的元素
+         */
+        MASTER,
+        /**
+         * 只从从节点读取，主节点只处理写入；复制有延迟，刚写入的元素可能短暂查不到，需要redis 6.2以上支持BITFIELD_RO
+         */
+        REPLICA,
+        /**
+         * 主节点和从节点轮流读取，同样需要redis 6.2以上
+         */
+        MASTER_REPLICA
+    }
 }
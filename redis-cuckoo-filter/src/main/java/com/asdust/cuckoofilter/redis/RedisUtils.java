@@ -16,9 +16,41 @@ import org.redisson.config.Config;
 public class RedisUtils extends Redisson{
 
     private String name;
+
+    /**
+     * 创建连接时的配置，FilterTable从中读取查询节点和批量操作的参数
+     */
+    private RedisConfig redisConfig;
+
     public RedisUtils(Config config, String name){
+        this(config, name, new RedisConfig());
+    }
+
+    public RedisUtils(Config config, String name, RedisConfig redisConfig){
         super(config);
         this.name = name;
+        this.redisConfig = redisConfig;
+    }
+
+    public RedisConfig getRedisConfig() {
+        return redisConfig;
+    }
+
+    /**
+     * 与key在同一个slot的附属key。集群按key中第一个"{"与其后第一个"}"之间的非空内容计算slot，没有时按整个key计算：
+     * key已有hash tag时直接在后面加上suffix，否则用"{key}"作为hash tag
+     */
+    public static String companionKey(String key, String suffix) {
+        int open = key.indexOf('{');
+        int close = open < 0 ? -1 : key.indexOf('}', open + 1);
+        if (close > open + 1) {
+            return key + ":" + suffix;
+        }
+        if (key.indexOf('}') >= 0) {
+            // "{key}"中的第一个"}"不在末尾，得到的hash tag只是key的一部分
+            throw new IllegalArgumentException("key中有\"}\"但没有有效的hash tag，无法生成同一slot的附属key：" + key);
+        }
+        return "{" + key + "}:" + suffix;
     }
 
     public RBitSetAsync createBitSet(CommandBatchService executorService) {
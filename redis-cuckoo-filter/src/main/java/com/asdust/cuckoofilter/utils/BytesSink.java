@@ -0,0 +1,152 @@
+package com.asdust.cuckoofilter.utils;
+
+import com.google.common.hash.PrimitiveSink;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @author: chordCreater
+ * @date: 2022/9/25 16:20
+ * @desc: Funnel的写入目标，所有字段以小端写入可复用的字节数组，与guava Hasher的写入格式一致，扩容后不再分配
+ */
+final class BytesSink implements PrimitiveSink {
+
+    private byte[] buffer = new byte[64];
+
+    private int size;
+
+    void reset() {
+        size = 0;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+
+    private void putLittleEndian(long value, int bytes) {
+        ensureCapacity(bytes);
+        for (int i = 0; i < bytes; i++) {
+            buffer[size++] = (byte) (value >>> (i * 8));
+        }
+    }
+
+    @Override
+    public PrimitiveSink putByte(byte b) {
+        ensureCapacity(1);
+        buffer[size++] = b;
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putBytes(byte[] bytes) {
+        return putBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public PrimitiveSink putBytes(byte[] bytes, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(bytes, off, buffer, size, len);
+        size += len;
+        return this;
+    }
+
+    public PrimitiveSink putBytes(ByteBuffer bytes) {
+        int len = bytes.remaining();
+        ensureCapacity(len);
+        bytes.get(buffer, size, len);
+        size += len;
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putShort(short s) {
+        putLittleEndian(s, Short.BYTES);
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putInt(int i) {
+        putLittleEndian(i, Integer.BYTES);
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putLong(long l) {
+        putLittleEndian(l, Long.BYTES);
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putFloat(float f) {
+        return putInt(Float.floatToRawIntBits(f));
+    }
+
+    @Override
+    public PrimitiveSink putDouble(double d) {
+        return putLong(Double.doubleToRawLongBits(d));
+    }
+
+    @Override
+    public PrimitiveSink putBoolean(boolean b) {
+        return putByte(b ? (byte) 1 : (byte) 0);
+    }
+
+    @Override
+    public PrimitiveSink putChar(char c) {
+        putLittleEndian(c, Character.BYTES);
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putUnencodedChars(CharSequence charSequence) {
+        for (int i = 0; i < charSequence.length(); i++) {
+            putChar(charSequence.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public PrimitiveSink putString(CharSequence charSequence, Charset charset) {
+        if (!StandardCharsets.UTF_8.equals(charset)) {
+            return putBytes(charSequence.toString().getBytes(charset));
+        }
+        // UTF-8直接编码到缓冲区，不创建中间数组
+        for (int i = 0; i < charSequence.length(); i++) {
+            char c = charSequence.charAt(i);
+            if (c < 0x80) {
+                putByte((byte) c);
+            } else if (c < 0x800) {
+                putByte((byte) (0xC0 | (c >>> 6)));
+                putByte((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < charSequence.length()
+                    && Character.isLowSurrogate(charSequence.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, charSequence.charAt(++i));
+                putByte((byte) (0xF0 | (codePoint >>> 18)));
+                putByte((byte) (0x80 | ((codePoint >>> 12) & 0x3F)));
+                putByte((byte) (0x80 | ((codePoint >>> 6) & 0x3F)));
+                putByte((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理字符按String.getBytes的方式替换为'?'
+                putByte((byte) '?');
+            } else {
+                putByte((byte) (0xE0 | (c >>> 12)));
+                putByte((byte) (0x80 | ((c >>> 6) & 0x3F)));
+                putByte((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return this;
+    }
+}
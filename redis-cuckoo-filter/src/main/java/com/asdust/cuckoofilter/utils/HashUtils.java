@@ -1,30 +1,310 @@
 package com.asdust.cuckoofilter.utils;
 
-import com.google.common.annotations.Beta;
 import com.google.common.hash.Funnel;
-import com.google.common.hash.Funnels;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 
 /**
  * @author: Jianxing.Huang
  * @date: 2022/8/4 15:52
- * @desc:
+ * @desc: 计算元素的64位hash，桶下标取高位，指纹取低位。
+ * long和byte数组的Murmur3_128、Murmur3_32、xxHash64为手写实现，不创建任何中间对象，结果与guava/xxHash的标准实现一致；
+ * sha256和sipHash24使用guava实现。Funnel先写入线程内复用的缓冲区，再按字节数组计算
  */
 public class HashUtils {
 
     private static final int seedNSalt = 0;
     private static final HashFunction hasher = Hashing.murmur3_128(seedNSalt);
+    private static final HashFunction SHA_256 = Hashing.sha256();
+    private static final HashFunction SIP_HASH_24 = Hashing.sipHash24();
 
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final int C1_32 = 0xcc9e2d51;
+    private static final int C2_32 = 0x1b873593;
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private static final ThreadLocal<BytesSink> SINKS = ThreadLocal.withInitial(BytesSink::new);
+
+    private HashUtils() {
+    }
+
+    /**
+     * 字符串的Murmur3_128 hash，在字符串后追加了seed，与之前版本写入的数据保持一致
+     */
     public static long hash(String item) {
         Hasher hashInst = hasher.newHasher();
         hashInst.putString(item, StandardCharsets.UTF_8);
         hashInst.putLong(seedNSalt);
-        return  hashInst.hash().asLong();
+        return hashInst.hash().asLong();
+    }
+
+    /**
+     * 字符串的hash，Murmur3_128与hash(String)相同，其他算法按UTF-8编码后的字节计算
+     */
+    public static long hash(String item, Algorithm algorithm) {
+        if (algorithm == Algorithm.Murmur3_128) {
+            return hash(item);
+        }
+        byte[] bytes = item.getBytes(StandardCharsets.UTF_8);
+        return hash(bytes, 0, bytes.length, algorithm);
+    }
+
+    /**
+     * long按8个字节小端计算hash，不创建对象
+     */
+    public static long hash(long value, Algorithm algorithm) {
+        switch (algorithm) {
+            case Murmur3_128:
+                return murmur3x128(value);
+            case Murmur3_32:
+                return ((long) murmur3x32(value, seedNSalt) << 32) | (murmur3x32(value, seedNSalt + 1) & 0xFFFFFFFFL);
+            case xxHash64:
+                return xxHash64(value);
+            case sha256:
+                return SHA_256.hashLong(value).asLong();
+            case sipHash24:
+                return SIP_HASH_24.hashLong(value).asLong();
+            default:
+                throw new IllegalArgumentException("不支持的hash算法：" + algorithm);
+        }
+    }
+
+    /**
+     * bytes[offset, offset + length)的hash，不复制数组
+     */
+    public static long hash(byte[] bytes, int offset, int length, Algorithm algorithm) {
+        switch (algorithm) {
+            case Murmur3_128:
+                return murmur3x128(bytes, offset, length);
+            case Murmur3_32:
+                return ((long) murmur3x32(bytes, offset, length, seedNSalt) << 32)
+                        | (murmur3x32(bytes, offset, length, seedNSalt + 1) & 0xFFFFFFFFL);
+            case xxHash64:
+                return xxHash64(bytes, offset, length);
+            case sha256:
+                return SHA_256.hashBytes(bytes, offset, length).asLong();
+            case sipHash24:
+                return SIP_HASH_24.hashBytes(bytes, offset, length).asLong();
+            default:
+                throw new IllegalArgumentException("不支持的hash算法：" + algorithm);
+        }
+    }
+
+    /**
+     * 由funnel将元素写入线程内复用的缓冲区后计算hash，元素的字段以小端写入，与guava Hasher的字节序一致
+     */
+    public static <T> long hash(T item, Funnel<? super T> funnel, Algorithm algorithm) {
+        BytesSink sink = SINKS.get();
+        sink.reset();
+        funnel.funnel(item, sink);
+        return hash(sink.buffer(), 0, sink.size(), algorithm);
+    }
+
+    private static long murmur3x128(long value) {
+        long h1 = seedNSalt;
+        long h2 = seedNSalt;
+        // 8个字节全部在尾部处理
+        h1 ^= mixK1(value);
+        return finish128(h1, h2, Long.BYTES);
+    }
+
+    private static long murmur3x128(byte[] bytes, int offset, int length) {
+        long h1 = seedNSalt;
+        long h2 = seedNSalt;
+        int end = offset + (length & ~15);
+        for (int i = offset; i < end; i += 16) {
+            h1 ^= mixK1(getLongLittleEndian(bytes, i));
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(getLongLittleEndian(bytes, i + 8));
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        int remaining = length & 15;
+        if (remaining > 0) {
+            long k1 = 0;
+            long k2 = 0;
+            for (int i = remaining - 1; i >= 8; i--) {
+                k2 = (k2 << 8) | (bytes[end + i] & 0xFF);
+            }
+            for (int i = Math.min(remaining, 8) - 1; i >= 0; i--) {
+                k1 = (k1 << 8) | (bytes[end + i] & 0xFF);
+            }
+            h1 ^= mixK1(k1);
+            h2 ^= mixK2(k2);
+        }
+        return finish128(h1, h2, length);
+    }
+
+    private static long finish128(long h1, long h2, int length) {
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        // 只需要前8个字节
+        return h1 + h2;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static int murmur3x32(long value, int seed) {
+        int h1 = mixH1(seed, mixK1x32((int) value));
+        h1 = mixH1(h1, mixK1x32((int) (value >>> 32)));
+        return fmix32(h1, Long.BYTES);
+    }
+
+    private static int murmur3x32(byte[] bytes, int offset, int length, int seed) {
+        int h1 = seed;
+        int end = offset + (length & ~3);
+        for (int i = offset; i < end; i += 4) {
+            h1 = mixH1(h1, mixK1x32(getIntLittleEndian(bytes, i)));
+        }
+        int k1 = 0;
+        for (int i = (length & 3) - 1; i >= 0; i--) {
+            k1 = (k1 << 8) | (bytes[end + i] & 0xFF);
+        }
+        h1 ^= mixK1x32(k1);
+        return fmix32(h1, length);
+    }
+
+    private static int mixK1x32(int k1) {
+        k1 *= C1_32;
+        k1 = Integer.rotateLeft(k1, 15);
+        return k1 * C2_32;
+    }
+
+    private static int mixH1(int h1, int k1) {
+        h1 ^= k1;
+        h1 = Integer.rotateLeft(h1, 13);
+        return h1 * 5 + 0xe6546b64;
+    }
+
+    private static int fmix32(int h1, int length) {
+        h1 ^= length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+
+    private static long xxHash64(long value) {
+        long h = seedNSalt + P5 + Long.BYTES;
+        h ^= xxRound(0, value);
+        h = Long.rotateLeft(h, 27) * P1 + P4;
+        return xxAvalanche(h);
+    }
+
+    private static long xxHash64(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        long h;
+        if (length >= 32) {
+            long v1 = seedNSalt + P1 + P2;
+            long v2 = seedNSalt + P2;
+            long v3 = seedNSalt;
+            long v4 = seedNSalt - P1;
+            for (int limit = end - 32; i <= limit; i += 32) {
+                v1 = xxRound(v1, getLongLittleEndian(bytes, i));
+                v2 = xxRound(v2, getLongLittleEndian(bytes, i + 8));
+                v3 = xxRound(v3, getLongLittleEndian(bytes, i + 16));
+                v4 = xxRound(v4, getLongLittleEndian(bytes, i + 24));
+            }
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = xxMergeRound(h, v1);
+            h = xxMergeRound(h, v2);
+            h = xxMergeRound(h, v3);
+            h = xxMergeRound(h, v4);
+        } else {
+            h = seedNSalt + P5;
+        }
+        h += length;
+        for (; i + 8 <= end; i += 8) {
+            h ^= xxRound(0, getLongLittleEndian(bytes, i));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (i + 4 <= end) {
+            h ^= (getIntLittleEndian(bytes, i) & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            i += 4;
+        }
+        for (; i < end; i++) {
+            h ^= (bytes[i] & 0xFF) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+        return xxAvalanche(h);
+    }
+
+    private static long xxRound(long acc, long lane) {
+        acc += lane * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long xxMergeRound(long acc, long v) {
+        acc ^= xxRound(0, v);
+        return acc * P1 + P4;
+    }
+
+    private static long xxAvalanche(long h) {
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long getLongLittleEndian(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFFL)
+                | (bytes[offset + 1] & 0xFFL) << 8
+                | (bytes[offset + 2] & 0xFFL) << 16
+                | (bytes[offset + 3] & 0xFFL) << 24
+                | (bytes[offset + 4] & 0xFFL) << 32
+                | (bytes[offset + 5] & 0xFFL) << 40
+                | (bytes[offset + 6] & 0xFFL) << 48
+                | (bytes[offset + 7] & 0xFFL) << 56;
+    }
+
+    private static int getIntLittleEndian(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+                | (bytes[offset + 1] & 0xFF) << 8
+                | (bytes[offset + 2] & 0xFF) << 16
+                | (bytes[offset + 3] & 0xFF) << 24;
     }
 
 
@@ -35,16 +315,15 @@ public class HashUtils {
      */
     public enum Algorithm {
         /**
-         * Murmer3 - 32 bit version, This is the default.
+         * Murmer3 - 32 bit version. 两个不同seed的32位结果拼成64位
          */
         Murmur3_32(0),
         /**
-         * Murmer3 - 128 bit version. Slower than 32 bit Murmer3, not sure why
-         * you would want to use this.
+         * Murmer3 - 128 bit version, This is the default. 取结果的前64位
          */
         Murmur3_128(1),
         /**
-         * SHA1 secure hash.
+         * SHA256 secure hash.
          */
         sha256(2),
         /**
@@ -0,0 +1,50 @@
+package com.asdust.cuckoofilter;
+
+import com.asdust.cuckoofilter.core.CuckooTable;
+import com.asdust.cuckoofilter.core.TableGeometry;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * 各个存储实现的测试共用的写满、删除过程
+ */
+final class FilterFixtures {
+
+	private FilterFixtures() {
+	}
+
+	/**
+	 * 依次写入key0、key1...直到写入失败，写入失败前所有写入成功的元素都能查到，最后一个被剔除的指纹在victim中
+	 *
+	 * @param minLoadFactor 写入失败时至少达到的负载因子
+	 * @return 写入成功的元素个数
+	 */
+	static int putUntilFull(CuckooFilter<String> filter, CuckooTable table, double minLoadFactor) {
+		int count = 0;
+		while (filter.put("key" + count)) {
+			count++;
+		}
+		TableGeometry geometry = table.getGeometry();
+		assertTrue(table.hasVictim());
+		assertTrue(count > geometry.getNumBuckets() * geometry.getBucketSize() * minLoadFactor);
+		for (int i = 0; i < count; i++) {
+			assertTrue(filter.contain("key" + i));
+		}
+		return count;
+	}
+
+	/**
+	 * 删除putUntilFull写入的偶数下标的元素，腾出空槽后victim被放回桶中，奇数下标的元素仍能查到
+	 */
+	static void deleteHalf(CuckooFilter<String> filter, CuckooTable table, int count) {
+		for (int i = 0; i < count; i += 2) {
+			assertTrue(filter.delete("key" + i));
+		}
+		assertFalse(table.hasVictim());
+		for (int i = 1; i < count; i += 2) {
+			assertTrue(filter.contain("key" + i));
+		}
+	}
+}
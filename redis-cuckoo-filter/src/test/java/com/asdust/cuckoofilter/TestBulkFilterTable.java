@@ -0,0 +1,80 @@
+package com.asdust.cuckoofilter;
+
+import com.asdust.cuckoofilter.core.BucketEncoding;
+import com.asdust.cuckoofilter.core.BulkFilterTable;
+import com.asdust.cuckoofilter.core.TableGeometry;
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestBulkFilterTable {
+
+	@Test
+	public void testBuildFrom() {
+		for (BucketEncoding encoding : BucketEncoding.values()) {
+			CuckooFilter<String> cuckooFilter = CuckooFilterBuilder.<String>create(200000, 0.001)
+					.encoding(encoding)
+					.buildFrom(IntStream.range(0, 200000).mapToObj(i -> "key" + i));
+			assertEquals(200000, cuckooFilter.size());
+			for (int i = 0; i < 200000; i++) {
+				assertTrue(cuckooFilter.contain("key" + i));
+			}
+			// 构建出的本地过滤器可以继续读写
+			assertTrue(cuckooFilter.delete("key0"));
+			assertTrue(cuckooFilter.put("key0"));
+			assertTrue(cuckooFilter.contain("key0"));
+		}
+	}
+
+	@Test
+	public void testExactBuckets() {
+		for (BucketEncoding encoding : BucketEncoding.values()) {
+			CuckooFilter<String> cuckooFilter = CuckooFilterBuilder.<String>create(150000, 0.001)
+					.encoding(encoding)
+					.exactBuckets(true)
+					.buildFrom(IntStream.range(0, 150000).mapToObj(i -> "key" + i));
+			for (int i = 0; i < 150000; i++) {
+				assertTrue(cuckooFilter.contain("key" + i));
+			}
+			assertFalse(cuckooFilter.contain("key-1"));
+		}
+		// 桶个数不是2的整数次幂时负载因子与2的整数次幂时相当，写满前写入的元素都能查到
+		CuckooFilter<String> cuckooFilter = CuckooFilterBuilder.<String>create(30000, 0.001)
+				.exactBuckets(true)
+				.buildFrom(Stream.empty());
+		int count = 0;
+		while (cuckooFilter.put("key" + count)) {
+			count++;
+		}
+		assertTrue(count > 30000);
+		for (int i = 0; i < count; i++) {
+			assertTrue(cuckooFilter.contain("key" + i));
+		}
+	}
+
+	@Test
+	public void testBucketSizeTwo() {
+		// 桶大小为2时写满前至少能放入负载因子对应的元素个数，桶个数取整和不取整都一样
+		for (boolean exactBuckets : new boolean[]{false, true}) {
+			TableGeometry geometry = TableGeometry.forFpp(30000, 0.001, BucketEncoding.PLAIN, exactBuckets);
+			assertEquals(2, geometry.getBucketSize());
+			CuckooFilter<String> cuckooFilter = new CuckooFilter<>(new BulkFilterTable(geometry));
+			int count = 0;
+			while (cuckooFilter.put("key" + count)) {
+				count++;
+			}
+			assertTrue(count >= geometry.getMaxItems());
+			assertTrue(geometry.getMaxItems() >= 30000);
+			for (int i = 0; i < count; i++) {
+				assertTrue(cuckooFilter.contain("key" + i));
+			}
+		}
+	}
+
+}
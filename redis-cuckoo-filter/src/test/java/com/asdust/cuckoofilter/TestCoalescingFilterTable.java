@@ -0,0 +1,128 @@
+package com.asdust.cuckoofilter;
+
+import com.asdust.cuckoofilter.core.CoalescingFilterTable;
+import com.asdust.cuckoofilter.core.FilterTable;
+import com.asdust.cuckoofilter.metrics.SimpleFilterMetrics;
+import com.asdust.cuckoofilter.redis.RedisConfig;
+import com.asdust.cuckoofilter.utils.HashUtils;
+import org.junit.Test;
+import org.redisson.client.codec.StringCodec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class TestCoalescingFilterTable {
+
+	private static RedisConfig redisConfig(String key) {
+		RedisConfig redisConfig = new RedisConfig();
+		redisConfig.setAddress("redis://127.0.0.1:6379");
+		redisConfig.setRedisBitKey(key);
+		return redisConfig;
+	}
+
+	private static CuckooFilter<String> coalesce(FilterTable table, long maxDelayMillis, int maxBatchSize,
+												 SimpleFilterMetrics metrics) {
+		CoalescingFilterTable coalescing = new CoalescingFilterTable(table, maxDelayMillis, TimeUnit.MILLISECONDS,
+				maxBatchSize);
+		return new CuckooFilter<>(coalescing, null, HashUtils.Algorithm.Murmur3_128, metrics);
+	}
+
+	@Test
+	public void testConcurrentCallers() throws InterruptedException, IOException {
+		String key = "cuckoo:key:coalescing:" + System.currentTimeMillis();
+		SimpleFilterMetrics metrics = new SimpleFilterMetrics();
+		CuckooFilter<String> filter = coalesce(new FilterTable(100000L, redisConfig(key)), 5, 64, metrics);
+		int threadCount = 64;
+		int perThread = 50;
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger failed = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < threadCount; t++) {
+			int thread = t;
+			threads.add(new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				for (int i = 0; i < perThread; i++) {
+					if (!filter.put("key" + thread + ":" + i) || !filter.contain("key" + thread + ":" + i)) {
+						failed.incrementAndGet();
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, failed.get());
+		assertEquals(threadCount * perThread, filter.size());
+		// 同时到达的调用合并到同一个pipeline中，网络往返次数远少于调用次数
+		long calls = 2L * threadCount * perThread;
+		assertTrue(metrics.getRoundTrips() < calls / 8);
+		assertTrue(filter.delete("key0:0"));
+		assertFalse(filter.contain("key0:0"));
+		filter.close();
+	}
+
+	@Test
+	public void testBatchFailure() throws IOException {
+		String key = "cuckoo:key:coalescing:error:" + System.currentTimeMillis();
+		FilterTable table = new FilterTable(10000L, redisConfig(key));
+		// bitmap的key被占用为hash，脚本执行失败
+		table.getRedisUtils().getMap(key, StringCodec.INSTANCE).put("field", "value");
+		SimpleFilterMetrics metrics = new SimpleFilterMetrics();
+		CuckooFilter<String> filter = coalesce(table, 50, 16, metrics);
+		List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+		for (int i = 0; i < 16; i++) {
+			futures.add(filter.putAsync("key" + i).toCompletableFuture());
+		}
+		// 同一批的所有调用方都收到同一个异常
+		for (CompletableFuture<Boolean> future : futures) {
+			try {
+				future.join();
+				fail();
+			} catch (CompletionException e) {
+				assertTrue(e.getCause().getMessage().contains("WRONGTYPE"));
+			}
+		}
+		assertEquals(1, metrics.getRoundTrips());
+		filter.close();
+	}
+
+	@Test
+	public void testCloseFlushesPending() throws IOException {
+		String key = "cuckoo:key:coalescing:close:" + System.currentTimeMillis();
+		FilterTable table = new FilterTable(10000L, redisConfig(key));
+		CuckooFilter<String> filter = coalesce(table, TimeUnit.MINUTES.toMillis(1), 1000, new SimpleFilterMetrics());
+		CompletableFuture<Boolean> put = filter.putAsync("aaaa").toCompletableFuture();
+		assertFalse(put.isDone());
+		// 关闭时已收集的元素立即发出，之后的调用被拒绝
+		filter.close();
+		assertTrue(put.join());
+		assertTrue(new CuckooFilter<String>(table).contain("aaaa"));
+		try {
+			filter.put("bbbb");
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("已关闭"));
+		}
+	}
+}
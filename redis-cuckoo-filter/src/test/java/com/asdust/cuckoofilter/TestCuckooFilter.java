@@ -18,8 +18,16 @@ package com.asdust.cuckoofilter;
 
 import com.asdust.cuckoofilter.redis.RedisConfig;
 import com.google.common.hash.Funnels;
+import io.reactivex.rxjava3.core.Single;
 import org.junit.Test;
+import reactor.core.publisher.Mono;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -45,6 +53,127 @@ public class TestCuckooFilter {
 		// todo 后面还需要测试过滤的准确率，若测试可容纳10000元素的过滤器，往里面插入10000个元素，有3个是重复的，准确率=1-(3/10000)
 	}
 
+	@Test
+	public void testSnapshot() throws IOException {
+		RedisConfig redisConfig = new RedisConfig();
+		redisConfig.setAddress("redis://127.0.0.1:6379");
+		redisConfig.setRedisBitKey("cuckoo:key:snapshot");
+		CuckooFilter<String> source = new CuckooFilter<>(10000L, redisConfig);
+		for (int i = 0; i < 1000; i++) {
+			source.put("key" + i);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		source.exportTo(out, true);
+
+		redisConfig.setRedisBitKey("cuckoo:key:snapshot:copy");
+		CuckooFilter<String> copy = new CuckooFilter<>(10000L, redisConfig);
+		copy.importFrom(new ByteArrayInputStream(out.toByteArray()));
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(copy.contain("key" + i));
+		}
+	}
+
+	@Test
+	public void testSharedSize() {
+		RedisConfig redisConfig = new RedisConfig();
+		redisConfig.setAddress("redis://127.0.0.1:6379");
+		redisConfig.setRedisBitKey("cuckoo:key:size:" + System.currentTimeMillis());
+		CuckooFilter<String> first = new CuckooFilter<>(10000L, redisConfig);
+		CuckooFilter<String> second = new CuckooFilter<>(10000L, redisConfig);
+		for (int i = 0; i < 100; i++) {
+			first.put("first" + i);
+			second.put("second" + i);
+		}
+		// 元素个数、负载因子和误判率都以redis中的计数为准，两个客户端看到的相同
+		assertEquals(200, first.size());
+		assertEquals(200, second.size());
+		assertEquals(first.loadFactor(), second.loadFactor(), 0);
+		assertTrue(second.delete("first0"));
+		assertEquals(199, first.size());
+	}
+
+	@Test
+	public void testPutIfAbsent() {
+		RedisConfig redisConfig = new RedisConfig();
+		redisConfig.setAddress("redis://127.0.0.1:6379");
+		redisConfig.setRedisBitKey("cuckoo:key:absent:" + System.currentTimeMillis());
+		CuckooFilter<String> filter = new CuckooFilter<>(10000L, redisConfig);
+		assertTrue(filter.putIfAbsent("aaaa"));
+		assertFalse(filter.putIfAbsent("aaaa"));
+		assertTrue(filter.contain("aaaa"));
+		assertTrue(filter.delete("aaaa"));
+		assertTrue(filter.putIfAbsent("aaaa"));
+	}
+
+	@Test
+	public void testAsync() {
+		RedisConfig redisConfig = new RedisConfig();
+		redisConfig.setAddress("redis://127.0.0.1:6379");
+		redisConfig.setRedisBitKey("cuckoo:key:async:" + System.currentTimeMillis());
+		CuckooFilter<String> filter = new CuckooFilter<>(10000L, redisConfig);
+		assertTrue(filter.putAsync("aaaa").toCompletableFuture().join());
+		assertTrue(filter.containAsync("aaaa").toCompletableFuture().join());
+		assertFalse(filter.putIfAbsentAsync("aaaa").toCompletableFuture().join());
+		assertTrue(filter.putIfAbsentAsync("bbbb").toCompletableFuture().join());
+		assertEquals(2, filter.size());
+		assertTrue(filter.deleteAsync("aaaa").toCompletableFuture().join());
+		assertFalse(filter.containAsync("aaaa").toCompletableFuture().join());
+		assertFalse(filter.deleteAsync("aaaa").toCompletableFuture().join());
+		assertEquals(1, filter.size());
+
+		// 创建Mono和Single时不发送请求，订阅时才执行
+		CuckooFilterReactive<String> reactive = new CuckooFilterReactive<>(filter);
+		Mono<Boolean> put = reactive.put("cccc");
+		Mono<Boolean> putIfAbsent = reactive.putIfAbsent("cccc");
+		assertFalse(filter.contain("cccc"));
+		assertTrue(put.block());
+		assertTrue(reactive.contain("cccc").block());
+		assertFalse(putIfAbsent.block());
+
+		CuckooFilterRx<String> rx = new CuckooFilterRx<>(filter);
+		Single<Boolean> delete = rx.delete("cccc");
+		assertTrue(filter.contain("cccc"));
+		assertTrue(delete.blockingGet());
+		assertFalse(rx.contain("cccc").blockingGet());
+		assertEquals(1, filter.size());
+	}
+
+	@Test
+	public void testResize() {
+		RedisConfig redisConfig = new RedisConfig();
+		redisConfig.setAddress("redis://127.0.0.1:6379");
+		redisConfig.setRedisBitKey("cuckoo:key:resize:" + System.currentTimeMillis());
+		CuckooFilter<String> filter = CuckooFilterBuilder.<String>create(1000L, 0.001)
+				.funnel(Funnels.stringFunnel(StandardCharsets.UTF_8))
+				.redisConfig(redisConfig)
+				.resizable(true)
+				.build();
+		CuckooFilter<String> other = CuckooFilterBuilder.<String>create(1000L, 0.001)
+				.funnel(Funnels.stringFunnel(StandardCharsets.UTF_8))
+				.redisConfig(redisConfig)
+				.resizable(true)
+				.build();
+		for (int i = 0; i < 900; i++) {
+			assertTrue(filter.put("key" + i));
+		}
+		double loadFactor = other.loadFactor();
+		double expectedFpp = other.expectedFpp();
+		assertEquals(1, filter.resize());
+		// 其他客户端读取元素个数时得到新的扩容次数，负载因子减半，比较位数少一位
+		assertEquals(loadFactor / 2, other.loadFactor(), 1e-9);
+		assertEquals(filter.expectedFpp(), other.expectedFpp(), 0);
+		assertTrue(other.expectedFpp() > expectedFpp);
+		for (int i = 900; i < 1800; i++) {
+			assertTrue(filter.put("key" + i));
+		}
+		assertEquals(2, filter.resize());
+		for (int i = 0; i < 1800; i++) {
+			assertTrue(filter.contain("key" + i));
+		}
+		assertTrue(filter.delete("key0"));
+		assertFalse(filter.contain("key0"));
+	}
+
 
 
 }
@@ -0,0 +1,280 @@
+package com.asdust.cuckoofilter;
+
+import com.asdust.cuckoofilter.core.AbstractFilterTable;
+import com.asdust.cuckoofilter.core.BucketEncoding;
+import com.asdust.cuckoofilter.core.CoalescingFilterTable;
+import com.asdust.cuckoofilter.core.InsertStrategy;
+import com.asdust.cuckoofilter.core.LocalFilterTable;
+import com.asdust.cuckoofilter.core.MappedFilterTable;
+import com.asdust.cuckoofilter.metrics.FilterMetrics;
+import com.asdust.cuckoofilter.metrics.SimpleFilterMetrics;
+import com.asdust.cuckoofilter.utils.HashUtils;
+import com.google.common.hash.Funnel;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestLocalFilterTable {
+
+	@Test
+	public void testPutContainDelete() {
+		CuckooFilter<String> cuckooFilter = new CuckooFilter<>(new LocalFilterTable(100));
+		assertTrue(cuckooFilter.put("aaaa"));
+		assertTrue(cuckooFilter.contain("aaaa"));
+		assertTrue(cuckooFilter.delete("aaaa"));
+		assertFalse(cuckooFilter.contain("aaaa"));
+		assertFalse(cuckooFilter.delete("aaaa"));
+	}
+
+	@Test
+	public void testPrimitiveAndFunnel() {
+		CuckooFilter<Long> longFilter = new CuckooFilter<>(new LocalFilterTable(1000), null, HashUtils.Algorithm.xxHash64);
+		assertTrue(longFilter.put(42L));
+		// 装箱的Long与long的hash一致
+		assertTrue(longFilter.contain(Long.valueOf(42)));
+		assertTrue(longFilter.delete(42L));
+		assertFalse(longFilter.contain(42L));
+
+		byte[] bytes = "--key--".getBytes(StandardCharsets.UTF_8);
+		CuckooFilter<byte[]> bytesFilter = new CuckooFilter<>(new LocalFilterTable(1000));
+		assertTrue(bytesFilter.put(bytes, 2, 3));
+		assertTrue(bytesFilter.contain("key".getBytes(StandardCharsets.UTF_8)));
+
+		Funnel<String> funnel = (item, sink) -> sink.putString(item, StandardCharsets.UTF_8);
+		CuckooFilter<String> funnelFilter = new CuckooFilter<>(new LocalFilterTable(1000), funnel, HashUtils.Algorithm.Murmur3_32);
+		assertTrue(funnelFilter.put("key"));
+		assertTrue(funnelFilter.contain(bytes, 2, 3));
+	}
+
+	@Test
+	public void testConcurrentInsert() throws InterruptedException {
+		final LocalFilterTable table = new LocalFilterTable(100000);
+		final CuckooFilter<String> cuckooFilter = new CuckooFilter<>(table);
+		final AtomicInteger failed = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			final int offset = t * 10000;
+			Thread thread = new Thread(() -> {
+				for (int i = offset; i < offset + 10000; i++) {
+					if (!cuckooFilter.put("key" + i)) {
+						failed.incrementAndGet();
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, failed.get());
+		for (int i = 0; i < 80000; i++) {
+			assertTrue(cuckooFilter.contain("key" + i));
+		}
+	}
+
+	@Test
+	public void testPutUntilFull() {
+		LocalFilterTable table = new LocalFilterTable(10000);
+		CuckooFilter<String> cuckooFilter = new CuckooFilter<>(table);
+		int count = FilterFixtures.putUntilFull(cuckooFilter, table, 0.9);
+		FilterFixtures.deleteHalf(cuckooFilter, table, count);
+		// 删除元素腾出空槽后victim被放回桶中，可以继续写入
+		assertTrue(cuckooFilter.put("key" + count));
+	}
+
+	@Test
+	public void testMetrics() {
+		SimpleFilterMetrics metrics = new SimpleFilterMetrics();
+		CuckooFilter<String> cuckooFilter = new CuckooFilter<>(new LocalFilterTable(1000), null,
+				HashUtils.Algorithm.Murmur3_128, metrics);
+		int count = 0;
+		while (cuckooFilter.put("key" + count)) {
+			count++;
+		}
+		assertTrue(cuckooFilter.contain("key0"));
+		assertTrue(cuckooFilter.delete("key0"));
+		assertEquals(count + 1, metrics.getCount(FilterMetrics.Op.PUT));
+		assertEquals(1, metrics.getCount(FilterMetrics.Op.CONTAIN));
+		assertEquals(1, metrics.getCount(FilterMetrics.Op.DELETE));
+		assertEquals(1, metrics.getPutFailed());
+		// 本地存储没有网络往返，接近满载时的写入需要剔除
+		assertEquals(0, metrics.getRoundTrips());
+		assertTrue(metrics.getKicksPercentile(1.0) > 0);
+		assertTrue(metrics.getLatencyPercentile(FilterMetrics.Op.PUT, 0.5, TimeUnit.NANOSECONDS) > 0);
+		assertTrue(cuckooFilter.loadFactor() > 0.9);
+		assertTrue(cuckooFilter.expectedFpp() < 8.0 / (1 << 16));
+	}
+
+	@Test
+	public void testContainsAllBatch() {
+		for (BucketEncoding encoding : BucketEncoding.values()) {
+			CuckooFilter<Long> cuckooFilter = new CuckooFilter<>(new LocalFilterTable(10000, encoding));
+			long count = 0;
+			while (cuckooFilter.put(count)) {
+				count++;
+			}
+			// 批量查询的结果与逐个查询一致，包括victim中的元素和不存在的元素
+			long[] items = new long[(int) count * 2 + 3];
+			for (int i = 0; i < items.length; i++) {
+				items[i] = i;
+			}
+			boolean[] results = cuckooFilter.containsAll(items);
+			for (int i = 0; i < items.length; i++) {
+				assertEquals(cuckooFilter.contain(items[i]), results[i]);
+				if (i < count) {
+					assertTrue(results[i]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBfsPutUntilFull() {
+		for (BucketEncoding encoding : BucketEncoding.values()) {
+			LocalFilterTable table = new LocalFilterTable(10000, encoding);
+			table.setInsertStrategy(InsertStrategy.BFS);
+			SimpleFilterMetrics metrics = new SimpleFilterMetrics();
+			CuckooFilter<String> cuckooFilter = new CuckooFilter<>(table, null, HashUtils.Algorithm.Murmur3_128, metrics);
+			// 最短路径的移动次数很少，可以写到比随机剔除(约0.93)更高的负载因子
+			int count = FilterFixtures.putUntilFull(cuckooFilter, table, 0.95);
+			assertTrue(metrics.getKicksPercentile(0.99) <= 8);
+			FilterFixtures.deleteHalf(cuckooFilter, table, count);
+		}
+	}
+
+	@Test
+	public void testBfsConcurrentPutDelete() throws InterruptedException, IOException {
+		for (BucketEncoding encoding : BucketEncoding.values()) {
+			LocalFilterTable table = new LocalFilterTable(2000, encoding);
+			table.setInsertStrategy(InsertStrategy.BFS);
+			putDeleteConcurrently(table, 0.93);
+		}
+		Path file = Files.createTempFile("cuckoo", ".filter");
+		Files.delete(file);
+		try (MappedFilterTable table = new MappedFilterTable(2000, file)) {
+			table.setInsertStrategy(InsertStrategy.BFS);
+			putDeleteConcurrently(table, 0.93);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * 负载保持在load，各线程反复删除自己最早写入的key并写入一个新key。剔除路径会被其他线程的写入和删除破坏，
+	 * 破坏后重新查找，不会因此把指纹放入victim；移动中的指纹也不会被删除和查询漏掉
+	 */
+	private static void putDeleteConcurrently(AbstractFilterTable table, double load) throws InterruptedException {
+		CuckooFilter<String> cuckooFilter = new CuckooFilter<>(table);
+		int perThread = (int) (table.getNumBuckets() * table.getBucketSize() * load) / 8;
+		int steps = 20000;
+		for (int t = 0; t < 8; t++) {
+			for (int i = 0; i < perThread; i++) {
+				assertTrue(cuckooFilter.put("key" + t + ":" + i));
+			}
+		}
+		final AtomicInteger failed = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			final String prefix = "key" + t + ":";
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < steps; i++) {
+					if (!cuckooFilter.delete(prefix + i) || !cuckooFilter.put(prefix + (i + perThread))) {
+						failed.incrementAndGet();
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, failed.get());
+		assertFalse(table.hasVictim());
+		for (int t = 0; t < 8; t++) {
+			for (int i = steps; i < steps + perThread; i++) {
+				assertTrue(cuckooFilter.contain("key" + t + ":" + i));
+			}
+		}
+	}
+
+	@Test
+	public void testCoalescingConcurrentPut() throws InterruptedException {
+		LocalFilterTable table = new LocalFilterTable(100000);
+		CoalescingFilterTable coalescing = new CoalescingFilterTable(table, 200, TimeUnit.MICROSECONDS, 64);
+		final CuckooFilter<String> cuckooFilter = new CuckooFilter<>(coalescing);
+		final AtomicInteger failed = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			final int offset = t * 5000;
+			Thread thread = new Thread(() -> {
+				for (int i = offset; i < offset + 5000; i++) {
+					if (!cuckooFilter.put("key" + i) || !cuckooFilter.contain("key" + i)) {
+						failed.incrementAndGet();
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, failed.get());
+		assertEquals(40000, cuckooFilter.size());
+		assertTrue(cuckooFilter.delete("key0"));
+		assertFalse(cuckooFilter.contain("key0"));
+		coalescing.close();
+	}
+
+	@Test
+	public void testConcurrentPutIfAbsent() throws InterruptedException {
+		LocalFilterTable table = new LocalFilterTable(100000);
+		final CuckooFilter<String> cuckooFilter = new CuckooFilter<>(table);
+		final int keys = 110000;
+		// 所有线程写入同样的key，各自从不同的位置开始，写满到需要剔除的程度
+		final AtomicIntegerArray added = new AtomicIntegerArray(keys);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			final int offset = t * (keys / 8);
+			Thread thread = new Thread(() -> {
+				for (int n = 0; n < keys; n++) {
+					int i = (offset + n) % keys;
+					if (cuckooFilter.putIfAbsent("key" + i)) {
+						added.incrementAndGet(i);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		int total = 0;
+		for (int i = 0; i < keys; i++) {
+			assertTrue(added.get(i) <= 1);
+			assertTrue(cuckooFilter.contain("key" + i));
+			total += added.get(i);
+		}
+		// 只有误判为已存在的key没有写入
+		assertEquals(total, cuckooFilter.size());
+		assertTrue(total > keys * 0.99);
+		assertFalse(cuckooFilter.putIfAbsent("key0"));
+	}
+
+}
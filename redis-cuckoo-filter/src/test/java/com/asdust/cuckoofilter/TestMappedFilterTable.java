@@ -0,0 +1,85 @@
+package com.asdust.cuckoofilter;
+
+import com.asdust.cuckoofilter.core.MappedFilterTable;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class TestMappedFilterTable {
+
+	@Test
+	public void testReopen() throws IOException {
+		Path file = Files.createTempFile("cuckoo", ".filter");
+		Files.delete(file);
+		try {
+			int count;
+			long numBuckets;
+			try (MappedFilterTable table = new MappedFilterTable(10000, file)) {
+				numBuckets = table.getNumBuckets();
+				count = FilterFixtures.putUntilFull(new CuckooFilter<>(table), table, 0.9);
+				assertEquals(count, table.size());
+			}
+			// 重新打开时以文件中的结构为准，元素、victim和元素个数都还在
+			int remaining = count / 2;
+			try (MappedFilterTable table = new MappedFilterTable(1, file)) {
+				assertEquals(numBuckets, table.getNumBuckets());
+				assertTrue(table.hasVictim());
+				CuckooFilter<String> cuckooFilter = new CuckooFilter<>(table);
+				assertEquals(count, cuckooFilter.size());
+				assertTrue(cuckooFilter.loadFactor() > 0.9);
+				for (int i = 0; i < count; i++) {
+					assertTrue(cuckooFilter.contain("key" + i));
+				}
+				FilterFixtures.deleteHalf(cuckooFilter, table, count);
+				assertEquals(remaining, cuckooFilter.size());
+			}
+			try (MappedFilterTable table = new MappedFilterTable(1, file)) {
+				assertEquals(remaining, new CuckooFilter<String>(table).size());
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testReopenWithoutMagic() throws IOException {
+		Path file = Files.createTempFile("cuckoo", ".filter");
+		try {
+			// 创建时映射后、写入魔数前崩溃：文件已扩展到文件头的大小，结构字段可能已写入，魔数仍为0
+			ByteBuffer header = ByteBuffer.allocate(4096 + 8 * 1024);
+			header.putInt(8, 4);
+			header.putInt(12, 16);
+			header.putLong(16, 1024);
+			Files.write(file, header.array());
+			try {
+				new MappedFilterTable(10000, file).close();
+				fail();
+			} catch (IOException e) {
+				assertTrue(e.getMessage().contains("文件头不完整"));
+			}
+			// 拒绝时文件保持原样，删除后可以重新创建
+			assertEquals(header.capacity(), Files.size(file));
+			Files.delete(file);
+			try (MappedFilterTable table = new MappedFilterTable(10000, file)) {
+				CuckooFilter<String> cuckooFilter = new CuckooFilter<>(table);
+				assertTrue(cuckooFilter.put("aaaa"));
+			}
+			try (MappedFilterTable table = new MappedFilterTable(1, file)) {
+				assertTrue(new CuckooFilter<String>(table).contain("aaaa"));
+				assertFalse(table.hasVictim());
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+package com.asdust.cuckoofilter;
+
+import com.asdust.cuckoofilter.redis.RedisUtils;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestRedisKeys {
+
+	/**
+	 * 按redis集群的规则计算slot：有非空的hash tag时只对其计算CRC16，否则对整个key计算，再对16384取模
+	 */
+	private static int slot(String key) {
+		int open = key.indexOf('{');
+		if (open >= 0) {
+			int close = key.indexOf('}', open + 1);
+			if (close > open + 1) {
+				key = key.substring(open + 1, close);
+			}
+		}
+		int crc = 0;
+		for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+			crc ^= (b & 0xFF) << 8;
+			for (int i = 0; i < 8; i++) {
+				crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+			}
+		}
+		return (crc & 0xFFFF) % 16384;
+	}
+
+	@Test
+	public void testSlot() {
+		// redis集群规范中给出的CRC16校验值
+		assertEquals(0x31C3 % 16384, slot("123456789"));
+		assertEquals(slot("user1000"), slot("{user1000}.following"));
+		assertTrue(slot("foo") != slot("{}foo"));
+	}
+
+	@Test
+	public void testCompanionKey() {
+		String[] keys = {"cuckoo:key", "{user1000}:bits", "cuckoo:{user1000}:bits", "a{b}c{d}", "{bits"};
+		for (String key : keys) {
+			for (String suffix : new String[]{"meta", "changes", "generations", "g1"}) {
+				String companion = RedisUtils.companionKey(key, suffix);
+				assertEquals(key + " " + suffix, slot(key), slot(companion));
+				// 附属key的附属key仍在同一个slot，例如ScalableCuckooFilter第i代的元数据
+				assertEquals(slot(key), slot(RedisUtils.companionKey(companion, "meta")));
+			}
+		}
+		assertEquals("{cuckoo:key}:meta", RedisUtils.companionKey("cuckoo:key", "meta"));
+		assertEquals("{user1000}:bits:meta", RedisUtils.companionKey("{user1000}:bits", "meta"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoValidTag() {
+		// 只有空的hash tag时按整个key计算slot，"{key}"的hash tag会在key中的"}"处截断
+		RedisUtils.companionKey("{}bits", "meta");
+	}
+}
@@ -0,0 +1,144 @@
+package com.asdust.cuckoofilter;
+
+import com.asdust.cuckoofilter.core.BucketEncoding;
+import com.asdust.cuckoofilter.core.FilterTable;
+import com.asdust.cuckoofilter.core.LocalFilterTable;
+import com.asdust.cuckoofilter.core.ReplicaFilterTable;
+import com.asdust.cuckoofilter.core.TableGeometry;
+import com.asdust.cuckoofilter.redis.RedisConfig;
+import com.asdust.cuckoofilter.redis.RedisUtils;
+import org.junit.Test;
+import org.redisson.client.codec.StringCodec;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestReplicaFilterTable {
+
+	private static final long MAX_STALENESS_MILLIS = 200;
+
+	private static RedisConfig redisConfig(String key, boolean publishChanges) {
+		RedisConfig redisConfig = new RedisConfig();
+		redisConfig.setAddress("redis://127.0.0.1:6379");
+		redisConfig.setRedisBitKey(key);
+		redisConfig.setPublishChanges(publishChanges);
+		return redisConfig;
+	}
+
+	private static boolean await(CuckooFilter<String> filter, String item, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (System.currentTimeMillis() < deadline) {
+			if (filter.contain(item)) {
+				return true;
+			}
+			Thread.sleep(10);
+		}
+		return filter.contain(item);
+	}
+
+	@Test
+	public void testResync() throws InterruptedException {
+		String key = "cuckoo:key:replica:" + System.currentTimeMillis();
+		CuckooFilter<String> writer = new CuckooFilter<>(10000L, redisConfig(key, true));
+		// 副本创建前写入的元素通过加载bitmap得到，之后的通过变更消息得到
+		for (int i = 0; i < 1000; i++) {
+			writer.put("before" + i);
+		}
+		ReplicaFilterTable table = new ReplicaFilterTable(10000L, redisConfig(key, true), MAX_STALENESS_MILLIS);
+		CuckooFilter<String> replica = new CuckooFilter<>(table);
+		assertTrue(table.isSynced());
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(replica.contain("before" + i));
+		}
+		for (int i = 0; i < 1000; i++) {
+			writer.put("after" + i);
+		}
+		assertTrue(await(replica, "after999", 5000));
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(replica.contain("after" + i));
+		}
+		writer.delete("after0");
+		long deadline = System.currentTimeMillis() + 5000;
+		while (replica.contain("after0") && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertFalse(replica.contain("after0"));
+		table.shutdown();
+	}
+
+	@Test
+	public void testSequenceGap() throws InterruptedException {
+		String key = "cuckoo:key:replica:gap:" + System.currentTimeMillis();
+		FilterTable writerTable = new FilterTable(10000L, redisConfig(key, true));
+		CuckooFilter<String> writer = new CuckooFilter<>(writerTable);
+		writer.put("aaaa");
+		ReplicaFilterTable table = new ReplicaFilterTable(10000L, redisConfig(key, true), MAX_STALENESS_MILLIS);
+		CuckooFilter<String> replica = new CuckooFilter<>(table);
+		assertTrue(replica.contain("aaaa"));
+
+		// 跳过几个序号的消息说明中间的变更丢失，副本丢弃该消息并重新加载，不会把桶0清空
+		RedisUtils redisUtils = writerTable.getRedisUtils();
+		long seq = redisUtils.getAtomicLong(writerTable.getChangeKey()).get();
+		redisUtils.getTopic(writerTable.getChangeKey(), StringCodec.INSTANCE).publish((seq + 5) + ":0:0,0,0,0");
+		writer.put("bbbb");
+		assertTrue(await(replica, "bbbb", 5000));
+		assertTrue(replica.contain("aaaa"));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!table.isSynced() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(table.isSynced());
+		table.shutdown();
+	}
+
+	@Test
+	public void testStalenessFallback() throws InterruptedException {
+		String key = "cuckoo:key:replica:stale:" + System.currentTimeMillis();
+		FilterTable publisher = new FilterTable(10000L, redisConfig(key, true));
+		ReplicaFilterTable table = new ReplicaFilterTable(10000L, redisConfig(key, true), MAX_STALENESS_MILLIS);
+		CuckooFilter<String> replica = new CuckooFilter<>(table);
+
+		// 不发布变更的客户端写入后只增加序号，副本收不到消息，超过两个检查周期后按序号落后重新加载
+		CuckooFilter<String> silent = new CuckooFilter<>(10000L, redisConfig(key, false));
+		silent.put("aaaa");
+		publisher.getRedisUtils().getAtomicLong(publisher.getChangeKey()).incrementAndGet();
+		assertFalse(replica.contain("aaaa"));
+		assertTrue(await(replica, "aaaa", MAX_STALENESS_MILLIS * 10));
+		table.shutdown();
+	}
+
+	@Test
+	public void testSemiSortedGeometry() throws InterruptedException {
+		String key = "cuckoo:key:replica:semi:" + System.currentTimeMillis();
+		RedisConfig redisConfig = redisConfig(key, true);
+		// 非2的整数次幂的桶个数和半排序编码的结构都以redis中保存的为准，与副本传入的期望元素个数无关
+		RedisUtils redisUtils = FilterTable.connect(redisConfig);
+		TableGeometry geometry = FilterTable.loadGeometry(redisUtils, key,
+				LocalFilterTable.geometryFor(10000L, BucketEncoding.SEMI_SORTED, true));
+		CuckooFilter<String> writer = new CuckooFilter<>(new FilterTable(geometry, false, redisUtils, key, true));
+		for (int i = 0; i < 1000; i++) {
+			writer.put("before" + i);
+		}
+		ReplicaFilterTable table = new ReplicaFilterTable(100L, redisConfig, MAX_STALENESS_MILLIS);
+		CuckooFilter<String> replica = new CuckooFilter<>(table);
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(replica.contain("before" + i));
+		}
+		for (int i = 0; i < 100; i++) {
+			writer.put("after" + i);
+		}
+		assertTrue(await(replica, "after99", 5000));
+		for (int i = 0; i < 100; i++) {
+			assertTrue(replica.contain("after" + i));
+		}
+		table.shutdown();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedGeometry() {
+		String key = "cuckoo:key:replica:b2:" + System.currentTimeMillis();
+		RedisConfig redisConfig = redisConfig(key, true);
+		FilterTable.loadGeometry(FilterTable.connect(redisConfig), key, new TableGeometry(2, 12, 1024));
+		new ReplicaFilterTable(10000L, redisConfig, MAX_STALENESS_MILLIS);
+	}
+}
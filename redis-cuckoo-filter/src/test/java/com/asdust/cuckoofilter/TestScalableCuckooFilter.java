@@ -0,0 +1,101 @@
+package com.asdust.cuckoofilter;
+
+import com.asdust.cuckoofilter.redis.RedisConfig;
+import com.asdust.cuckoofilter.utils.HashUtils;
+import com.google.common.hash.Funnels;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestScalableCuckooFilter {
+
+	private static RedisConfig redisConfig(String key) {
+		RedisConfig redisConfig = new RedisConfig();
+		redisConfig.setAddress("redis://127.0.0.1:6379");
+		redisConfig.setRedisBitKey(key);
+		return redisConfig;
+	}
+
+	@Test
+	public void testGrow() {
+		String key = "cuckoo:key:scalable:" + System.currentTimeMillis();
+		ScalableCuckooFilter<CharSequence> filter = new ScalableCuckooFilter<>(100L, redisConfig(key), 1000,
+				Funnels.stringFunnel(StandardCharsets.UTF_8), HashUtils.Algorithm.xxHash64);
+		assertEquals(1, filter.getGenerationCount());
+		for (int i = 0; i < 5000; i++) {
+			assertTrue(filter.put("key" + i));
+		}
+		// 第0代容量只有几百个，写满后依次新增，每一代只在前一代写满后才新增
+		assertTrue(filter.getGenerationCount() > 1);
+		for (int i = 0; i < filter.getGenerationCount() - 1; i++) {
+			assertTrue(filter.generationSize(i) > 0);
+		}
+		assertEquals(5000, filter.size());
+		for (int i = 0; i < 5000; i++) {
+			assertTrue(filter.contain("key" + i));
+		}
+		assertTrue(filter.delete("key0"));
+		assertEquals(4999, filter.size());
+	}
+
+	@Test
+	public void testConcurrentGrow() throws InterruptedException {
+		String key = "cuckoo:key:scalable:cas:" + System.currentTimeMillis();
+		// 两个客户端同时写满同一代时只有一个能把代数加1，另一个刷新后写入新的一代，不会跳过或重复新增
+		ScalableCuckooFilter<String> first = new ScalableCuckooFilter<>(100L, redisConfig(key), 0);
+		ScalableCuckooFilter<String> second = new ScalableCuckooFilter<>(100L, redisConfig(key), 0);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		CountDownLatch latch = new CountDownLatch(4);
+		for (int t = 0; t < 4; t++) {
+			ScalableCuckooFilter<String> filter = t % 2 == 0 ? first : second;
+			int thread = t;
+			executor.execute(() -> {
+				for (int i = 0; i < 1000; i++) {
+					filter.put("key" + thread + ":" + i);
+				}
+				latch.countDown();
+			});
+		}
+		assertTrue(latch.await(60, TimeUnit.SECONDS));
+		executor.shutdown();
+
+		assertTrue(first.contain("key0:0"));
+		assertTrue(second.contain("key0:0"));
+		assertEquals(first.getGenerationCount(), second.getGenerationCount());
+		for (int i = 0; i < first.getGenerationCount() - 1; i++) {
+			assertTrue(first.generationSize(i) > 0);
+		}
+		assertEquals(4000, first.size());
+		for (int t = 0; t < 4; t++) {
+			for (int i = 0; i < 1000; i++) {
+				assertTrue(second.contain("key" + t + ":" + i));
+			}
+		}
+	}
+
+	@Test
+	public void testMaxGenerations() {
+		String key = "cuckoo:key:scalable:max:" + System.currentTimeMillis();
+		ScalableCuckooFilter<String> filter = new ScalableCuckooFilter<>(10L, redisConfig(key), 1000,
+				null, HashUtils.Algorithm.Murmur3_128, 2);
+		int count = 0;
+		while (filter.put("key" + count)) {
+			count++;
+		}
+		// 达到最大代数后写入失败，已写入的元素不受影响
+		assertEquals(2, filter.getGenerationCount());
+		assertEquals(count, filter.size());
+		assertFalse(filter.put("key" + count));
+		for (int i = 0; i < count; i++) {
+			assertTrue(filter.contain("key" + i));
+		}
+	}
+}
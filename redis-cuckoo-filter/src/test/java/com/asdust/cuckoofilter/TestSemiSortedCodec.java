@@ -0,0 +1,106 @@
+package com.asdust.cuckoofilter;
+
+import com.asdust.cuckoofilter.core.BucketEncoding;
+import com.asdust.cuckoofilter.core.LocalFilterTable;
+import com.asdust.cuckoofilter.core.SemiSortedCodec;
+import com.asdust.cuckoofilter.core.TableGeometry;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestSemiSortedCodec {
+
+	@Test
+	public void testEncodeDecode() {
+		Random random = new Random(7);
+		for (int bitsPerTag : new int[]{8, 12, 16, 17}) {
+			for (int n = 0; n < 10000; n++) {
+				long[] tags = new long[4];
+				for (int pos = 0; pos < 4; pos++) {
+					// 包含空槽
+					tags[pos] = random.nextInt(4) == 0 ? 0 : random.nextInt(1 << bitsPerTag);
+				}
+				long bucket = SemiSortedCodec.encode(tags[0], tags[1], tags[2], tags[3], bitsPerTag);
+				Arrays.sort(tags);
+				long[] decoded = new long[4];
+				for (int pos = 0; pos < 4; pos++) {
+					decoded[pos] = SemiSortedCodec.tagAt(bucket, pos, bitsPerTag);
+				}
+				assertArrayEquals(tags, decoded);
+			}
+		}
+		assertEquals(0, SemiSortedCodec.encode(0, 0, 0, 0, 16));
+	}
+
+	@Test
+	public void testGeometry() {
+		TableGeometry plain = TableGeometry.forFpp(1000000, 0.001);
+		TableGeometry semiSorted = TableGeometry.forFpp(1000000, 0.001, BucketEncoding.SEMI_SORTED);
+		assertEquals(4, semiSorted.getBucketSize());
+		assertTrue(semiSorted.getFpp() <= 0.001);
+		assertEquals(4 * semiSorted.getBitsPerTag() - 4, semiSorted.getBucketBits());
+		assertTrue(semiSorted.getSizeInBytes() < plain.getSizeInBytes());
+	}
+
+	@Test
+	public void testEncodeEdges() {
+		for (int bitsPerTag : new int[]{8, 12, 16, 17}) {
+			int lowBits = bitsPerTag - 4;
+			long maxLow = (1L << lowBits) - 1;
+			// 每一种排序后的高4位四元组都能编码并还原，序号与lua脚本使用的colex公式一致
+			int expectedIndex = 0;
+			for (int d = 0; d < 16; d++) {
+				for (int c = 0; c <= d; c++) {
+					for (int b = 0; b <= c; b++) {
+						for (int a = 0; a <= b; a++) {
+							// 高位相同时按低位排序，低位取0、1、中间值和最大值
+							long[] tags = {(long) a << lowBits, (long) b << lowBits | 1, (long) c << lowBits | maxLow >> 1,
+									(long) d << lowBits | maxLow};
+							long bucket = SemiSortedCodec.encode(tags[3], tags[1], tags[2], tags[0], bitsPerTag);
+							assertEquals(expectedIndex++, bucket & ((1 << SemiSortedCodec.INDEX_BITS) - 1));
+							for (int pos = 0; pos < 4; pos++) {
+								assertEquals(tags[pos], SemiSortedCodec.tagAt(bucket, pos, bitsPerTag));
+							}
+						}
+					}
+				}
+			}
+			assertEquals(3876, expectedIndex);
+
+			// 4个最大指纹：17位时编码占满64位，最高位为1
+			long maxTag = (1L << bitsPerTag) - 1;
+			long full = SemiSortedCodec.encode(maxTag, maxTag, maxTag, maxTag, bitsPerTag);
+			for (int pos = 0; pos < 4; pos++) {
+				assertEquals(maxTag, SemiSortedCodec.tagAt(full, pos, bitsPerTag));
+			}
+			if (bitsPerTag == 17) {
+				assertTrue(full < 0);
+			}
+
+			// 替换为0相当于删除，剩下的指纹重新排序，空槽排在最前
+			long bucket = SemiSortedCodec.encode(5, maxTag, 5, 1L << lowBits, bitsPerTag);
+			long deleted = SemiSortedCodec.withTag(bucket, 1, 0, bitsPerTag);
+			long[] expected = {0, 5, 1L << lowBits, maxTag};
+			for (int pos = 0; pos < 4; pos++) {
+				assertEquals(expected[pos], SemiSortedCodec.tagAt(deleted, pos, bitsPerTag));
+			}
+			assertEquals(0, SemiSortedCodec.withTag(SemiSortedCodec.encode(0, 0, 0, 7, bitsPerTag), 3, 0, bitsPerTag));
+		}
+	}
+
+	@Test
+	public void testPutUntilFull() {
+		LocalFilterTable table = new LocalFilterTable(10000, BucketEncoding.SEMI_SORTED);
+		CuckooFilter<String> cuckooFilter = new CuckooFilter<>(table);
+		int count = FilterFixtures.putUntilFull(cuckooFilter, table, 0.9);
+		FilterFixtures.deleteHalf(cuckooFilter, table, count);
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.asdust.cuckoofilter;
+
+import com.asdust.cuckoofilter.core.CuckooTable;
+import com.asdust.cuckoofilter.core.LocalFilterTable;
+import com.asdust.cuckoofilter.core.ShardedFilterTable;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestShardedFilterTable {
+
+	private static final int SHARD_COUNT = 8;
+
+	/**
+	 * 自行计数的本地分片，代替redis的FilterTable
+	 */
+	private static class CountingShard extends LocalFilterTable {
+		private final AtomicLong numItems = new AtomicLong();
+
+		CountingShard(long estimatedMaxNumKeys) {
+			super(estimatedMaxNumKeys);
+		}
+
+		@Override
+		public int put(long curIndex, long altIndex, long tag) {
+			int kicks = super.put(curIndex, altIndex, tag);
+			if (kicks != PUT_FAILED) {
+				numItems.incrementAndGet();
+			}
+			return kicks;
+		}
+
+		@Override
+		public boolean delete(long curIndex, long altIndex, long tag) {
+			boolean deleted = super.delete(curIndex, altIndex, tag);
+			if (deleted) {
+				numItems.decrementAndGet();
+			}
+			return deleted;
+		}
+
+		@Override
+		public long size() {
+			return numItems.get();
+		}
+	}
+
+	private static ShardedFilterTable newTable(long shardKeys) {
+		CountingShard[] shards = new CountingShard[SHARD_COUNT];
+		for (int i = 0; i < SHARD_COUNT; i++) {
+			shards[i] = new CountingShard(shardKeys);
+		}
+		return new ShardedFilterTable(shards);
+	}
+
+	@Test
+	public void testAltHashIndex() {
+		ShardedFilterTable table = newTable(10000);
+		long shardBuckets = table.getNumBuckets() / SHARD_COUNT;
+		Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			long hash = random.nextLong();
+			long curIndex = table.hashIndex(hash);
+			long tag = table.getFingerprint(hash);
+			long altIndex = table.altHashIndex(curIndex, tag);
+			// 另一个桶与当前桶在同一个分片内，再算一次回到当前桶
+			assertEquals(curIndex / shardBuckets, altIndex / shardBuckets);
+			assertEquals(curIndex, table.altHashIndex(altIndex, tag));
+		}
+	}
+
+	@Test
+	public void testFanOutOrder() {
+		ShardedFilterTable table = newTable(10000);
+		int count = 20000;
+		long[] curIndexes = new long[count];
+		long[] altIndexes = new long[count];
+		long[] tags = new long[count];
+		Random random = new Random(2);
+		for (int i = 0; i < count; i++) {
+			long hash = random.nextLong();
+			curIndexes[i] = table.hashIndex(hash);
+			tags[i] = table.getFingerprint(hash);
+			altIndexes[i] = table.altHashIndex(curIndexes[i], tags[i]);
+		}
+		// 只写入偶数下标的元素，批量查询的结果按原顺序交替出现
+		long[] evenCur = new long[count / 2];
+		long[] evenAlt = new long[count / 2];
+		long[] evenTags = new long[count / 2];
+		for (int i = 0; i < count / 2; i++) {
+			evenCur[i] = curIndexes[2 * i];
+			evenAlt[i] = altIndexes[2 * i];
+			evenTags[i] = tags[2 * i];
+		}
+		for (boolean put : table.putAll(evenCur, evenAlt, evenTags)) {
+			assertTrue(put);
+		}
+		boolean[] results = table.containAll(curIndexes, altIndexes, tags);
+		int falsePositives = 0;
+		for (int i = 0; i < count; i++) {
+			if (i % 2 == 0) {
+				assertTrue(results[i]);
+			} else if (results[i]) {
+				falsePositives++;
+			}
+			assertEquals(table.contain(curIndexes[i], altIndexes[i], tags[i]), results[i]);
+		}
+		assertTrue(falsePositives < count / 200);
+	}
+
+	@Test
+	public void testSize() {
+		ShardedFilterTable table = newTable(1000);
+		CuckooFilter<String> filter = new CuckooFilter<>(table);
+		for (int i = 0; i < 5000; i++) {
+			assertTrue(filter.put("key" + i));
+		}
+		assertEquals(5000, table.size());
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(filter.delete("key" + i));
+		}
+		assertEquals(4000, table.size());
+
+		LocalFilterTable[] shards = new LocalFilterTable[SHARD_COUNT];
+		for (int i = 0; i < SHARD_COUNT; i++) {
+			shards[i] = new LocalFilterTable(1000);
+		}
+		// 分片不维护元素个数时无法求和
+		assertEquals(CuckooTable.UNKNOWN_SIZE, new ShardedFilterTable(shards).size());
+	}
+}
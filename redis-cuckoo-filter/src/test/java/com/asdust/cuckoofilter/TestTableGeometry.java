@@ -0,0 +1,75 @@
+package com.asdust.cuckoofilter;
+
+import com.asdust.cuckoofilter.core.BucketEncoding;
+import com.asdust.cuckoofilter.core.TableGeometry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestTableGeometry {
+
+	@Test
+	public void testGeometryForFpp() {
+		// 误判率较高时8位指纹就足够，较低时桶大小为2可以少用1位指纹
+		assertGeometry(TableGeometry.forFpp(1000000, 0.1), 4, 8);
+		assertGeometry(TableGeometry.forFpp(1000000, 0.03), 2, 8);
+		assertGeometry(TableGeometry.forFpp(1000000, 0.001), 2, 12);
+		assertGeometry(TableGeometry.forFpp(1000000, 0.0001), 2, 16);
+		assertGeometry(TableGeometry.forFpp(1000000, 0.00001), 4, 32);
+	}
+
+	@Test
+	public void testCapacity() {
+		for (double fpp : new double[]{0.1, 0.01, 0.001, 0.0001, 0.00001}) {
+			TableGeometry geometry = TableGeometry.forFpp(1000000, fpp);
+			assertTrue(geometry.getFpp() <= fpp);
+			assertTrue(geometry.getMaxItems() >= 1000000);
+		}
+	}
+
+	@Test
+	public void testExactBuckets() {
+		// 6亿个元素、桶大小为2时向上取整到2^29个桶，精确分配约4.32亿个
+		TableGeometry rounded = TableGeometry.forFpp(600000000, 0.001, BucketEncoding.PLAIN);
+		TableGeometry exact = TableGeometry.forFpp(600000000, 0.001, BucketEncoding.PLAIN, true);
+		assertEquals(1L << 29, rounded.getNumBuckets());
+		assertTrue(exact.getNumBuckets() < rounded.getNumBuckets() * 0.81);
+		assertTrue(exact.getMaxItems() >= 600000000);
+		assertEquals(rounded.getBitsPerTag(), exact.getBitsPerTag());
+		// 精确分配的表按分配时留出余量的负载因子计算容量
+		assertTrue(exact.getMaxItems() < 600000000 * 1.001);
+	}
+
+	@Test
+	public void testExactNeverLarger() {
+		double loadFactor = TableGeometry.loadFactor(4);
+		// 刚低于2^20个桶的容量时，留出余量后需要的桶个数超过2^20，取整的结果更小
+		long belowBoundary = (long) ((1L << 20) * 4 * loadFactor * 0.99);
+		assertExactNeverLarger(belowBoundary, 1L << 20);
+		// 超过2^32个桶时按不留余量的负载因子取整，与默认的结果相同
+		long aboveLimit = (long) ((1L << 33) * 4 * loadFactor * 0.95);
+		assertExactNeverLarger(aboveLimit, 1L << 33);
+		for (long keys = 1000; keys < 100000000; keys = keys * 3 / 2) {
+			TableGeometry rounded = TableGeometry.forKeys(keys, 16, 4, BucketEncoding.PLAIN, false);
+			TableGeometry exact = TableGeometry.forKeys(keys, 16, 4, BucketEncoding.PLAIN, true);
+			assertTrue(exact.getNumBuckets() <= rounded.getNumBuckets());
+			assertTrue(exact.getMaxItems() >= keys);
+		}
+	}
+
+	private static void assertExactNeverLarger(long keys, long numBuckets) {
+		TableGeometry rounded = TableGeometry.forKeys(keys, 16, 4, BucketEncoding.PLAIN, false);
+		TableGeometry exact = TableGeometry.forKeys(keys, 16, 4, BucketEncoding.PLAIN, true);
+		assertEquals(numBuckets, rounded.getNumBuckets());
+		assertEquals(numBuckets, exact.getNumBuckets());
+		assertEquals(rounded.getMaxItems(), exact.getMaxItems());
+	}
+
+	private static void assertGeometry(TableGeometry geometry, int bucketSize, int bitsPerTag) {
+		assertEquals(bucketSize, geometry.getBucketSize());
+		assertEquals(bitsPerTag, geometry.getBitsPerTag());
+	}
+
+}
@@ -0,0 +1,194 @@
+package com.asdust.cuckoofilter;
+
+import com.asdust.cuckoofilter.core.FilterTable;
+import com.asdust.cuckoofilter.redis.RedisConfig;
+import com.asdust.cuckoofilter.redis.RedisUtils;
+import com.asdust.cuckoofilter.utils.HashUtils;
+import com.google.common.hash.Funnel;
+import org.junit.Test;
+import org.redisson.api.RKeys;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestWindowedCuckooFilter {
+
+	private static final int GENERATIONS = 3;
+
+	private static final long GENERATION_MILLIS = 60000;
+
+	private static RedisConfig redisConfig(String key) {
+		RedisConfig redisConfig = new RedisConfig();
+		redisConfig.setAddress("redis://127.0.0.1:6379");
+		redisConfig.setRedisBitKey(key);
+		return redisConfig;
+	}
+
+	/**
+	 * 从当前时间所在代的开始计时，只由测试推进，断言不会跨过代的边界；过期时间仍在redis的时钟之后
+	 */
+	private static AtomicLong newClock() {
+		return new AtomicLong(System.currentTimeMillis() / GENERATION_MILLIS * GENERATION_MILLIS);
+	}
+
+	private static WindowedCuckooFilter<String> newFilter(String key, long expectedKeys, AtomicLong clock) {
+		return new WindowedCuckooFilter<>(expectedKeys, redisConfig(key), GENERATIONS, GENERATION_MILLIS, null,
+				HashUtils.Algorithm.Murmur3_128, clock::get);
+	}
+
+	private static int countContained(WindowedCuckooFilter<String> filter, String prefix, int count) {
+		int contained = 0;
+		for (int i = 0; i < count; i++) {
+			if (filter.contain(prefix + i)) {
+				contained++;
+			}
+		}
+		return contained;
+	}
+
+	@Test
+	public void testRotation() {
+		String key = "cuckoo:key:windowed:" + System.currentTimeMillis();
+		AtomicLong clock = newClock();
+		WindowedCuckooFilter<String> filter = newFilter(key, 1000L, clock);
+		long epoch = filter.getCurrentEpoch();
+		assertEquals(clock.get() / GENERATION_MILLIS, epoch);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(filter.put("first" + i));
+		}
+
+		// 进入下一代后写入新的一代，上一代的元素仍在窗口内
+		clock.addAndGet(GENERATION_MILLIS);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(filter.put("second" + i));
+		}
+		assertEquals(epoch + 1, filter.getCurrentEpoch());
+		assertEquals(200, filter.size());
+		assertEquals(100, countContained(filter, "first", 100));
+
+		clock.addAndGet(GENERATION_MILLIS);
+		assertEquals(100, countContained(filter, "first", 100));
+		assertEquals(100, countContained(filter, "second", 100));
+
+		// 第epoch代离开窗口，其中的元素只可能因误判查到
+		clock.addAndGet(GENERATION_MILLIS);
+		assertTrue(countContained(filter, "first", 100) < 5);
+		assertEquals(100, countContained(filter, "second", 100));
+		assertEquals(epoch + GENERATIONS, filter.getCurrentEpoch());
+		assertEquals(100, filter.size());
+
+		// 时钟回拨时继续使用已有的代
+		clock.addAndGet(-GENERATION_MILLIS);
+		assertEquals(epoch + GENERATIONS, filter.getCurrentEpoch());
+		assertEquals(100, countContained(filter, "second", 100));
+	}
+
+	@Test
+	public void testContainAcrossGenerations() {
+		String key = "cuckoo:key:windowed:pipeline:" + System.currentTimeMillis();
+		AtomicLong clock = newClock();
+		WindowedCuckooFilter<String> filter = newFilter(key, 1000L, clock);
+		for (int g = 0; g < GENERATIONS; g++) {
+			if (g > 0) {
+				clock.addAndGet(GENERATION_MILLIS);
+			}
+			for (int i = 0; i < 100; i++) {
+				assertTrue(filter.put("g" + g + ":" + i));
+			}
+			assertTrue(filter.put("repeated"));
+		}
+
+		// 之后创建的客户端按redis中的结构打开已有的代，一次pipeline查到每一代写入的元素
+		WindowedCuckooFilter<String> other = newFilter(key, 1000L, clock);
+		assertEquals(filter.getCurrentEpoch(), other.getCurrentEpoch());
+		for (int g = 0; g < GENERATIONS; g++) {
+			assertEquals(100, countContained(other, "g" + g + ":", 100));
+		}
+		assertEquals(filter.size(), other.size());
+
+		// 每次删除只删除最新一代中的一个
+		for (int g = 0; g < GENERATIONS; g++) {
+			assertTrue(other.contain("repeated"));
+			assertTrue(other.delete("repeated"));
+		}
+		assertFalse(filter.contain("repeated"));
+		assertFalse(other.delete("repeated"));
+		assertEquals(100, countContained(filter, "g0:", 100));
+	}
+
+	@Test
+	public void testGenerationGeometry() {
+		String key = "cuckoo:key:windowed:geometry:" + System.currentTimeMillis();
+		AtomicLong clock = newClock();
+		WindowedCuckooFilter<String> filter = newFilter(key, 1000L, clock);
+		for (int i = 0; i < 500; i++) {
+			assertTrue(filter.put("old" + i));
+		}
+
+		// 期望元素个数不同的客户端按每一代自己保存的桶个数查询，旧的一代不会漏查
+		clock.addAndGet(GENERATION_MILLIS);
+		WindowedCuckooFilter<String> resized = newFilter(key, 100000L, clock);
+		for (int i = 0; i < 500; i++) {
+			assertTrue(resized.put("new" + i));
+		}
+		assertEquals(500, countContained(resized, "old", 500));
+		assertEquals(500, countContained(filter, "new", 500));
+		assertEquals(1000, resized.size());
+	}
+
+	@Test
+	public void testFunnel() {
+		String key = "cuckoo:key:windowed:funnel:" + System.currentTimeMillis();
+		AtomicLong clock = newClock();
+		Funnel<UUID> funnel = (uuid, into) -> into.putLong(uuid.getMostSignificantBits())
+				.putLong(uuid.getLeastSignificantBits());
+		WindowedCuckooFilter<UUID> filter = new WindowedCuckooFilter<>(1000L, redisConfig(key), GENERATIONS,
+				GENERATION_MILLIS, funnel, HashUtils.Algorithm.xxHash64, clock::get);
+		UUID[] items = new UUID[100];
+		for (int i = 0; i < items.length; i++) {
+			items[i] = new UUID(i, -i);
+			assertTrue(filter.put(items[i]));
+		}
+		clock.addAndGet(GENERATION_MILLIS);
+		for (UUID item : items) {
+			assertTrue(filter.contain(item));
+		}
+		assertTrue(filter.delete(items[0]));
+		assertEquals(items.length - 1, filter.size());
+	}
+
+	@Test
+	public void testExpireAndUnlink() {
+		String key = "cuckoo:key:windowed:expire:" + System.currentTimeMillis();
+		AtomicLong clock = newClock();
+		WindowedCuckooFilter<String> filter = newFilter(key, 1000L, clock);
+		long epoch = filter.getCurrentEpoch();
+		filter.put("aaaa");
+		String bitKey = key + ":e" + epoch;
+		String metaKey = RedisUtils.companionKey(bitKey, "meta");
+		RedisUtils redisUtils = FilterTable.connect(redisConfig(key));
+		RKeys keys = redisUtils.getKeys();
+
+		// 当前代的bitmap和元数据在离开窗口时过期
+		long leaveMillis = (epoch + GENERATIONS) * GENERATION_MILLIS - System.currentTimeMillis();
+		for (String name : new String[]{bitKey, metaKey}) {
+			long ttl = keys.remainTimeToLive(name);
+			assertTrue(ttl > 0);
+			assertTrue(Math.abs(ttl - leaveMillis) < 1000);
+		}
+
+		// 过期时间按redis的时钟还没有到，离开窗口的代由切换时的UNLINK删除
+		clock.addAndGet((GENERATIONS - 1) * GENERATION_MILLIS);
+		assertTrue(filter.contain("aaaa"));
+		assertEquals(2, keys.countExists(bitKey, metaKey));
+		clock.addAndGet(GENERATION_MILLIS);
+		assertFalse(filter.contain("aaaa"));
+		assertEquals(0, keys.countExists(bitKey, metaKey));
+		redisUtils.shutdown();
+	}
+}
@@ -0,0 +1,166 @@
+package com.asdust.cuckoofilter.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestCuckooPathSearch {
+
+	/**
+	 * 用数组保存的桶，第interfereAt次replace之前先执行interference，模拟其他线程在kickLock之外的写入和删除
+	 */
+	private static final class ArrayBuckets implements CuckooPathSearch.Buckets {
+		private final long[][] slots;
+
+		private int replaceCalls;
+
+		private int interfereAt = -1;
+
+		private boolean insertOnInterfere;
+
+		private ArrayBuckets(long numBuckets) {
+			this.slots = new long[(int) numBuckets][4];
+		}
+
+		@Override
+		public void read(long index, long[] tags) {
+			System.arraycopy(slots[(int) index], 0, tags, 0, tags.length);
+		}
+
+		@Override
+		public boolean replace(long index, long expected, long tag) {
+			if (++replaceCalls == interfereAt) {
+				// 删除要覆盖的指纹，或者占用要写入的空槽
+				set(index, expected, insertOnInterfere ? 0xFFFF : 0);
+			}
+			return set(index, expected, tag);
+		}
+
+		private boolean set(long index, long expected, long tag) {
+			long[] bucket = slots[(int) index];
+			for (int pos = 0; pos < bucket.length; pos++) {
+				if (bucket[pos] == expected) {
+					bucket[pos] = tag;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private long[][] sortedCopy() {
+			long[][] copy = new long[slots.length][];
+			for (int i = 0; i < slots.length; i++) {
+				copy[i] = slots[i].clone();
+				Arrays.sort(copy[i]);
+			}
+			return copy;
+		}
+
+		private boolean full(long index) {
+			for (long tag : slots[(int) index]) {
+				if (tag == 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * 不剔除地写入到接近满载，返回两个候选桶都满的新元素{curIndex, altIndex, tag}
+	 */
+	private static long[] fillUntilBothFull(LocalFilterTable table, ArrayBuckets buckets, Random random) {
+		for (int i = 0; i < table.getNumBuckets() * 4 * 0.9; i++) {
+			long hash = random.nextLong();
+			long curIndex = table.hashIndex(hash);
+			long tag = table.getFingerprint(hash);
+			if (!buckets.set(curIndex, 0, tag)) {
+				buckets.set(table.altHashIndex(curIndex, tag), 0, tag);
+			}
+		}
+		while (true) {
+			long hash = random.nextLong();
+			long curIndex = table.hashIndex(hash);
+			long tag = table.getFingerprint(hash);
+			long altIndex = table.altHashIndex(curIndex, tag);
+			if (buckets.full(curIndex) && buckets.full(altIndex)) {
+				return new long[]{curIndex, altIndex, tag};
+			}
+		}
+	}
+
+	@Test
+	public void testRollbackOnConcurrentDelete() {
+		Random random = new Random(3);
+		LocalFilterTable table = new LocalFilterTable(1000);
+		ArrayBuckets buckets = new ArrayBuckets(table.getNumBuckets());
+		long[] item = fillUntilBothFull(table, buckets, random);
+		CuckooPathSearch search = new CuckooPathSearch(table, buckets, 512);
+
+		// 第1次replace把指纹复制到空槽，第2次要用上一层的指纹覆盖它时它已被删除：撤销复制，桶中只少了被删除的指纹
+		long[][] before = buckets.sortedCopy();
+		buckets.interfereAt = 2;
+		assertEquals(CuckooPathSearch.CONFLICT, search.put(item[0], item[1], item[2]));
+		long[][] after = buckets.sortedCopy();
+		int changed = 0;
+		for (int i = 0; i < before.length; i++) {
+			if (!Arrays.equals(before[i], after[i])) {
+				changed++;
+				assertEquals(0, after[i][0]);
+			}
+		}
+		assertEquals(1, changed);
+
+		// 被删除的指纹腾出了空槽，重新查找可以写入
+		buckets.interfereAt = -1;
+		assertTrue(search.put(item[0], item[1], item[2]) >= 0);
+		assertTrue(contains(buckets, item[0], item[2]) || contains(buckets, item[1], item[2]));
+	}
+
+	@Test
+	public void testRollbackOnConcurrentInsert() {
+		Random random = new Random(4);
+		LocalFilterTable table = new LocalFilterTable(1000);
+		ArrayBuckets buckets = new ArrayBuckets(table.getNumBuckets());
+		long[] item = fillUntilBothFull(table, buckets, random);
+		CuckooPathSearch search = new CuckooPathSearch(table, buckets, 512);
+
+		// 找到的空槽在写入前被占用：路径上还没有移动，除了并发写入的槽其余不变
+		long[][] before = buckets.sortedCopy();
+		buckets.interfereAt = 1;
+		buckets.insertOnInterfere = true;
+		assertEquals(CuckooPathSearch.CONFLICT, search.put(item[0], item[1], item[2]));
+		long[][] after = buckets.sortedCopy();
+		int changed = 0;
+		for (int i = 0; i < before.length; i++) {
+			if (!Arrays.equals(before[i], after[i])) {
+				changed++;
+				assertEquals(0xFFFF, after[i][3]);
+			}
+		}
+		assertEquals(1, changed);
+
+		buckets.interfereAt = -1;
+		int kicks = search.put(item[0], item[1], item[2]);
+		assertTrue(kicks > 0 || kicks == CuckooPathSearch.NO_PATH);
+		if (kicks > 0) {
+			assertTrue(contains(buckets, item[0], item[2]) || contains(buckets, item[1], item[2]));
+		} else {
+			assertTrue(Arrays.deepEquals(after, buckets.sortedCopy()));
+		}
+	}
+
+	private static boolean contains(ArrayBuckets buckets, long index, long tag) {
+		for (long slot : buckets.slots[(int) index]) {
+			if (slot == tag) {
+				return true;
+			}
+		}
+		return false;
+	}
+}